@@ -1,24 +1,71 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Note that we only support aggregates over a single column, grouped by
+ * zero or more columns.
+ * <p>
+ * Groups are kept in memory until their estimated size reaches the memory
+ * budget. From then on, tuples of the groups already in memory are still
+ * merged into them, and tuples of any other group are hashed on their group
+ * value into one of {@link #FANOUT} partitions and written to a
+ * {@link TupleSpillFile}. Every group is thus either wholly in memory or
+ * wholly in one partition. Once the child is exhausted, the groups in memory
+ * are returned, and then each partition is aggregated by a new Aggregate
+ * that hashes with a different seed, so that it spills again if its groups
+ * still do not fit. After {@link #MAX_LEVELS} rounds of partitioning, which
+ * needs more than FANOUT^MAX_LEVELS times the budget, groups stay in memory
+ * regardless of the budget.
+ * <p>
+ * A child that is a {@link BatchIterator} is read a batch at a time, and
+ * whole batches are merged into the groups as long as they cannot take
+ * the groups over the budget.
+ * <p>
+ * An aggregate can also be split into {@link #partial} aggregates over
+ * parts of its input, which {@link #merge} combines, so that the parts can
+ * be aggregated in parallel.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default memory budget for the groups in memory, in bytes. */
+    public static final long DEFAULT_MEMORY_BYTES = 16L << 20;
+    /** Number of partitions the groups that do not fit are split into. */
+    static final int FANOUT = 16;
+    /** Number of times groups are partitioned before staying in memory. */
+    static final int MAX_LEVELS = 3;
+    /** Estimated bytes a group takes beyond its group by fields. */
+    static final int GROUP_OVERHEAD = 128;
+
+    private OpIterator child;
+    private int afield;
+    private int[] gbfields;
+    private Aggregator.Op aop;
+    private final long memoryBytes;
+    private final int level;
+    /** The name of the aggregate field of the output, or null for the default. */
+    private final String aggName;
+
+    transient private Aggregator agg;
+    transient private OpIterator aggIterator;
+    /** The spilled partitions, or null if nothing was spilled. */
+    transient private TupleSpillFile[] parts;
+    transient private int nextSpilled;
+    transient private Aggregate spilledAgg;
+    private int spills;
+
     /**
      * Constructor.
-     * 
+     *
      * Implementation hint: depending on the type of afield, you will want to
      * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
      * you with your implementation of readNext().
-     * 
-     * 
+     *
+     *
      * @param child
      *            The OpIterator that is feeding us tuples.
      * @param afield
@@ -29,64 +76,182 @@ public class Aggregate extends Operator {
      * @param aop
      *            The aggregation operator to use
      */
-    private OpIterator child;
-    private int afield;
-    private int gbfield;
-    private Aggregator.Op aop;
-    private Aggregator agg;
-    private OpIterator[] children;
-    private OpIterator aggIterator;
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
-	// some code goes here
-    		this.child=child;
-    		this.aop=aop;
-    		this.afield=afield;
-    		this.gbfield=gfield;
-    		TupleDesc td=child.getTupleDesc();
-    		Type grType, aggType;
-    		if (gfield==Aggregator.NO_GROUPING) {
-    			grType=null;
-    		} else {
-    			grType=td.getFieldType(gfield);
-    		}
-    		aggType=td.getFieldType(afield);
-    		if (aggType==Type.INT_TYPE) {
-    			agg=new IntegerAggregator(gfield, grType, afield, aop);
-    		} else if (aggType==Type.STRING_TYPE) {
-    			agg=new StringAggregator(gfield, grType, afield, aop);
-    		}
-    		
+        this(child, afield, gfield == Aggregator.NO_GROUPING ? new int[0]
+                : new int[] { gfield }, aop);
+    }
+
+    /**
+     * Constructor for an aggregate grouped by several columns.
+     *
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     */
+    public Aggregate(OpIterator child, int afield, int[] gfields, Aggregator.Op aop) {
+        this(child, afield, gfields, aop, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor for an aggregate whose groups may take up to memoryBytes
+     * bytes before it spills to disk.
+     *
+     * @param memoryBytes
+     *            the memory budget of the groups
+     * @throws IllegalArgumentException
+     *             if aop cannot be computed over afield's type
+     */
+    public Aggregate(OpIterator child, int afield, int[] gfields, Aggregator.Op aop,
+            long memoryBytes) {
+        this(child, afield, gfields, aop, memoryBytes, 0, null);
+    }
+
+    private Aggregate(OpIterator child, int afield, int[] gfields, Aggregator.Op aop,
+            long memoryBytes, int level, String aggName) {
+        this.child = child;
+        this.afield = afield;
+        this.gbfields = gfields.clone();
+        this.aop = aop;
+        this.memoryBytes = memoryBytes;
+        this.level = level;
+        this.aggName = aggName;
+        // fail now rather than when opened
+        newAggregator();
+    }
+
+    /**
+     * Returns an aggregate over part of the input of this aggregate, whose
+     * groups {@link #merge} combines with those of the other parts. Its
+     * tuples are the group by fields followed by the partial aggregate,
+     * which for an avg is a sum and a count.
+     *
+     * @param part
+     *            the part of the input, with the TupleDesc of the input
+     * @param memoryBytes
+     *            the memory budget of the groups of the part
+     * @throws IllegalArgumentException
+     *             if this aggregate cannot be split into partial aggregates
+     */
+    public Aggregate partial(OpIterator part, long memoryBytes) {
+        mergeOp(aop);
+        return new Aggregate(part, afield, gbfields, partialOp(aop), memoryBytes, 0, null);
+    }
+
+    /**
+     * Returns an aggregate that merges the groups of the partial aggregates
+     * of this aggregate, see {@link #partial}, into the tuples this
+     * aggregate returns.
+     *
+     * @param partials
+     *            the tuples of the partial aggregates of all the parts
+     * @param memoryBytes
+     *            the memory budget of the merged groups
+     * @throws IllegalArgumentException
+     *             if this aggregate cannot be split into partial aggregates
+     */
+    public Aggregate merge(OpIterator partials, long memoryBytes) {
+        int[] groups = new int[gbfields.length];
+        for (int i = 0; i < groups.length; i++)
+            groups[i] = i;
+        return new Aggregate(partials, gbfields.length, groups, mergeOp(aop), memoryBytes, 0,
+                getTupleDesc().getFieldName(gbfields.length));
+    }
+
+    /**
+     * @return the operator of the partial aggregates of aop over parts of
+     *         the input
+     */
+    static Aggregator.Op partialOp(Aggregator.Op aop) {
+        return aop == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : aop;
+    }
+
+    /**
+     * @return the operator that merges the partial aggregates of aop
+     * @throws IllegalArgumentException
+     *             if aop cannot be split into partial aggregates
+     */
+    static Aggregator.Op mergeOp(Aggregator.Op aop) {
+        switch (aop) {
+        case MIN:
+        case MAX:
+        case SUM:
+            return aop;
+        case COUNT:
+            return Aggregator.Op.SUM;
+        case AVG:
+            return Aggregator.Op.SC_AVG;
+        default:
+            throw new IllegalArgumentException(aop + " cannot be split into partial aggregates");
+        }
+    }
+
+    private Aggregator newAggregator() {
+        return newAggregator(child.getTupleDesc(), afield, gbfields, aop);
+    }
+
+    /**
+     * @return an aggregator of aop over afield of tuples with descriptor td,
+     *         grouped by gbfields
+     * @throws IllegalArgumentException
+     *             if aop cannot be computed over afield's type
+     */
+    static Aggregator newAggregator(TupleDesc td, int afield, int[] gbfields,
+            Aggregator.Op aop) {
+        Type[] grTypes = new Type[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            grTypes[i] = td.getFieldType(gbfields[i]);
+        if (aop == Aggregator.Op.SC_AVG && (afield + 1 >= td.numFields()
+                || td.getFieldType(afield + 1) != Type.INT_TYPE))
+            throw new IllegalArgumentException("sc_avg needs a count after its sum field");
+        if (td.getFieldType(afield) == Type.INT_TYPE)
+            return new IntegerAggregator(gbfields, grTypes, afield, aop);
+        return new StringAggregator(gbfields, grTypes, afield, aop);
     }
 
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
-     *         {@link simpledb.Aggregator#NO_GROUPING}
+     *         field index in the <b>INPUT</b> tuples, the first if there are
+     *         several. If not, return {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
-	// some code goes here
-    		return this.gbfield;
+        return gbfields.length == 0 ? Aggregator.NO_GROUPING : gbfields[0];
+    }
+
+    /**
+     * @return the indexes of the groupby fields in the <b>INPUT</b> tuples,
+     *         empty if there is no grouping
+     */
+    public int[] groupFields() {
+        return gbfields.clone();
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples. If not, return
-     *         null;
+     *         of the groupby field in the <b>OUTPUT</b> tuples, the first if
+     *         there are several. If not, return null;
      * */
     public String groupFieldName() {
-	// some code goes here
-    		if (this.gbfield==Aggregator.NO_GROUPING) {
-    			return null;
-    		}
-    		return child.getTupleDesc().getFieldName(gbfield);
+        if (gbfields.length == 0)
+            return null;
+        return child.getTupleDesc().getFieldName(gbfields[0]);
+    }
+
+    /**
+     * @return the names of the groupby fields in the <b>OUTPUT</b> tuples,
+     *         empty if there is no grouping
+     */
+    public String[] groupFieldNames() {
+        String[] names = new String[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            names[i] = child.getTupleDesc().getFieldName(gbfields[i]);
+        return names;
     }
 
     /**
      * @return the aggregate field
      * */
     public int aggregateField() {
-	// some code goes here
-    		return this.afield;
+        return this.afield;
     }
 
     /**
@@ -94,114 +259,242 @@ public class Aggregate extends Operator {
      *         tuples
      * */
     public String aggregateFieldName() {
-	// some code goes here
-    		return this.child.getTupleDesc().getFieldName(afield);
+        return this.child.getTupleDesc().getFieldName(afield);
     }
 
     /**
      * @return return the aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
-	// some code goes here
-    		return this.aop;
+        return this.aop;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
-    		return aop.toString();
+        return aop.toString();
+    }
+
+    /**
+     * @return the number of partitions this aggregate and the aggregates of
+     *         its partitions have spilled to disk so far
+     */
+    public int getSpillCount() {
+        return spills;
     }
 
     @Override
-	public void open() throws NoSuchElementException, DbException,
-	    TransactionAbortedException {
-	// some code goes here
-    		super.open();
-    		this.child.open();
-    		while (child.hasNext()) {
-    			agg.mergeTupleIntoGroup(child.next());
-    		}
-    		aggIterator=agg.iterator();
-    		aggIterator.open();
-    		
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        child.open();
+        agg = newAggregator();
+        parts = null;
+        TupleDesc td = child.getTupleDesc();
+        long groupBytes = GROUP_OVERHEAD;
+        for (int f : gbfields)
+            groupBytes += td.getFieldType(f).getLen();
+        long maxGroups = Math.max(1, memoryBytes / groupBytes);
+        boolean canSpill = gbfields.length > 0 && level < MAX_LEVELS;
+        try {
+            if (child instanceof BatchIterator) {
+                Batch batch;
+                while ((batch = ((BatchIterator) child).nextBatch()) != null) {
+                    // each row adds at most one group
+                    if (!canSpill || (parts == null
+                            && agg.numGroups() + batch.size() <= maxGroups)) {
+                        agg.mergeBatchIntoGroups(batch);
+                        continue;
+                    }
+                    for (int i = 0; i < batch.size(); i++)
+                        add(batch.getTuple(batch.row(i)), canSpill, maxGroups);
+                }
+            } else {
+                while (child.hasNext())
+                    add(child.next(), canSpill, maxGroups);
+            }
+        } catch (IOException e) {
+            deleteParts();
+            throw new DbException("could not spill aggregate partition: " + e);
+        }
+        aggIterator = agg.iterator();
+        aggIterator.open();
+        nextSpilled = 0;
+        super.open();
+    }
+
+    /**
+     * Merges t into its group, or spills it if its group is not in memory
+     * and there is no room for it.
+     */
+    private void add(Tuple t, boolean canSpill, long maxGroups) throws IOException {
+        if (canSpill && (parts != null || agg.numGroups() >= maxGroups) && !agg.hasGroup(t))
+            spill(t);
+        else
+            agg.mergeTupleIntoGroup(t);
+    }
+
+    /**
+     * Writes t to the partition of its group.
+     */
+    private void spill(Tuple t) throws IOException {
+        if (parts == null)
+            parts = new TupleSpillFile[FANOUT];
+        int p = HashEquiJoin.partition(GroupKey.of(t, gbfields).hashCode(), level, FANOUT);
+        if (parts[p] == null) {
+            parts[p] = new TupleSpillFile(child.getTupleDesc());
+            spills++;
+        }
+        parts[p].add(t);
     }
 
     /**
      * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * fields are the fields by which we are grouping, and the last field is
+     * the result of computing the aggregate. If there is no group by field,
+     * then the result tuple should contain one field representing the result
+     * of the aggregate. Should return null if there are no more tuples.
      */
     @Override
-	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-	// some code goes here
-    		if (aggIterator.hasNext()) {
-    			return aggIterator.next();
-    		}
-    		return null;
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (aggIterator.hasNext())
+            return aggIterator.next();
+        while (true) {
+            if (spilledAgg != null) {
+                if (spilledAgg.hasNext())
+                    return spilledAgg.next();
+                spills += spilledAgg.getSpillCount();
+                spilledAgg.close();
+                spilledAgg = null;
+            }
+            if (!openNextSpilled())
+                return null;
+        }
+    }
+
+    /**
+     * Opens an aggregate over the next spilled partition.
+     *
+     * @return false if there are no more spilled partitions
+     */
+    private boolean openNextSpilled() throws TransactionAbortedException, DbException {
+        if (parts == null)
+            return false;
+        if (nextSpilled == 0) {
+            // the aggregates of the spilled partitions get the whole budget
+            agg = null;
+        }
+        while (nextSpilled < parts.length) {
+            TupleSpillFile part = parts[nextSpilled++];
+            if (part == null)
+                continue;
+            try {
+                spilledAgg = new Aggregate(part.iterator(), afield, gbfields, aop,
+                        memoryBytes, level + 1, aggName);
+            } catch (IOException e) {
+                throw new DbException("could not read aggregate partition: " + e);
+            }
+            spilledAgg.open();
+            return true;
+        }
+        return false;
     }
 
     @Override
-	public void rewind() throws DbException, TransactionAbortedException {
-	// some code goes here
-    		child.rewind();
-    		aggIterator.rewind();
+    public Batch nextBatch() throws TransactionAbortedException, DbException {
+        return fetchBatch();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        aggIterator.rewind();
+        if (spilledAgg != null) {
+            spilledAgg.close();
+            spilledAgg = null;
+        }
+        nextSpilled = 0;
     }
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * 
+     * field, the first fields will be the group by fields, and the last will
+     * be the aggregate value column.
+     *
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
      * given in the constructor, and child_td is the TupleDesc of the child
      * iterator.
      */
     @Override
-	public TupleDesc getTupleDesc() {
-	// some code goes here
-    	
-    		Type[] type;
-    		String[] str;
-    		if (gbfield==Aggregator.NO_GROUPING) {
-    			type=new Type[1];
-    			str=new String[1];
-    			type[0]=Type.INT_TYPE;
-    			str[0]=aop.toString() + "(" + child.getTupleDesc().getFieldName(afield)+')';
-    		} else {
-    			type=new Type[2];
-    			type[0]=child.getTupleDesc().getFieldType(gbfield);
-    			type[1]=Type.INT_TYPE;
-    			str=new String[2];
-    			str[0]=child.getTupleDesc().getFieldName(gbfield);
-    			str[1]=aop.toString() + "(" + child.getTupleDesc().getFieldName(afield)+')';
-    		}
-    		
-    		return new TupleDesc(type, str);
-    		
-    		//return child.getTupleDesc();
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = outputDesc(child.getTupleDesc(), afield, gbfields, aop);
+        if (aggName == null)
+            return td;
+        Type[] type = new Type[td.numFields()];
+        String[] str = new String[td.numFields()];
+        for (int i = 0; i < str.length; i++) {
+            type[i] = td.getFieldType(i);
+            str[i] = td.getFieldName(i);
+        }
+        str[gbfields.length] = aggName;
+        return new TupleDesc(type, str);
+    }
+
+    /**
+     * @return the TupleDesc of an aggregate of aop over afield of tuples with
+     *         descriptor td, grouped by gbfields
+     */
+    static TupleDesc outputDesc(TupleDesc td, int afield, int[] gbfields,
+            Aggregator.Op aop) {
+        int vals = aop == Aggregator.Op.SUM_COUNT ? 2 : 1;
+        Type[] type = new Type[gbfields.length + vals];
+        String[] str = new String[gbfields.length + vals];
+        for (int i = 0; i < gbfields.length; i++) {
+            type[i] = td.getFieldType(gbfields[i]);
+            str[i] = td.getFieldName(gbfields[i]);
+        }
+        type[gbfields.length] = Type.INT_TYPE;
+        if (aop == Aggregator.Op.SUM_COUNT) {
+            type[gbfields.length + 1] = Type.INT_TYPE;
+            str[gbfields.length] = Aggregator.Op.SUM + "(" + td.getFieldName(afield) + ')';
+            str[gbfields.length + 1] = Aggregator.Op.COUNT + "(" + td.getFieldName(afield) + ')';
+        } else {
+            str[gbfields.length] = aop.toString() + "(" + td.getFieldName(afield) + ')';
+        }
+        return new TupleDesc(type, str);
+    }
+
+    private void deleteParts() {
+        if (parts == null)
+            return;
+        for (TupleSpillFile part : parts) {
+            if (part != null)
+                part.delete();
+        }
+        parts = null;
     }
 
     @Override
-	public void close() {
-	// some code goes here
-    		super.close();
-    		child.close();
-    		aggIterator.close();
+    public void close() {
+        super.close();
+        child.close();
+        if (aggIterator != null)
+            aggIterator.close();
+        aggIterator = null;
+        if (spilledAgg != null) {
+            spilledAgg.close();
+            spilledAgg = null;
+        }
+        deleteParts();
+        agg = null;
     }
 
     @Override
     public OpIterator[] getChildren() {
-	// some code goes here
-    		return this.children;
+        return new OpIterator[] { this.child };
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-	// some code goes here
-    		this.children=new OpIterator[1];
-    		this.children[0]=children[0];
+        this.child = children[0];
     }
-    
+
 }
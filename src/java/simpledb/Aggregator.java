@@ -10,20 +10,20 @@ public interface Aggregator extends Serializable {
     static final int NO_GROUPING = -1;
 
     /**
-     * SUM_COUNT and SC_AVG will
-     * only be used in lab7, you are not required
-     * to implement them until then.
+     * SUM_COUNT and SC_AVG are only supported over integers; they split an
+     * avg into partial aggregates over parts of the input and the merge of
+     * those, see {@link Aggregate#partial} and {@link Aggregate#merge}.
      * */
     public enum Op implements Serializable {
         MIN, MAX, SUM, AVG, COUNT,
         /**
-         * SUM_COUNT: compute sum and count simultaneously, will be
-         * needed to compute distributed avg in lab7.
+         * SUM_COUNT: compute sum and count simultaneously, as two
+         * aggregate fields, the partial aggregate of a distributed avg.
          * */
         SUM_COUNT,
         /**
-         * SC_AVG: compute the avg of a set of SUM_COUNT tuples,
-         * will be used to compute distributed avg in lab7.
+         * SC_AVG: compute the avg of a set of SUM_COUNT tuples, whose count
+         * field follows the sum field being aggregated.
          * */
         SC_AVG;
 
@@ -77,6 +77,28 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merges the rows of a batch into the aggregate, as
+     * {@link #mergeTupleIntoGroup} does for each of them.
+     *
+     * @param batch the rows, with an aggregate field and group-by fields
+     */
+    public default void mergeBatchIntoGroups(Batch batch) {
+        for (int i = 0; i < batch.size(); i++)
+            mergeTupleIntoGroup(batch.getTuple(batch.row(i)));
+    }
+
+    /**
+     * @param tup a Tuple containing a group-by field
+     * @return true if a tuple with the same group value has been merged
+     */
+    public boolean hasGroup(Tuple tup);
+
+    /**
+     * @return the number of distinct group values merged so far
+     */
+    public int numGroups();
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -6,12 +6,13 @@ import java.util.*;
  * BTreeScan is an operator which reads tuples in sorted order 
  * according to a predicate
  */
-public class BTreeScan implements OpIterator {
+public class BTreeScan implements IndexOpIterator {
 
 	private static final long serialVersionUID = 1L;
 
 	private boolean isOpen = false;
 	private TransactionId tid;
+	private int tableid;
 	private TupleDesc myTd;
 	private IndexPredicate ipred = null;
 	private transient DbFileIterator it;
@@ -74,6 +75,7 @@ public class BTreeScan implements OpIterator {
 	 */
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
+		this.tableid = tableid;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		if(ipred == null) {
@@ -144,4 +146,21 @@ public class BTreeScan implements OpIterator {
 		close();
 		open();
 	}
+
+	/**
+	 * Opens this scan on the tuples that satisfy ipred, which replaces the
+	 * predicate it was created with.
+	 */
+	public void open(IndexPredicate ipred) throws NoSuchElementException,
+	DbException, TransactionAbortedException {
+		this.ipred = ipred;
+		this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+		open();
+	}
+
+	public void rewind(IndexPredicate ipred) throws DbException,
+	TransactionAbortedException {
+		close();
+		open(ipred);
+	}
 }
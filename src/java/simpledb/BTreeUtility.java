@@ -584,6 +584,8 @@ public class BTreeUtility {
 		Exception error;
 		Object slock;
 		Object elock;
+		volatile boolean stopped;
+		volatile long lookups;
 
 		/**
 		 * @param tid the transaction on whose behalf we want to search for the tuple(s)
@@ -604,7 +606,7 @@ public class BTreeUtility {
 
 		public void run() {
 			try {
-				while(true) {
+				while(!stopped) {
 					IndexPredicate ipred = new IndexPredicate(Op.EQUALS, f);
 					DbFileIterator it = bf.indexIterator(tid, ipred);
 					it.open();
@@ -614,6 +616,7 @@ public class BTreeUtility {
 						c++;
 					}
 					it.close();
+					lookups++;
 					if(c >= count) {
 						synchronized(slock) {
 							found = true;
@@ -635,6 +638,20 @@ public class BTreeUtility {
 			}
 		}
 
+		/**
+		 * Makes the thread return after its current lookup.
+		 */
+		public void finish() {
+			stopped = true;
+		}
+
+		/**
+		 * @return the number of lookups this thread has completed
+		 */
+		public long lookups() {
+			return lookups;
+		}
+
 		/**
 		 * @return true if we successfully found the tuple(s)
 		 */
@@ -0,0 +1,267 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Batch holds up to a fixed number of rows with a common TupleDesc column
+ * by column, for operators that process many rows per call, see
+ * {@link BatchIterator}. Each INT_TYPE field is a vector of ints and each
+ * STRING_TYPE field a vector of Strings, so a batch read from a page
+ * allocates no Tuple or Field per row.
+ * <p>
+ * A selection vector lists the rows of the vectors that are in the batch,
+ * in increasing order, so that an operator such as Filter drops rows by
+ * narrowing it rather than by copying the rows that remain. Rows are
+ * accessed by their index in the vectors: the i-th row in the batch is
+ * {@link #row row(i)}, for i below {@link #size()}.
+ */
+public class Batch {
+
+    /** Default number of rows a batch holds. */
+    public static final int DEFAULT_ROWS = 1024;
+
+    private final TupleDesc td;
+    /** The vector of each INT_TYPE field, null for other fields. */
+    private final int[][] ints;
+    /** The vector of each STRING_TYPE field, null for other fields. */
+    private final String[][] strings;
+    private final int capacity;
+    /** Number of rows in the vectors. */
+    private int rows;
+    /** The selected rows, or null if all rows are selected. */
+    private int[] sel;
+    private int selected;
+
+    /**
+     * Creates an empty batch of up to {@link #DEFAULT_ROWS} rows.
+     */
+    public Batch(TupleDesc td) {
+        this(td, DEFAULT_ROWS);
+    }
+
+    /**
+     * Creates an empty batch of up to capacity rows.
+     */
+    public Batch(TupleDesc td, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("a batch needs room for a row");
+        this.td = td;
+        this.capacity = capacity;
+        ints = new int[td.numFields()][];
+        strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                strings[i] = new String[capacity];
+        }
+    }
+
+    private Batch(TupleDesc td, int[][] ints, String[][] strings, Batch of) {
+        this.td = td;
+        this.ints = ints;
+        this.strings = strings;
+        this.capacity = of.capacity;
+        this.rows = of.rows;
+        this.sel = of.sel;
+        this.selected = of.selected;
+    }
+
+    /**
+     * @return the next batch of it, which must be open: read with
+     *         {@link BatchIterator#nextBatch} if it is a BatchIterator, and
+     *         tuple by tuple otherwise, or null if it has no more tuples
+     */
+    public static Batch read(OpIterator it) throws DbException, TransactionAbortedException {
+        if (it instanceof BatchIterator)
+            return ((BatchIterator) it).nextBatch();
+        Batch b = new Batch(it.getTupleDesc());
+        while (!b.isFull() && it.hasNext())
+            b.add(it.next());
+        return b.rows == 0 ? null : b;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows this batch has room for
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows in the vectors, selected or not
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return rows == capacity;
+    }
+
+    /**
+     * @return the number of rows in this batch, that is the selected rows
+     */
+    public int size() {
+        return sel == null ? rows : selected;
+    }
+
+    /**
+     * @return the index in the vectors of the i-th row in this batch
+     */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /**
+     * Keeps only some of the rows in this batch.
+     *
+     * @param rows
+     *            the indexes in the vectors of the rows to keep, in
+     *            increasing order, which must all be in this batch
+     * @param n
+     *            the number of rows to keep, the first n of rows
+     */
+    public void select(int[] rows, int n) {
+        sel = rows;
+        selected = n;
+    }
+
+    /**
+     * @return the vector of field i, which must be an INT_TYPE field
+     */
+    public int[] getInts(int i) {
+        return ints[i];
+    }
+
+    /**
+     * @return the vector of field i, which must be a STRING_TYPE field
+     */
+    public String[] getStrings(int i) {
+        return strings[i];
+    }
+
+    /**
+     * Appends a row, which is selected, for the caller to fill in.
+     *
+     * @return the index of the row in the vectors
+     * @throws IllegalStateException
+     *             if the batch is full
+     */
+    int addRow() {
+        if (rows == capacity)
+            throw new IllegalStateException("batch is full");
+        if (sel != null) {
+            if (sel.length == selected)
+                sel = Arrays.copyOf(sel, capacity);
+            sel[selected++] = rows;
+        }
+        return rows++;
+    }
+
+    /**
+     * Appends n rows, which are selected, for the caller to fill in.
+     *
+     * @return the index in the vectors of the first of the rows
+     * @throws IllegalStateException
+     *             if the rows do not fit
+     */
+    int addRows(int n) {
+        if (n > capacity - rows)
+            throw new IllegalStateException("batch has no room for " + n + " rows");
+        int first = rows;
+        if (sel != null) {
+            if (sel.length < selected + n)
+                sel = Arrays.copyOf(sel, capacity);
+            for (int i = 0; i < n; i++)
+                sel[selected++] = first + i;
+        }
+        rows += n;
+        return first;
+    }
+
+    /**
+     * Appends the fields of t as a row.
+     *
+     * @throws IllegalStateException
+     *             if the batch is full
+     */
+    public void add(Tuple t) {
+        set(addRow(), 0, t);
+    }
+
+    /**
+     * Sets the fields of row from field i on to the fields of t.
+     */
+    void set(int row, int i, Tuple t) {
+        int n = t.getTupleDesc().numFields();
+        for (int j = 0; j < n; j++) {
+            if (ints[i + j] != null)
+                ints[i + j][row] = t.getInt(j);
+            else
+                strings[i + j][row] = ((StringField) t.getField(j)).getValue();
+        }
+    }
+
+    /**
+     * Sets the fields of row from field i on to the fields of row from of
+     * b.
+     */
+    void set(int row, int i, Batch b, int from) {
+        for (int j = 0; j < b.ints.length; j++) {
+            if (ints[i + j] != null)
+                ints[i + j][row] = b.ints[j][from];
+            else
+                strings[i + j][row] = b.strings[j][from];
+        }
+    }
+
+    /**
+     * @return field i of row
+     */
+    public Field getField(int i, int row) {
+        if (ints[i] != null)
+            return new IntField(ints[i][row]);
+        return new StringField(strings[i][row], Type.STRING_LEN);
+    }
+
+    /**
+     * @return a tuple with the fields of row
+     */
+    public Tuple getTuple(int row) {
+        if (row < 0 || row >= rows)
+            throw new NoSuchElementException("no row " + row);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++)
+            t.setField(i, getField(i, row));
+        return t;
+    }
+
+    /**
+     * Returns the rows of this batch with only some of their fields. The
+     * result shares its vectors and selection with this batch, so neither
+     * should be modified once it exists.
+     *
+     * @param td
+     *            the TupleDesc of the result
+     * @param fields
+     *            the fields of this batch that make up the result
+     */
+    Batch project(TupleDesc td, int[] fields) {
+        int[][] pInts = new int[fields.length][];
+        String[][] pStrings = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            pInts[i] = ints[fields[i]];
+            pStrings[i] = strings[fields[i]];
+        }
+        return new Batch(td, pInts, pStrings, this);
+    }
+}
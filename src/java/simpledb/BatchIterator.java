@@ -0,0 +1,22 @@
+package simpledb;
+
+/**
+ * BatchIterator is implemented by the operators that can also return their
+ * tuples a {@link Batch} at a time, which spares a call, a Tuple and boxed
+ * Fields per row. A consumer of an open BatchIterator calls either next()
+ * or nextBatch() until the end or the next rewind, not both. Other
+ * operators can be read a batch at a time through {@link Batch#read}.
+ */
+public interface BatchIterator extends OpIterator {
+
+    /**
+     * Returns the next tuples as a batch. Each call returns a new batch,
+     * which the caller may keep and modify.
+     *
+     * @return the next batch, which has at least one row, or null if there
+     *         are no more tuples
+     * @throws IllegalStateException
+     *             If the iterator has not been opened
+     */
+    public Batch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,296 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Broadcast is the {@link Exchange} that gives every one of several
+ * consumers all the tuples of its producers, such as the inner input of a
+ * nested loops join whose outer input is split among the consumers. Each
+ * consumer reads from a Broadcast operator of its own, a port, made by
+ * {@link #create}.
+ * <p>
+ * The producers run once, when the first port is opened, and their tuples
+ * are kept until the last port is closed: in memory as long as they fit in
+ * the broadcast's memory budget, and otherwise all of them in a
+ * {@link TupleSpillFile} that every port reads on its own. A port returns
+ * nothing until the producers are done, and can then be rewound.
+ */
+public class Broadcast extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the tuples of a broadcast. */
+    public static final long DEFAULT_MEMORY_BYTES = 16L << 20;
+
+    private final Hub hub;
+    private final int port;
+
+    transient private Hub.Result result;
+    transient private int next;
+    /** This port's reader of the spilled tuples, if the run spilled. */
+    transient private OpIterator spilled;
+
+    /**
+     * The state the ports of a broadcast share.
+     */
+    private static class Hub {
+        OpIterator[] producers;
+        final int consumers;
+        final TupleDesc td;
+        /** The most tuples kept in memory. */
+        final long maxTuples;
+
+        /** The tuples of the current run, or null if no port is open. */
+        private Result result;
+        private boolean[] opened;
+        private boolean[] closed;
+
+        /**
+         * The tuples of one run of the producers, complete once the run has
+         * finished.
+         */
+        class Result {
+            final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            /** All the tuples once they no longer fit in memory, or null. */
+            TupleSpillFile spill;
+            final Run run;
+            private boolean complete;
+
+            Result() {
+                run = new Run(producers) {
+                    @Override
+                    Sink newSink() {
+                        return new Sink() {
+                            private ArrayList<Tuple> batch = new ArrayList<Tuple>(BATCH_TUPLES);
+
+                            @Override
+                            public void add(Tuple t) throws IOException {
+                                batch.add(t);
+                                if (batch.size() >= BATCH_TUPLES)
+                                    flush();
+                            }
+
+                            @Override
+                            public void flush() throws IOException {
+                                synchronized (Result.this) {
+                                    if (spill == null && tuples.size() + batch.size() > maxTuples) {
+                                        spill = new TupleSpillFile(td);
+                                        for (Tuple t : tuples)
+                                            spill.add(t);
+                                        tuples.clear();
+                                        tuples.trimToSize();
+                                    }
+                                    if (spill != null) {
+                                        for (Tuple t : batch)
+                                            spill.add(t);
+                                    } else {
+                                        tuples.addAll(batch);
+                                    }
+                                }
+                                batch.clear();
+                            }
+                        };
+                    }
+
+                    @Override
+                    void finish() throws IOException {
+                        synchronized (Result.this) {
+                            // ends writing, so that the ports can read it
+                            if (spill != null)
+                                spill.iterator();
+                            complete = true;
+                            Result.this.notifyAll();
+                        }
+                    }
+                };
+            }
+
+            /**
+             * Waits for the producers to finish.
+             */
+            void await() throws DbException, TransactionAbortedException {
+                try {
+                    ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                        @Override
+                        public boolean block() throws InterruptedException {
+                            synchronized (Result.this) {
+                                while (!complete)
+                                    Result.this.wait();
+                            }
+                            return true;
+                        }
+
+                        @Override
+                        public boolean isReleasable() {
+                            synchronized (Result.this) {
+                                return complete;
+                            }
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted waiting for exchange producers");
+                }
+                run.rethrowFailure();
+            }
+        }
+
+        Hub(OpIterator[] producers, int consumers, long memoryBytes) {
+            this.producers = producers.clone();
+            this.consumers = consumers;
+            this.td = producerDesc(producers);
+            this.maxTuples = Math.max(1, memoryBytes / (td.getSize() + HashEquiJoin.TUPLE_OVERHEAD));
+        }
+
+        /**
+         * Opens port, starting the producers if it is the first.
+         *
+         * @return the tuples of the run
+         */
+        synchronized Result open(int port) throws DbException {
+            if (result == null) {
+                opened = new boolean[consumers];
+                closed = new boolean[consumers];
+                result = new Result();
+                result.run.start();
+            } else if (opened[port]) {
+                throw new DbException("broadcast port " + port
+                        + " opened again before the other ports were closed");
+            }
+            opened[port] = true;
+            return result;
+        }
+
+        /**
+         * Closes port, and drops the tuples, deleting any spill file, if it
+         * was the last one open.
+         */
+        synchronized void close(int port) {
+            if (result == null || !opened[port] || closed[port])
+                return;
+            closed[port] = true;
+            for (boolean c : closed) {
+                if (!c)
+                    return;
+            }
+            result.run.stop();
+            if (result.spill != null)
+                result.spill.delete();
+            result = null;
+        }
+    }
+
+    private Broadcast(Hub hub, int port) {
+        this.hub = hub;
+        this.port = port;
+    }
+
+    /**
+     * Creates the ports of a broadcast with the default memory budget.
+     *
+     * @param producers
+     *            the plans whose tuples every consumer gets, which return
+     *            tuples with the same TupleDesc
+     * @param consumers
+     *            the number of consumers
+     * @return one port per consumer
+     */
+    public static Broadcast[] create(OpIterator[] producers, int consumers) {
+        return create(producers, consumers, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Creates the ports of a broadcast whose tuples may take up to
+     * memoryBytes bytes of memory before they spill to disk.
+     *
+     * @param memoryBytes
+     *            the memory budget shared by all ports
+     * @return one port per consumer
+     */
+    public static Broadcast[] create(OpIterator[] producers, int consumers, long memoryBytes) {
+        if (consumers < 1)
+            throw new IllegalArgumentException("a broadcast needs a consumer");
+        Hub hub = new Hub(producers, consumers, memoryBytes);
+        Broadcast[] ports = new Broadcast[consumers];
+        for (int i = 0; i < consumers; i++)
+            ports[i] = new Broadcast(hub, i);
+        return ports;
+    }
+
+    @Override
+    public String getName() {
+        return "broadcast," + hub.producers.length + "->" + hub.consumers;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return hub.td;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        result = hub.open(port);
+        next = -1;
+        super.open();
+    }
+
+    /**
+     * @return true if the tuples of the run went to a spill file
+     */
+    boolean spilled() {
+        return result != null && result.spill != null;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (next < 0) {
+            result.await();
+            next = 0;
+            if (result.spill != null) {
+                if (spilled == null) {
+                    try {
+                        spilled = result.spill.iterator();
+                    } catch (IOException e) {
+                        throw new DbException("could not read broadcast spill file: " + e);
+                    }
+                    spilled.open();
+                } else {
+                    spilled.rewind();
+                }
+            }
+        }
+        if (spilled != null)
+            return spilled.hasNext() ? spilled.next() : null;
+        // the tuples do not change once complete
+        if (next < result.tuples.size())
+            return result.tuples.get(next++);
+        return null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        next = -1;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (spilled != null) {
+            spilled.close();
+            spilled = null;
+        }
+        hub.close(port);
+        result = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return hub.producers.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        hub.producers = children.clone();
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb;
+
+/**
+ * BufferAccessStrategy is a small private ring of buffer pool frames used by
+ * bulk readers such as full table scans. Pages that a scan brings into the
+ * BufferPool through a strategy are remembered in the ring; once the ring is
+ * full, the next page the scan reads replaces the page in the oldest ring
+ * slot instead of pushing some other page out of the shared pool. A scan of
+ * any length therefore only ever occupies ringSize frames, and the hot pages
+ * other transactions rely on (B+ tree internal pages, for example) stay
+ * cached.
+ * <p>
+ * Pages the scan finds already resident are used in place and are not added
+ * to the ring. A ring slot whose page is dirty is not recycled; the
+ * BufferPool falls back to its regular eviction policy for that read.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferAccessStrategy)
+ * @see BufferPool#scanStrategy(int)
+ */
+public class BufferAccessStrategy {
+
+    private final PageId[] ring;
+    private int next;
+
+    /**
+     * Creates a strategy that recycles ringSize frames.
+     *
+     * @param ringSize the number of frames in the ring; must be at least one
+     */
+    public BufferAccessStrategy(int ringSize) {
+        if (ringSize < 1)
+            throw new IllegalArgumentException("ring needs at least one frame");
+        ring = new PageId[ringSize];
+        next = 0;
+    }
+
+    /**
+     * @return the number of frames in the ring
+     */
+    public int ringSize() {
+        return ring.length;
+    }
+
+    /**
+     * @return the page occupying the ring slot the next read will reuse, or
+     *         null if that slot has not been filled yet
+     */
+    PageId reusablePage() {
+        return ring[next];
+    }
+
+    /**
+     * Records that pid was read into the pool through this strategy and
+     * advances to the next ring slot.
+     */
+    void pageLoaded(PageId pid) {
+        ring[next] = pid;
+        next = (next + 1) % ring.length;
+    }
+}
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,6 +13,18 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Resident pages live in a lock-striped {@link PageTable}, so hits on
+ * different pages do not contend. Misses, evictions and other changes to the
+ * set of resident pages synchronize on the BufferPool, but the disk read of
+ * a missed page happens outside that lock with the page's frame pinned;
+ * other threads asking for the same page wait for that read instead of
+ * issuing their own.
+ * <p>
+ * Locking is page-level strict two-phase locking through a
+ * {@link LockManager}. The pool runs NO STEAL / FORCE: pages dirtied by a
+ * running transaction are never evicted, committing writes them to disk and
+ * aborting simply drops them from the pool.
  * 
  * @Threadsafe, all fields are final
  */
@@ -24,20 +38,53 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
-    
-    public HashMap<PageId, Page> map;
-    public HashMap<PageId, Integer> count;
-    private int maxCapacity;
+
+    /** Largest ring handed out by {@link #scanStrategy}. */
+    public static final int SCAN_RING_PAGES = 16;
+
+    private final PageTable table;
+    private final EvictionPolicy policy;
+    private final LockManager lockManager;
+    private final int maxCapacity;
+    /** Number of pages read from disk, see {@link #getPageReadCount}. */
+    private final AtomicLong pagesRead=new AtomicLong();
+    /** Pages written by {@link #appendTuples}, by transaction, to empty on abort. */
+    private final ConcurrentHashMap<TransactionId, ArrayList<PageId>> appended;
+
+    /**
+     * Pages that are pinned, still being read or dirty (NO STEAL) may not be
+     * evicted.
+     */
+    private final EvictionPolicy.Evictable evictable = new EvictionPolicy.Evictable() {
+        @Override
+        public boolean isEvictable(PageId pid) {
+            return table.isEvictable(pid);
+        }
+    };
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting pages
+     * with a {@link ClockEvictionPolicy}.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // some code goes here
+        this(numPages, new ClockEvictionPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and asks policy
+     * which page to evict when it is full.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy used by evictPage
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
     		this.maxCapacity=numPages;
-    		map=new HashMap<>();
-    		count=new HashMap<>();
+    		this.policy=policy;
+    		table=new PageTable();
+    		lockManager=new LockManager();
+    		appended=new ConcurrentHashMap<TransactionId, ArrayList<PageId>>();
     }
     
     public static int getPageSize() {
@@ -71,25 +118,119 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        // some code goes here
-    		
-    		if (map.containsKey(pid)) {
-    			count.put(pid,count.get(pid)+1);
-    			return map.get(pid);
+    		return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a bulk reader. Behaves like
+     * {@link #getPage(TransactionId, PageId, Permissions)}, except that a
+     * page that has to be read from disk replaces the oldest page in the
+     * strategy's ring rather than a page chosen by the eviction policy, once
+     * the ring is full.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param strategy the ring of frames to recycle, or null to use the
+     *     shared pool like any other read
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            BufferAccessStrategy strategy)
+        throws TransactionAbortedException, DbException {
+    		if (tid!=null) {
+    			lockManager.acquire(tid, pid, perm);
     		}
-    		if (map.size()>=maxCapacity) {
-    			try {
-					this.evictPage();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+    		while (true) {
+    			PageTable.Frame frame=table.pin(pid);
+    			if (frame!=null) {
+    				Page page;
+    				try {
+    					page=frame.awaitPage();
+    				} finally {
+    					table.unpin(frame);
+    				}
+    				if (page!=null) {
+    					policy.pageAccessed(pid);
+    					return page;
+    				}
+    				// the read we waited for failed; try it ourselves
+    				continue;
+    			}
+    			synchronized (this) {
+    				if (strategy!=null) {
+    					PageId old=strategy.reusablePage();
+    					if (old!=null && table.removeIfClean(old)) {
+    						policy.pageRemoved(old);
+    					}
+    				}
+    				makeRoom();
+    				frame=table.createPinned(pid);
+    				if (frame==null) {
+    					// another thread got there first
+    					continue;
+    				}
+    				policy.pageAdded(pid);
+    			}
+    			return load(frame, strategy);
     		}
-    		DbFile file=Database.getCatalog().getDatabaseFile(pid.getTableId());
-    		map.put(pid, file.readPage(pid));
-    		count.put(pid, 0);
-    		return map.get(pid);
-    	     
+    }
+
+    /**
+     * Reads the page of a newly created, pinned frame from disk and unpins
+     * the frame. If the read fails the frame is dropped again.
+     */
+    private Page load(PageTable.Frame frame, BufferAccessStrategy strategy) {
+    		PageId pid=frame.pid;
+    		boolean loaded=false;
+    		try {
+    			DbFile file=Database.getCatalog().getDatabaseFile(pid.getTableId());
+    			Page page=frame.fill(file.readPage(pid));
+    			pagesRead.incrementAndGet();
+    			loaded=true;
+    			if (strategy!=null) {
+    				strategy.pageLoaded(pid);
+    			}
+    			return page;
+    		} finally {
+    			if (!loaded) {
+    				synchronized (this) {
+    					table.remove(pid);
+    					policy.pageRemoved(pid);
+    				}
+    				frame.loadFailed();
+    			}
+    			table.unpin(frame);
+    		}
+    }
+
+    /**
+     * Returns the access strategy a full scan over a file of numPages pages
+     * should use, or null if the whole file fits in the shared pool and may
+     * as well stay cached there. Larger files get a ring of at most
+     * {@link #SCAN_RING_PAGES} frames.
+     *
+     * @param numPages the number of pages the scan will read
+     */
+    public BufferAccessStrategy scanStrategy(int numPages) {
+    		if (numPages<=maxCapacity) {
+    			return null;
+    		}
+    		return new BufferAccessStrategy(Math.max(1, Math.min(SCAN_RING_PAGES, maxCapacity/8)));
+    }
+
+    /**
+     * @return the number of pages this pool has read from disk so far, that
+     *     is the requests for pages it did not hold
+     */
+    public long getPageReadCount() {
+    		return pagesRead.get();
+    }
+
+    /**
+     * @return the lock manager that guards this pool's pages
+     */
+    LockManager getLockManager() {
+    		return lockManager;
     }
 
     /**
@@ -104,6 +245,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+    		lockManager.release(tid, pid);
     }
 
     /**
@@ -114,13 +256,14 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+    		transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -134,6 +277,32 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+    		try {
+    			ArrayList<PageId> bulk=appended.remove(tid);
+    			if (commit) {
+    				flushPages(tid);
+    			} else {
+    				// NO STEAL: the disk still has the version from before tid.
+    				// Drop every page tid could have written, including pages an
+    				// insert or delete changed before it was aborted halfway
+    				// and never got to mark dirty.
+    				for (PageId pid: lockManager.lockedPages(tid)) {
+    					if (lockManager.holdsExclusive(tid, pid)) {
+    						discardPage(pid);
+    					}
+    				}
+    				// except for the pages appended in bulk, which went
+    				// straight to disk
+    				if (bulk!=null) {
+    					for (PageId pid: bulk) {
+    						DbFile f=Database.getCatalog().getDatabaseFile(pid.getTableId());
+    						((HeapFile) f).clearPage(pid);
+    					}
+    				}
+    			}
+    		} finally {
+    			lockManager.releaseAll(tid);
+    		}
     }
 
     /**
@@ -156,11 +325,30 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
     		ArrayList<Page> dirtied=Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
-    		for (Page pg: dirtied) {
-    			pg.markDirty(true, tid);
-    			count.put(pg.getId(), count.getOrDefault(pg.getId(), 0)+1);
-    			map.put(pg.getId(), pg);
+    		cacheDirtiedPages(tid, dirtied);
+    }
+
+    /**
+     * Add tuples to the specified table on behalf of transaction tid by
+     * appending new pages to it, written straight to disk with one large
+     * write rather than cached in the buffer pool. Meant for loading data in
+     * bulk: the pages do not take up the buffer pool, but are not filled from
+     * free space in existing pages either. The new pages stay locked for tid
+     * and are emptied again if tid aborts.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to; must be a HeapFile
+     * @param tuples the tuples to add
+     * @see HeapFile#appendTuples
+     */
+    public void appendTuples(TransactionId tid, int tableId, List<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+    		DbFile f=Database.getCatalog().getDatabaseFile(tableId);
+    		if (!(f instanceof HeapFile)) {
+    			throw new DbException("bulk append needs a HeapFile");
     		}
+    		ArrayList<PageId> written=((HeapFile) f).appendTuples(tid, tuples);
+    		appended.computeIfAbsent(tid, t -> new ArrayList<PageId>()).addAll(written);
     }
 
     /**
@@ -183,11 +371,36 @@ public class BufferPool {
     		RecordId record=t.getRecordId();
     		int tableid=record.getPageId().getTableId();
 		ArrayList<Page> dirtied=Database.getCatalog().getDatabaseFile(tableid).deleteTuple(tid, t);
-		for (Page pg: dirtied) {
-			pg.markDirty(true, tid);
-			count.put(pg.getId(), count.getOrDefault(pg.getId(), 0)+1);
-			map.put(pg.getId(), pg);
-		}
+		cacheDirtiedPages(tid, dirtied);
+    }
+
+    /**
+     * Marks the pages dirtied by an insert or delete as dirty and makes them
+     * the cached versions, evicting other pages if a dirtied page was not
+     * resident yet.
+     */
+    private void cacheDirtiedPages(TransactionId tid, ArrayList<Page> dirtied)
+        throws DbException {
+    		for (Page pg: dirtied) {
+    			pg.markDirty(true, tid);
+    			PageId pid=pg.getId();
+    			PageTable.Frame frame=table.pin(pid);
+    			if (frame!=null) {
+    				policy.pageAccessed(pid);
+    			} else {
+    				synchronized (this) {
+    					makeRoom();
+    					frame=table.createPinned(pid);
+    					if (frame==null) {
+    						frame=table.pin(pid);
+    					} else {
+    						policy.pageAdded(pid);
+    					}
+    				}
+    			}
+    			frame.setPage(pg);
+    			table.unpin(frame);
+    		}
     }
 
     /**
@@ -198,7 +411,7 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-    		for (PageId pid: map.keySet()) {
+    		for (PageId pid: table.pageIds()) {
     			flushPage(pid);
     		}
     }
@@ -214,8 +427,9 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-    		count.remove(pid);
-		map.remove(pid);
+    		if (table.remove(pid)!=null) {
+    			policy.pageRemoved(pid);
+    		}
     }
 
     /**
@@ -225,11 +439,19 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-    		Page page = map.get(pid);
-    		if (page.isDirty()!=null) {
-    			int tableid=pid.getTableId();
-    			Database.getCatalog().getDatabaseFile(tableid).writePage(page);
-    			page.markDirty(false, page.isDirty());
+    		PageTable.Frame frame=table.pin(pid);
+    		if (frame==null) {
+    			return;
+    		}
+    		try {
+    			Page page=frame.page();
+    			if (page!=null && page.isDirty()!=null) {
+    				int tableid=pid.getTableId();
+    				Database.getCatalog().getDatabaseFile(tableid).writePage(page);
+    				page.markDirty(false, page.isDirty());
+    			}
+    		} finally {
+    			table.unpin(frame);
     		}
     }
 
@@ -238,27 +460,53 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+    		// a transaction can only have dirtied pages it holds locks on
+    		for (PageId pid: lockManager.lockedPages(tid)) {
+    			PageTable.Frame frame=table.pin(pid);
+    			if (frame==null) {
+    				continue;
+    			}
+    			try {
+    				Page page=frame.page();
+    				if (page!=null && tid.equals(page.isDirty())) {
+    					flushPage(pid);
+    				}
+    			} finally {
+    				table.unpin(frame);
+    			}
+    		}
+    }
+
+    /**
+     * Evicts pages until there is room for one more page.
+     */
+    private void makeRoom() throws DbException {
+    		while (table.size()>=maxCapacity) {
+    			try {
+    				this.evictPage();
+    			} catch (IOException e) {
+    				throw new DbException("could not flush evicted page: " + e.getMessage());
+    			}
+    		}
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
-     * @throws IOException 
+     * The page to discard is chosen by the pool's {@link EvictionPolicy}
+     * among the clean pages nobody has pinned; dirty pages stay until their
+     * transaction commits or aborts.
+     * @throws IOException
      */
     private synchronized  void evictPage() throws DbException, IOException {
-        // some code goes here
-        // not necessary for lab1
-    		int min=Integer.MAX_VALUE;
-    		for (int i:count.values()) {
-    			min = Math.min(min, i);
-    		}
-    		for (PageId pid: count.keySet()) {
-    			if (count.get(pid)==min) {
-    				if (map.get(pid).isDirty()!=null) {
-    					this.flushPage(pid);
-    				}
-    				discardPage(pid);
-    				break;
+    		while (true) {
+    			PageId pid=policy.chooseVictim(evictable);
+    			if (pid==null) {
+    				throw new DbException("all pages in the buffer pool are pinned or dirty");
+    			}
+    			// fails if the page was pinned or dirtied meanwhile
+    			if (table.removeIfClean(pid)) {
+    				policy.pageRemoved(pid);
+    				return;
     			}
     		}
     }
@@ -152,7 +152,8 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [annotation ...]
+                //where the table annotations are readonly and slotted
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -180,10 +181,22 @@ public class Catalog {
                         }
                     }
                 }
+                boolean readOnly = false;
+                boolean slotted = false;
+                for (String a : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (a.equals("readonly"))
+                        readOnly = true;
+                    else if (a.equals("slotted"))
+                        slotted = true;
+                    else if (!a.isEmpty()) {
+                        System.out.println("Unknown table annotation " + a);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, readOnly, slotted);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
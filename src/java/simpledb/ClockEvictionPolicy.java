@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ClockEvictionPolicy implements CLOCK (second chance) replacement. Every
+ * resident page owns a frame in a circular array together with a reference
+ * bit that is set on each hit. To find a victim the clock hand sweeps the
+ * frames, clearing reference bits as it goes, and stops at the first frame
+ * whose bit is already clear. A page therefore survives one sweep per hit
+ * instead of accumulating a count, so pages that were hot during an old scan
+ * age out once they stop being used.
+ * <p>
+ * Newly added pages start with a clear reference bit; a page that is read
+ * once and never touched again is the first candidate for eviction.
+ * <p>
+ * Adding, removing and choosing victims synchronize on the policy. Hits only
+ * look the frame up in a concurrent map and set its reference bit, so they
+ * never block; a bit set while the clock is being resized may be lost, which
+ * costs that page its second chance and nothing else.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private volatile PageId[] frames;
+    private volatile boolean[] referenced;
+    private final ConcurrentHashMap<PageId, Integer> frameOf;
+    private final ArrayDeque<Integer> freeFrames;
+    private int hand;
+
+    /**
+     * Creates a clock with room for numPages frames. The clock grows if the
+     * buffer pool ever holds more pages than that.
+     *
+     * @param numPages the expected maximum number of resident pages
+     */
+    public ClockEvictionPolicy(int numPages) {
+        int n = Math.max(numPages, 1);
+        frames = new PageId[n];
+        referenced = new boolean[n];
+        frameOf = new ConcurrentHashMap<PageId, Integer>();
+        freeFrames = new ArrayDeque<Integer>();
+        for (int i = 0; i < n; i++)
+            freeFrames.addLast(i);
+        hand = 0;
+    }
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (freeFrames.isEmpty())
+            grow();
+        int frame = freeFrames.removeFirst();
+        frames[frame] = pid;
+        referenced[frame] = false;
+        frameOf.put(pid, frame);
+    }
+
+    @Override
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+            referenced[frame] = true;
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame == null)
+            return;
+        frames[frame] = null;
+        referenced[frame] = false;
+        freeFrames.addFirst(frame);
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        if (frameOf.isEmpty())
+            return null;
+        PageId[] frames = this.frames;
+        boolean[] referenced = this.referenced;
+        // two full sweeps are always enough: the first one clears every
+        // reference bit it passes
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            if (frames[frame] == null || !evictable.isEvictable(frames[frame]))
+                continue;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            return frames[frame];
+        }
+        return null;
+    }
+
+    /**
+     * Doubles the number of frames, keeping existing pages in place.
+     */
+    private void grow() {
+        int oldLen = frames.length;
+        referenced = Arrays.copyOf(referenced, oldLen * 2);
+        frames = Arrays.copyOf(frames, oldLen * 2);
+        for (int i = oldLen; i < oldLen * 2; i++)
+            freeFrames.addLast(i);
+    }
+}
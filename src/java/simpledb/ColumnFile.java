@@ -0,0 +1,345 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile that stores a table column by column: the values
+ * of each column are laid out in row order on a chain of
+ * {@link ColumnPage}s of their own, in a file of their own next to the
+ * file this ColumnFile is named after. A scan that needs only some of the
+ * columns of a wide table then reads only their pages, see
+ * {@link #iterator(TransactionId, int[])}, and strings take up only their
+ * actual size.
+ * <p>
+ * A ColumnFile is written once, by {@link #convert}, typically from a
+ * HeapFile, and is read only afterwards: inserting or deleting a tuple
+ * throws a DbException.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final PageChannel[] channels;
+
+    /**
+     * Constructs a column file whose columns are stored in the files
+     * {@link #getColumnFile getColumnFile(i)}.
+     *
+     * @param f
+     *            the file the column files are named after; it need not
+     *            exist, and gives this ColumnFile its id
+     * @param td
+     *            the TupleDesc of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        channels = new PageChannel[td.numFields()];
+        for (int i = 0; i < channels.length; i++)
+            channels[i] = new PageChannel(getColumnFile(f, i));
+    }
+
+    /**
+     * Writes the tuples of a table column by column into the column files
+     * of f, replacing what they held, and returns the ColumnFile over them.
+     * The tuples are read through the BufferPool as part of tid, so from
+     * must be in the Catalog.
+     *
+     * @param tid
+     *            the transaction to read from as
+     * @param from
+     *            the table to convert, such as a HeapFile
+     * @param f
+     *            the file the column files are named after
+     */
+    public static ColumnFile convert(TransactionId tid, DbFile from, File f)
+            throws IOException, DbException, TransactionAbortedException {
+        TupleDesc td = from.getTupleDesc();
+        OutputStream[] outs = new OutputStream[td.numFields()];
+        ColumnPage.Writer[] writers = new ColumnPage.Writer[td.numFields()];
+        DbFileIterator it = from.iterator(tid);
+        try {
+            for (int i = 0; i < outs.length; i++) {
+                outs[i] = new BufferedOutputStream(new FileOutputStream(getColumnFile(f, i)));
+                writers[i] = new ColumnPage.Writer(td.getFieldType(i), outs[i]);
+            }
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < writers.length; i++)
+                    writers[i].add(t.getField(i));
+            }
+            for (ColumnPage.Writer w : writers)
+                w.close();
+        } finally {
+            it.close();
+            for (OutputStream out : outs) {
+                if (out != null)
+                    out.close();
+            }
+        }
+        return new ColumnFile(f, td);
+    }
+
+    private static File getColumnFile(File f, int i) {
+        return new File(f.getPath() + "." + i);
+    }
+
+    /**
+     * @return the file this ColumnFile is named after
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the file that stores the pages of column i
+     */
+    public File getColumnFile(int i) {
+        return getColumnFile(file, i);
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile, the hash of the
+     * absolute name of the file it is named after.
+     */
+    @Override
+    public int getId() {
+        return file.getAbsolutePath().hashCode();
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of pages of column i
+     */
+    public int numPages(int i) {
+        int pageSize = BufferPool.getPageSize();
+        return (int) ((getColumnFile(i).length() + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * @return the number of pages of all the columns together, the pages a
+     *         scan of the whole table reads
+     */
+    public int numPages() {
+        int n = 0;
+        for (int i = 0; i < channels.length; i++)
+            n += numPages(i);
+        return n;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        try {
+            byte[] data = channels[cpid.getColumn()].read((long) pageSize * cpid.getPageNumber(),
+                    pageSize);
+            return new ColumnPage(cpid, td.getFieldType(cpid.getColumn()), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        ColumnPageId pid = (ColumnPageId) page.getId();
+        int pageSize = BufferPool.getPageSize();
+        channels[pid.getColumn()].write((long) pageSize * pid.getPageNumber(),
+                page.getPageData(), pageSize);
+    }
+
+    /**
+     * Not supported, a ColumnFile is read only.
+     *
+     * @throws DbException always
+     */
+    @Override
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("columnar table " + file.getName() + " is read only");
+    }
+
+    /**
+     * Not supported, a ColumnFile is read only.
+     *
+     * @throws DbException always
+     */
+    @Override
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("columnar table " + file.getName() + " is read only");
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = i;
+        return new ColumnDbIterator(tid, columns);
+    }
+
+    /**
+     * Returns an iterator over some of the columns of the tuples of this
+     * file, which reads only the pages of those columns.
+     *
+     * @param columns
+     *            the columns the tuples of the iterator have, in that order
+     * @throws IllegalArgumentException
+     *             if there are no columns or one does not exist
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        if (columns.length == 0)
+            throw new IllegalArgumentException("a column scan needs a column");
+        for (int c : columns) {
+            if (c < 0 || c >= td.numFields())
+                throw new IllegalArgumentException("no column " + c);
+        }
+        return new ColumnDbIterator(tid, columns.clone());
+    }
+
+    /**
+     * ColumnDbIterator reads the page chains of its columns side by side,
+     * each at its own pace since a page holds more values of a narrow
+     * column than of a wide one.
+     */
+    public class ColumnDbIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final int[] columns;
+        private final TupleDesc desc;
+        private BufferAccessStrategy strategy;
+        /** The number of pages of each column. */
+        private int[] numPages;
+        /** The page of each column read last, or null before the first. */
+        private ColumnPage[] pages;
+        /** The next page of each column to read. */
+        private int[] pageNo;
+        /** The next value to return on each page. */
+        private int[] pos;
+        private boolean open;
+
+        ColumnDbIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            this.columns = columns;
+            Type[] types = new Type[columns.length];
+            String[] names = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                types[i] = td.getFieldType(columns[i]);
+                names[i] = td.getFieldName(columns[i]);
+            }
+            desc = new TupleDesc(types, names);
+        }
+
+        /**
+         * @return the TupleDesc of the tuples this returns, the columns
+         *         it reads
+         */
+        public TupleDesc getTupleDesc() {
+            return desc;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            numPages = new int[columns.length];
+            int total = 0;
+            for (int i = 0; i < columns.length; i++) {
+                numPages[i] = numPages(columns[i]);
+                total += numPages[i];
+            }
+            strategy = Database.getBufferPool().scanStrategy(total);
+            open = true;
+            rewind();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            pages = new ColumnPage[columns.length];
+            pageNo = new int[columns.length];
+            pos = new int[columns.length];
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            open = false;
+            pages = null;
+            strategy = null;
+        }
+
+        /**
+         * Makes sure the page of column i has a value left to return,
+         * reading the next pages of the column as needed.
+         *
+         * @return the number of values left on the page of column i, 0 if
+         *         the column has no more values
+         */
+        private int fill(int i) throws DbException, TransactionAbortedException {
+            while (pages[i] == null || pos[i] == pages[i].numValues()) {
+                if (pageNo[i] >= numPages[i])
+                    return 0;
+                ColumnPageId pid = new ColumnPageId(getId(), columns[i], pageNo[i]++);
+                pages[i] = (ColumnPage) Database.getBufferPool().getPage(tid, pid,
+                        Permissions.READ_ONLY, strategy);
+                pos[i] = 0;
+            }
+            return pages[i].numValues() - pos[i];
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return null;
+            Tuple t = new Tuple(desc);
+            for (int i = 0; i < columns.length; i++) {
+                if (fill(i) == 0)
+                    return null;
+                // the tuple is identified by its value in the first column
+                if (i == 0)
+                    t.setRecordId(new RecordId(pages[0].getId(), pos[0]));
+                t.setField(i, pages[i].getField(pos[i]++));
+            }
+            return t;
+        }
+
+        /**
+         * Appends the next tuples to batch, as many as fit, copying the
+         * values of each column straight from its pages. Must not be mixed
+         * with next() between rewinds.
+         *
+         * @param batch
+         *            a batch with the TupleDesc of this iterator's tuples
+         * @return false if there were no more tuples
+         */
+        boolean readBatch(Batch batch) throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            while (!batch.isFull()) {
+                // copy the run of rows that is on the current page of
+                // every column
+                int n = batch.capacity() - batch.rows();
+                for (int i = 0; i < columns.length && n > 0; i++)
+                    n = Math.min(n, fill(i));
+                if (n == 0)
+                    break;
+                int row = batch.addRows(n);
+                for (int i = 0; i < columns.length; i++) {
+                    if (desc.getFieldType(i) == Type.INT_TYPE)
+                        System.arraycopy(pages[i].getInts(), pos[i], batch.getInts(i), row, n);
+                    else
+                        System.arraycopy(pages[i].getStrings(), pos[i], batch.getStrings(i), row, n);
+                    pos[i] += n;
+                }
+            }
+            return batch.rows() > 0;
+        }
+    }
+}
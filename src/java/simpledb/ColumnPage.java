@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * ColumnPage holds the values of one column of a {@link ColumnFile} for a
+ * run of consecutive rows. The page starts with the number of values on it,
+ * followed by the values in row order: 4 bytes for an INT_TYPE value, and
+ * for a STRING_TYPE value its length followed by its bytes, so that a
+ * string takes up only its actual size rather than {@link Type#STRING_LEN}.
+ * The rest of the page is zero.
+ * <p>
+ * Columnar pages are written once, by {@link ColumnFile#convert}, and are
+ * never modified in the BufferPool.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    /** Size of the header that holds the number of values. */
+    static final int HEADER_SIZE = 4;
+
+    private final ColumnPageId pid;
+    private final Type type;
+    private final int count;
+    /** The values, if this is a page of an INT_TYPE column, or else null. */
+    private final int[] ints;
+    /** The values, if this is a page of a STRING_TYPE column, or else null. */
+    private final String[] strings;
+    private volatile TransactionId dirtier;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.
+     *
+     * @param id the id of this page
+     * @param type the type of the column this page holds values of
+     * @param data the page data, in the format described above
+     * @throws IOException if the data is not a page of this format
+     */
+    public ColumnPage(ColumnPageId id, Type type, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = type;
+        ByteBuffer in = ByteBuffer.wrap(data);
+        count = in.getInt();
+        if (count < 0 || count > (data.length - HEADER_SIZE) / 4)
+            throw new IOException("bad value count " + count + " on " + id);
+        if (type == Type.INT_TYPE) {
+            ints = new int[count];
+            in.asIntBuffer().get(ints);
+            strings = null;
+        } else {
+            ints = null;
+            strings = new String[count];
+            int off = HEADER_SIZE;
+            for (int i = 0; i < count; i++) {
+                int len = Type.readInt(data, off);
+                if (len < 0 || off + 4 + len > data.length)
+                    throw new IOException("bad string length " + len + " on " + id);
+                strings[i] = new String(data, off + 4, len);
+                off += 4 + len;
+            }
+        }
+    }
+
+    @Override
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of values on this page
+     */
+    public int numValues() {
+        return count;
+    }
+
+    /**
+     * @return the values on this page, which must be a page of an INT_TYPE
+     *         column; the array must not be modified
+     */
+    int[] getInts() {
+        return ints;
+    }
+
+    /**
+     * @return the values on this page, which must be a page of a
+     *         STRING_TYPE column; the array must not be modified
+     */
+    String[] getStrings() {
+        return strings;
+    }
+
+    /**
+     * @return the i-th value on this page
+     */
+    public Field getField(int i) {
+        if (i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("no value " + i + " on " + pid);
+        if (ints != null)
+            return new IntField(ints[i]);
+        return new StringField(strings[i], Type.STRING_LEN);
+    }
+
+    @Override
+    public byte[] getPageData() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BufferPool.getPageSize());
+        Writer w = new Writer(type, out);
+        try {
+            for (int i = 0; i < count; i++) {
+                if (ints != null)
+                    w.addInt(ints[i]);
+                else
+                    w.addString(strings[i]);
+            }
+            w.close();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new RuntimeException(e);
+        }
+        byte[] data = out.toByteArray();
+        return data.length > 0 ? data : new byte[BufferPool.getPageSize()];
+    }
+
+    @Override
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    @Override
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** The values of a columnar page never change, so it is its own before image. */
+    @Override
+    public ColumnPage getBeforeImage() {
+        return this;
+    }
+
+    @Override
+    public void setBeforeImage() {
+    }
+
+    /**
+     * Writer lays out the values of a column on consecutive pages, starting
+     * a new page whenever the next value does not fit on the current one.
+     */
+    static class Writer {
+        private final Type type;
+        private final OutputStream out;
+        private final byte[] page = new byte[BufferPool.getPageSize()];
+        private int used = HEADER_SIZE;
+        private int count;
+        private int pages;
+
+        /**
+         * @param type the type of the column
+         * @param out where the pages are written
+         */
+        Writer(Type type, OutputStream out) {
+            this.type = type;
+            this.out = out;
+        }
+
+        /**
+         * Appends the value f, which must be of the column's type.
+         */
+        void add(Field f) throws IOException {
+            if (type == Type.INT_TYPE)
+                addInt(((IntField) f).getValue());
+            else
+                addString(((StringField) f).getValue());
+        }
+
+        void addInt(int v) throws IOException {
+            if (used + 4 > page.length)
+                flush();
+            writeInt(used, v);
+            used += 4;
+            count++;
+        }
+
+        void addString(String s) throws IOException {
+            int len = Math.min(s.length(), Type.STRING_LEN);
+            if (used + 4 + len > page.length)
+                flush();
+            writeInt(used, len);
+            // one byte per char, as StringField.serialize writes them
+            for (int i = 0; i < len; i++)
+                page[used + 4 + i] = (byte) s.charAt(i);
+            used += 4 + len;
+            count++;
+        }
+
+        /**
+         * Writes the last page, if it has any values.
+         */
+        void close() throws IOException {
+            if (count > 0)
+                flush();
+        }
+
+        /**
+         * @return the number of pages written so far
+         */
+        int numPages() {
+            return pages;
+        }
+
+        private void flush() throws IOException {
+            writeInt(0, count);
+            out.write(page);
+            Arrays.fill(page, (byte) 0);
+            used = HEADER_SIZE;
+            count = 0;
+            pages++;
+        }
+
+        private void writeInt(int off, int v) {
+            page[off] = (byte) (v >>> 24);
+            page[off + 1] = (byte) (v >>> 16);
+            page[off + 2] = (byte) (v >>> 8);
+            page[off + 3] = (byte) v;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+/** Unique identifier for ColumnPage objects: a page of one column of a table. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of the table
+     * @param pgNo The page number in the column's page chain
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    @Override
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column of the table whose values the page holds */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the page chain of the column getColumn()
+     *   associated with this PageId
+     */
+    @Override
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    @Override
+    public int hashCode() {
+        return (pgNo * 31 + column) * 31 + tableId;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against
+     * @return true if o is a ColumnPageId of the same page of the same
+     *   column of the same table
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+        ColumnPageId p = (ColumnPageId) o;
+        return tableId == p.tableId && column == p.column && pgNo == p.pgNo;
+    }
+
+    @Override
+    public int[] serialize() {
+        return new int[] { tableId, column, pgNo };
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pgNo + ")";
+    }
+}
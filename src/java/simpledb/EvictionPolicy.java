@@ -0,0 +1,66 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which page the BufferPool gives up when it needs
+ * room for a new one. The BufferPool reports every page it caches, every hit
+ * on a cached page and every page it drops; the policy only keeps whatever
+ * bookkeeping it needs to pick a victim.
+ * <p>
+ * Implementations must be thread-safe. {@link #pageAccessed} is called on
+ * every buffer pool hit, so it should not take a lock other hits contend on.
+ *
+ * @see BufferPool
+ * @see ClockEvictionPolicy
+ * @see LfuEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when a page has been brought into the buffer pool.
+     *
+     * @param pid the id of the page that is now resident
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called on every buffer pool hit.
+     *
+     * @param pid the id of the resident page that was requested
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page has left the buffer pool, whether it was evicted or
+     * discarded. Unknown page ids are ignored.
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the next page to evict among the pages evictable accepts. The
+     * page stays tracked by the policy until the BufferPool reports it
+     * through {@link #pageRemoved}.
+     *
+     * @param evictable tells which resident pages may be evicted right now
+     * @return the id of the page to evict, or null if no tracked page can be
+     *         evicted
+     */
+    public PageId chooseVictim(Evictable evictable);
+
+    /**
+     * Lets the BufferPool rule out pages it cannot give up at the moment,
+     * such as pinned pages.
+     */
+    public interface Evictable {
+        public boolean isEvictable(PageId pid);
+    }
+
+    /** Accepts every page. */
+    public static final Evictable ANY_PAGE = new Evictable() {
+        @Override
+        public boolean isEvictable(PageId pid) {
+            return true;
+        }
+    };
+}
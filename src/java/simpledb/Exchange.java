@@ -0,0 +1,262 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Exchange is the superclass of the operators that move tuples between
+ * threads for intra-query parallelism. An exchange runs each of its
+ * producers, which are copies of the same plan over disjoint parts of the
+ * input, on a worker of a ForkJoinPool, and hands the tuples they return
+ * in batches to its consumers: a {@link Gather} merges them into a single
+ * stream, a {@link Repartition} splits them among several consumers by the
+ * hash of some of their fields, and a {@link Broadcast} gives every
+ * consumer all of them. Each consumer reads from an Exchange operator of
+ * its own, so the plan above an exchange can itself be copied once per
+ * consumer and run by the workers of another exchange.
+ * <p>
+ * Batches go through bounded queues, so producers get at most a few
+ * batches ahead of their consumers. A worker that waits for a queue blocks
+ * through ForkJoinPool.managedBlock, which lets the pool start another
+ * thread: the producers and consumers of nested exchanges must all be able
+ * to run at once.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples a producer collects before it hands them on. */
+    static final int BATCH_TUPLES = 256;
+    /** Number of batches a consumer's queue holds per producer. */
+    static final int QUEUE_BATCHES = 4;
+    /** How long a blocked producer waits before looking for close, in milliseconds. */
+    private static final long WAIT_MILLIS = 10;
+
+    static final ForkJoinPool POOL =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Marks the end of a consumer's stream of batches. */
+    static final List<Tuple> END = new ArrayList<Tuple>(0);
+
+    /**
+     * @return the name of this exchange, as shown in query plans
+     */
+    public abstract String getName();
+
+    /**
+     * Receives the tuples of one producer of a {@link Run}.
+     */
+    interface Sink {
+        void add(Tuple t) throws InterruptedException, IOException;
+
+        /** Hands on the tuples added but not yet handed on. */
+        void flush() throws InterruptedException, IOException;
+    }
+
+    /**
+     * One run of the producers of an exchange: each producer is opened,
+     * drained into a sink of its own and closed on a worker of the pool.
+     */
+    static abstract class Run {
+        private final OpIterator[] producers;
+        private final AtomicInteger running;
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private ForkJoinTask<?>[] workers;
+        private volatile boolean closing;
+
+        Run(OpIterator[] producers) {
+            this.producers = producers;
+            this.running = new AtomicInteger(producers.length);
+        }
+
+        /**
+         * @return a sink for the tuples of one producer
+         */
+        abstract Sink newSink();
+
+        /**
+         * Called once all producers are done, or have failed.
+         */
+        abstract void finish() throws InterruptedException, IOException;
+
+        void start() {
+            workers = new ForkJoinTask<?>[producers.length];
+            for (int i = 0; i < producers.length; i++) {
+                OpIterator p = producers[i];
+                workers[i] = POOL.submit(() -> produce(p));
+            }
+        }
+
+        private void produce(OpIterator p) {
+            try {
+                p.open();
+                try {
+                    Sink sink = newSink();
+                    while (!stopped() && p.hasNext())
+                        sink.add(p.next());
+                    sink.flush();
+                } finally {
+                    p.close();
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                if (running.decrementAndGet() == 0) {
+                    try {
+                        finish();
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return true if the producers should stop: the run is being
+         *         closed, or a producer failed
+         */
+        boolean stopped() {
+            return closing || failure.get() != null;
+        }
+
+        /**
+         * Stops the producers and waits for them, so that none of them runs
+         * once the run is closed.
+         */
+        void stop() {
+            closing = true;
+            for (ForkJoinTask<?> w : workers)
+                w.quietlyJoin();
+        }
+
+        /**
+         * Throws whatever stopped a producer, if one failed.
+         */
+        void rethrowFailure() throws DbException, TransactionAbortedException {
+            Throwable e = failure.get();
+            if (e == null)
+                return;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            throw new DbException("exchange producer failed: " + e);
+        }
+
+        /**
+         * Puts batch on queue, waiting for room until the run is closed, or
+         * until the run stops unless the batch is {@link #END}.
+         *
+         * @return false if the batch was dropped
+         */
+        boolean put(BlockingQueue<List<Tuple>> queue, List<Tuple> batch)
+                throws InterruptedException {
+            return put(queue, batch, () -> false);
+        }
+
+        /**
+         * Like {@link #put(BlockingQueue, List)}, but also drops the batch
+         * once drop becomes true.
+         */
+        boolean put(BlockingQueue<List<Tuple>> queue, List<Tuple> batch, BooleanSupplier drop)
+                throws InterruptedException {
+            boolean[] done = new boolean[1];
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    while (!isReleasable())
+                        done[0] = queue.offer(batch, WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return done[0] || (batch == END ? closing : stopped())
+                            || drop.getAsBoolean() || (done[0] = queue.offer(batch));
+                }
+            });
+            return done[0];
+        }
+    }
+
+    /**
+     * @return the next batch on queue, waiting for one if need be
+     */
+    static List<Tuple> take(BlockingQueue<List<Tuple>> queue) throws DbException {
+        ArrayList<List<Tuple>> taken = new ArrayList<List<Tuple>>(1);
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    if (taken.isEmpty())
+                        taken.add(queue.take());
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    if (!taken.isEmpty())
+                        return true;
+                    List<Tuple> b = queue.poll();
+                    if (b != null)
+                        taken.add(b);
+                    return b != null;
+                }
+            });
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted waiting for exchange producers");
+        }
+        return taken.get(0);
+    }
+
+    /**
+     * Reads a consumer's stream of batches from a queue of a run.
+     */
+    static class Reader {
+        private final BlockingQueue<List<Tuple>> queue;
+        private final Run run;
+        private Iterator<Tuple> batch;
+        private boolean done;
+
+        Reader(BlockingQueue<List<Tuple>> queue, Run run) {
+            this.queue = queue;
+            this.run = run;
+        }
+
+        /**
+         * @return the next tuple, or null at the end of the stream
+         */
+        Tuple next() throws DbException, TransactionAbortedException {
+            while (batch == null || !batch.hasNext()) {
+                if (done)
+                    return null;
+                List<Tuple> b = take(queue);
+                run.rethrowFailure();
+                if (b == END) {
+                    done = true;
+                    return null;
+                }
+                batch = b.iterator();
+            }
+            return batch.next();
+        }
+    }
+
+    /**
+     * @return a TupleDesc for tuples of producers, which must all return
+     *         tuples with the same TupleDesc
+     * @throws IllegalArgumentException
+     *             if there are no producers
+     */
+    static TupleDesc producerDesc(OpIterator[] producers) {
+        if (producers.length == 0)
+            throw new IllegalArgumentException("an exchange needs a producer");
+        return producers[0].getTupleDesc();
+    }
+}
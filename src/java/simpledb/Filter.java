@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -20,7 +20,6 @@ public class Filter extends Operator {
      */
     private Predicate p;
     private OpIterator child;
-    private OpIterator[] childrenOp;
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
     		this.p=p;
@@ -81,17 +80,31 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of the child that has rows passing the
+     * predicate, with only those rows selected.
+     */
+    @Override
+    public Batch nextBatch() throws TransactionAbortedException, DbException {
+        Batch batch;
+        while ((batch = Batch.read(child)) != null) {
+            p.filter(batch);
+            if (batch.size() > 0)
+                return batch;
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-    		return this.childrenOp;
+    		return new OpIterator[] { this.child };
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
-    		childrenOp = new OpIterator[1];
-    		childrenOp[0]=children[0];
+    		this.child=children[0];
     }
 
 }
@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile have an empty tuple slot,
+ * so that inserting a tuple takes a page from the map instead of reading
+ * pages through the BufferPool until one has room.
+ * <p>
+ * The map lives in memory only. It is built from the page headers on disk
+ * the first time a HeapFile needs it, reading just the header bytes of each
+ * page and nothing through the BufferPool, and is kept current by the
+ * HeapFile as it inserts and deletes tuples. It is a hint: callers check the
+ * page itself before using it, and report back with {@link #setFree} when the
+ * map was wrong. Uncommitted changes that are rolled back are not reported,
+ * so after an abort the map may miss free space until it is rebuilt.
+ * <p>
+ * Finding a page is amortized constant time: the map keeps a cursor below
+ * which no page has room, and only moves it back when a page below it gets
+ * room again.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private final BitSet free = new BitSet();
+    /** No page below this one has room. */
+    private int cursor;
+
+    /**
+     * Builds the map of a heap file from the headers of its pages on disk.
+     *
+     * @param channel the channel over the heap file
+     * @param td the descriptor of the tuples in the file
+     * @param numPages the number of pages in the file
+     * @param slotted true if the pages are {@link SlottedHeapPage}s
+     */
+    static FreeSpaceMap build(PageChannel channel, TupleDesc td, int numPages,
+            boolean slotted) throws IOException {
+        FreeSpaceMap map = new FreeSpaceMap();
+        int slots = HeapPage.slotsPerPage(td);
+        int headerBytes = slotted ? SlottedHeapPage.HEADER_SIZE : HeapPage.headerBytes(slots);
+        long pageSize = BufferPool.getPageSize();
+        for (int pgNo = 0; pgNo < numPages; pgNo++) {
+            long offset = pageSize * pgNo;
+            byte[] header = channel.read(offset, headerBytes);
+            if (slotted ? SlottedHeapPage.hasRoom(td, header) : hasEmptySlot(header, slots))
+                map.free.set(pgNo);
+        }
+        return map;
+    }
+
+    /**
+     * @return true if one of the first slots bits of header is clear
+     */
+    private static boolean hasEmptySlot(byte[] header, int slots) {
+        int full = slots / 8;
+        for (int i = 0; i < full; i++) {
+            if (header[i] != (byte) 0xFF)
+                return true;
+        }
+        int rest = slots % 8;
+        int mask = (1 << rest) - 1;
+        return rest > 0 && (header[full] & mask) != mask;
+    }
+
+    /**
+     * @return the number of a page that has room, or -1 if no page does
+     */
+    public synchronized int findFree() {
+        int pgNo = free.nextSetBit(cursor);
+        cursor = pgNo < 0 ? free.length() : pgNo;
+        return pgNo;
+    }
+
+    /**
+     * Records whether page pgNo has room.
+     */
+    public synchronized void setFree(int pgNo, boolean hasRoom) {
+        free.set(pgNo, hasRoom);
+        if (hasRoom && pgNo < cursor)
+            cursor = pgNo;
+    }
+
+    /**
+     * @return true if the map believes page pgNo has room
+     */
+    public synchronized boolean isFree(int pgNo) {
+        return free.get(pgNo);
+    }
+}
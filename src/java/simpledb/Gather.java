@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Gather is the {@link Exchange} that merges the tuples of all its
+ * producers into one stream, in no particular order. It runs the producers
+ * when it is opened, and stops them when it is closed.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] producers;
+    private final TupleDesc td;
+
+    transient private Run run;
+    transient private Reader reader;
+
+    /**
+     * Constructor.
+     *
+     * @param producers
+     *            the plans whose tuples to merge, which return tuples with
+     *            the same TupleDesc
+     */
+    public Gather(OpIterator[] producers) {
+        this.producers = producers.clone();
+        this.td = producerDesc(producers);
+    }
+
+    @Override
+    public String getName() {
+        return "gather(" + producers.length + ")";
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        BlockingQueue<List<Tuple>> queue =
+                new ArrayBlockingQueue<List<Tuple>>(QUEUE_BATCHES * producers.length);
+        run = new Run(producers) {
+            @Override
+            Sink newSink() {
+                return new Sink() {
+                    private ArrayList<Tuple> batch = new ArrayList<Tuple>(BATCH_TUPLES);
+
+                    @Override
+                    public void add(Tuple t) throws InterruptedException {
+                        batch.add(t);
+                        if (batch.size() >= BATCH_TUPLES)
+                            flush();
+                    }
+
+                    @Override
+                    public void flush() throws InterruptedException {
+                        if (batch.isEmpty())
+                            return;
+                        put(queue, batch);
+                        batch = new ArrayList<Tuple>(BATCH_TUPLES);
+                    }
+                };
+            }
+
+            @Override
+            void finish() throws InterruptedException {
+                put(queue, END);
+            }
+        };
+        reader = new Reader(queue, run);
+        run.start();
+        super.open();
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return reader.next();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (run != null)
+            run.stop();
+        run = null;
+        reader = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return producers.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        producers = children.clone();
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * GroupKey is the value of the group by fields of a tuple, which may be
+ * several fields, used by the aggregators as the key of a group.
+ */
+final class GroupKey {
+
+    /** The key of every tuple when there is no grouping. */
+    static final GroupKey NONE = new GroupKey(new Field[0]);
+
+    private final Field[] fields;
+    private final int hash;
+
+    private GroupKey(Field[] fields) {
+        this.fields = fields;
+        this.hash = Arrays.hashCode(fields);
+    }
+
+    /**
+     * @return the key of t's group, given the indexes of the group by
+     *         fields in t
+     */
+    static GroupKey of(Tuple t, int[] gbfields) {
+        if (gbfields.length == 0)
+            return NONE;
+        Field[] fields = new Field[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            fields[i] = t.getField(gbfields[i]);
+        return new GroupKey(fields);
+    }
+
+    /**
+     * @return the key of the group of row of batch, given the indexes of
+     *         the group by fields in the batch
+     */
+    static GroupKey of(Batch batch, int row, int[] gbfields) {
+        if (gbfields.length == 0)
+            return NONE;
+        Field[] fields = new Field[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            fields[i] = batch.getField(gbfields[i], row);
+        return new GroupKey(fields);
+    }
+
+    /**
+     * @return the number of fields in this key
+     */
+    int numFields() {
+        return fields.length;
+    }
+
+    /**
+     * Sets the first fields of t to the fields of this key.
+     */
+    void fill(Tuple t) {
+        for (int i = 0; i < fields.length; i++)
+            t.setField(i, fields[i]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof GroupKey && Arrays.equals(fields, ((GroupKey) o).fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(fields);
+    }
+}
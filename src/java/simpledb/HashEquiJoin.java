@@ -1,23 +1,92 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join for equality predicates. It builds a
+ * hash table over child1 and probes it with the tuples of child2. Build
+ * tuples are hashed into {@link #FANOUT} partitions; as long as they fit
+ * in the memory budget the join never touches the disk. When they do not,
+ * the largest partition still in memory is written to a
+ * {@link TupleSpillFile}, and so on until the rest fits, and the build
+ * tuples of spilled partitions go straight to their files from then on.
+ * Probe tuples that hash to a spilled partition are written to a file of
+ * their own, and once child2 is exhausted every spilled pair of files is
+ * joined by a new HashEquiJoin that hashes with a different seed, so that
+ * the partition is split further if it still does not fit.
+ * <p>
+ * Each child is read once. Partitions that are still too large after
+ * {@link #MAX_LEVELS} rounds of partitioning, which happens when most
+ * tuples share a key, are joined by loading as many build tuples as fit
+ * and scanning the probe tuples once for each such chunk.
+ * <p>
+ * When both join fields are INT_TYPE, the partitions are
+ * {@link IntTupleTable}s, which keep keys unboxed, instead of hash maps
+ * from Field to lists of tuples, and keys are read from tuples without
+ * decoding them into IntFields. Such a join also returns batches,
+ * {@link #nextBatch}, by probing with a batch of child2 at a time.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the hash table, in bytes. */
+    public static final long DEFAULT_MEMORY_BYTES = 16L << 20;
+    /** Number of partitions the build side is split into. */
+    static final int FANOUT = 16;
+    /** Number of times a partition is split before falling back to chunks. */
+    static final int MAX_LEVELS = 3;
+    /** Estimated bytes a tuple in the hash table takes beyond its data. */
+    static final int TUPLE_OVERHEAD = 64;
+
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
+    private final long memoryBytes;
+    private final int level;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /**
+     * One partition of the build side: in memory, or spilled to a pair of
+     * files holding its build and probe tuples.
+     */
+    private static class Partition {
+        HashMap<Field, ArrayList<Tuple>> map;
+        IntTupleTable ints;
+        long bytes;
+        TupleSpillFile build;
+        TupleSpillFile probe;
+    }
+
+    transient private Partition[] parts;
+    transient private long memUsed;
+    /** True if both join fields are ints, and the partitions are IntTupleTables. */
+    private final boolean intKeys;
+    /** True if this join loads the build side in chunks instead of partitioning. */
+    private boolean chunked;
+    transient private Iterator<Tuple> listIt = null;
+    /** The next match in an IntTupleTable, or -1. */
+    transient private IntTupleTable rowTable;
+    transient private int row = -1;
+    transient private int nextSpilled;
+    transient private HashEquiJoin spilledJoin;
+    private int spills;
+    /** The batch of child2 nextBatch probes with, and its next row. */
+    transient private Batch probeBatch;
+    transient private int probeIndex;
+    /** The row of probeBatch whose matches nextBatch is returning. */
+    transient private int probeRow;
+    /** True once nextBatch has read all of child2. */
+    transient private boolean probeDone;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -26,9 +95,35 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor for a join whose hash table may take up to memoryBytes
+     * bytes before it spills to disk.
+     *
+     * @param memoryBytes
+     *            the memory budget of the hash table
+     * @throws IllegalArgumentException
+     *             if p is not an equality predicate
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            long memoryBytes) {
+        this(p, child1, child2, memoryBytes, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            long memoryBytes, int level) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HashEquiJoin needs an equality predicate");
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryBytes = memoryBytes;
+        this.level = level;
+        this.chunked = level >= MAX_LEVELS;
+        this.intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -39,7 +134,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -49,53 +144,187 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+
+    /**
+     * @return the number of partitions this join and the joins of its
+     *         partitions have spilled to disk so far
+     */
+    public int getSpillCount() {
+        return spills;
+    }
+
+    /**
+     * @return the partition a key with the given hash code goes to at this
+     *         level
+     */
+    private int partition(int hashCode) {
+        if (chunked)
+            return 0;
+        return partition(hashCode, level, FANOUT);
+    }
+
+    /**
+     * @return the partition, out of fanout, of a key with hashCode at a
+     *         level of recursive partitioning, which picks the hash seed
+     */
+    static int partition(int hashCode, int level, int fanout) {
+        int h = hashCode ^ (level * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 16;
+        return (h & 0x7FFFFFFF) % fanout;
+    }
+
+    /**
+     * Reads build tuples from child1 into the partitions. In chunked mode it
+     * stops once the memory budget is used up, and is called again for the
+     * next chunk.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        int tupleBytes = child1.getTupleDesc().getSize()
+                + (intKeys ? IntTupleTable.ROW_OVERHEAD : TUPLE_OVERHEAD);
+        try {
+            while (child1.hasNext()) {
+                Tuple t = child1.next();
+                if (intKeys) {
+                    int key = t.getInt(pred.getField1());
+                    Partition part = parts[partition(key)];
+                    if (part.build != null) {
+                        part.build.add(t);
+                        continue;
+                    }
+                    part.ints.add(key, t);
+                    part.bytes += tupleBytes;
+                } else {
+                    Field key = t.getField(pred.getField1());
+                    Partition part = parts[partition(key.hashCode())];
+                    if (part.build != null) {
+                        part.build.add(t);
+                        continue;
+                    }
+                    ArrayList<Tuple> list = part.map.get(key);
+                    if (list == null) {
+                        list = new ArrayList<Tuple>();
+                        part.map.put(key, list);
+                    }
+                    list.add(t);
+                    part.bytes += tupleBytes;
+                }
+                memUsed += tupleBytes;
+                if (memUsed > memoryBytes) {
+                    if (chunked)
+                        return;
+                    spillLargest();
+                }
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+        } catch (IOException e) {
+            throw new DbException("could not spill hash join partition: " + e);
         }
-        return cnt > 0;
+    }
 
+    /**
+     * Writes the in-memory partition that takes up the most memory to disk.
+     */
+    private void spillLargest() throws IOException {
+        Partition largest = null;
+        for (Partition part : parts) {
+            if (part.build == null && (largest == null || part.bytes > largest.bytes))
+                largest = part;
+        }
+        largest.build = new TupleSpillFile(child1.getTupleDesc());
+        largest.probe = new TupleSpillFile(child2.getTupleDesc());
+        if (intKeys) {
+            for (int row = 0; row < largest.ints.size(); row++)
+                largest.build.add(largest.ints.tuple(row));
+        } else {
+            for (ArrayList<Tuple> list : largest.map.values()) {
+                for (Tuple t : list)
+                    largest.build.add(t);
+            }
+        }
+        memUsed -= largest.bytes;
+        largest.bytes = 0;
+        largest.map = null;
+        largest.ints = null;
+        spills++;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        start();
         super.open();
     }
 
+    /**
+     * Resets the join state and runs the build phase.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        parts = new Partition[chunked ? 1 : FANOUT];
+        for (int i = 0; i < parts.length; i++)
+            parts[i] = newPartition();
+        memUsed = 0;
+        listIt = null;
+        row = -1;
+        nextSpilled = 0;
+        spilledJoin = null;
+        probeBatch = null;
+        probeIndex = 0;
+        probeDone = false;
+        build();
+    }
+
+    /**
+     * @return an empty partition in memory
+     */
+    private Partition newPartition() {
+        Partition part = new Partition();
+        if (intKeys)
+            part.ints = new IntTupleTable(1024);
+        else
+            part.map = new HashMap<Field, ArrayList<Tuple>>();
+        return part;
+    }
+
+    /**
+     * Deletes the spill files and drops the hash table.
+     */
+    private void release() {
+        if (spilledJoin != null) {
+            spilledJoin.close();
+            spilledJoin = null;
+        }
+        if (parts != null) {
+            for (Partition part : parts) {
+                if (part.build != null) {
+                    part.build.delete();
+                    part.probe.delete();
+                }
+            }
+            parts = null;
+        }
+    }
+
     public void close() {
         super.close();
         child2.close();
         child1.close();
+        release();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
-        this.map.clear();
+        this.rowTable=null;
+        this.row=-1;
+        this.probeBatch=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        release();
         child1.rewind();
         child2.rewind();
+        start();
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -110,12 +339,17 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+        if (row != -1) {
+            t1 = rowTable.tuple(row);
+            row = rowTable.next(row);
+        } else {
+            t1 = listIt.next();
+        }
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -131,32 +365,156 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+        while (true) {
+            if (row != -1 || (listIt != null && listIt.hasNext())) {
+                return processList();
+            }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+            // probe the partitions in memory with child2, and set aside the
+            // tuples of spilled partitions
+            if (probeNext()) {
+                continue;
+            }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+            // child2 is done: load the next chunk of child1 in chunked mode
+            if (chunked && child1.hasNext()) {
+                parts[0] = newPartition();
+                memUsed = 0;
+                child2.rewind();
+                build();
                 continue;
-            listIt = l.iterator();
+            }
 
-            return processList();
+            // then join the spilled partitions pairwise
+            if (spilledJoin != null) {
+                if (spilledJoin.hasNext()) {
+                    return spilledJoin.next();
+                }
+                spills += spilledJoin.getSpillCount();
+                spilledJoin.close();
+                spilledJoin = null;
+            }
+            if (!openNextSpilled()) {
+                return null;
+            }
+        }
+    }
 
+    /**
+     * Returns the next tuples of the join as a batch. A join on INT_TYPE
+     * fields probes the partitions in memory with a batch of child2 at a
+     * time, and copies the fields of the matches straight into the result;
+     * the rest of the join, and any other join, goes tuple by tuple.
+     */
+    @Override
+    public Batch nextBatch() throws TransactionAbortedException, DbException {
+        if (!intKeys || chunked)
+            return fetchBatch();
+        Batch batch = new Batch(comboTD);
+        int n1 = child1.getTupleDesc().numFields();
+        while (!batch.isFull()) {
+            if (row != -1) {
+                int out = batch.addRow();
+                batch.set(out, 0, rowTable.tuple(row));
+                batch.set(out, n1, probeBatch, probeRow);
+                row = rowTable.next(row);
+                continue;
+            }
+            if (probeBatch == null || probeIndex >= probeBatch.size()) {
+                if (probeDone)
+                    break;
+                probeBatch = Batch.read(child2);
+                probeIndex = 0;
+                if (probeBatch == null) {
+                    // go on with the spilled partitions tuple by tuple
+                    probeDone = true;
+                    break;
+                }
+                continue;
+            }
+            probeRow = probeBatch.row(probeIndex++);
+            int key = probeBatch.getInts(pred.getField2())[probeRow];
+            Partition part = parts[partition(key)];
+            if (part.build != null) {
+                try {
+                    part.probe.add(probeBatch.getTuple(probeRow));
+                } catch (IOException e) {
+                    throw new DbException("could not spill hash join partition: " + e);
+                }
+                continue;
+            }
+            rowTable = part.ints;
+            row = part.ints.first(key);
         }
+        return batch.rows() > 0 ? batch : fetchBatch();
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Reads the next tuple of child2. It either sets listIt to its matches
+     * in a partition in memory, or goes to the probe file of its partition.
+     *
+     * @return false if child2 is exhausted
+     */
+    private boolean probeNext() throws TransactionAbortedException, DbException {
+        if (!child2.hasNext()) {
+            return false;
+        }
+        t2 = child2.next();
+        int key = 0;
+        Field field = null;
+        if (intKeys)
+            key = t2.getInt(pred.getField2());
+        else
+            field = t2.getField(pred.getField2());
+        Partition part = parts[partition(intKeys ? key : field.hashCode())];
+        if (part.build != null) {
+            try {
+                part.probe.add(t2);
+            } catch (IOException e) {
+                throw new DbException("could not spill hash join partition: " + e);
+            }
+            listIt = null;
+            return true;
+        }
+        if (intKeys) {
+            rowTable = part.ints;
+            row = part.ints.first(key);
+            return true;
         }
+        ArrayList<Tuple> l = part.map.get(field);
+        listIt = l == null ? null : l.iterator();
+        return true;
+    }
 
-        return null;
+    /**
+     * Opens a join of the next spilled partition with tuples on both sides.
+     *
+     * @return false if there are no more spilled partitions
+     */
+    private boolean openNextSpilled() throws TransactionAbortedException, DbException {
+        if (nextSpilled == 0) {
+            // the joins of the spilled partitions get the whole budget
+            for (Partition part : parts) {
+                part.map = null;
+                part.ints = null;
+            }
+            memUsed = 0;
+        }
+        while (nextSpilled < parts.length) {
+            Partition part = parts[nextSpilled++];
+            if (part.build == null || part.build.size() == 0 || part.probe.size() == 0) {
+                continue;
+            }
+            try {
+                spilledJoin = new HashEquiJoin(pred, part.build.iterator(),
+                        part.probe.iterator(), memoryBytes, level + 1);
+            } catch (IOException e) {
+                throw new DbException("could not read hash join partition: " + e);
+            }
+            spilledJoin.open();
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -169,5 +527,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
@@ -8,15 +8,26 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. A slotted HeapFile stores its tuples as variable-length
+ * records on {@link SlottedHeapPage}s instead.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+	/**
+	 * Number of consecutive pages a partition of a file takes at a time;
+	 * see {@link #iterator(TransactionId, int, int)}.
+	 */
+	static final int MORSEL_PAGES = 16;
+
 	private File file;
 	private TupleDesc desc;
+	private final PageChannel channel;
+	private final boolean readOnly;
+	private final boolean slotted;
+	private volatile FreeSpaceMap freeSpace;
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -26,8 +37,87 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+    		this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file that is optionally
+     * read-only. A read-only heap file rejects every insert, delete and page
+     * write, and in return serves page reads from a memory mapping of the
+     * file: the OS page cache then does the caching, and a read is one copy
+     * out of mapped memory into the new page rather than a system call.
+     * Nothing may write to the file while it is open read-only.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param readOnly
+     *            true to reject writes and read pages through a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean readOnly) {
+    		this(f, td, readOnly, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * optionally {@link SlottedHeapPage}s, which store tuples as
+     * variable-length records. That suits tables with strings much
+     * shorter than {@link Type#STRING_LEN}. The format of a file is fixed
+     * when it is written, so a file must always be opened as slotted or
+     * always as not.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param readOnly
+     *            true to reject writes and read pages through a memory mapping
+     * @param slotted
+     *            true if the pages are SlottedHeapPages
+     */
+    public HeapFile(File f, TupleDesc td, boolean readOnly, boolean slotted) {
     		this.file=f;
     		this.desc=td;
+    		this.channel=new PageChannel(f, readOnly);
+    		this.readOnly=readOnly;
+    		this.slotted=slotted;
+    }
+
+    /**
+     * @return true if the pages of this file are SlottedHeapPages
+     */
+    public boolean isSlotted() {
+    		return slotted;
+    }
+
+    /**
+     * @return a page of this file's format, read from data
+     */
+    HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+    		return newPage(pid, data, false);
+    }
+
+    /**
+     * @return a page of this file's format, read from data, which the page
+     *         keeps rather than copies if owned is true
+     */
+    private HeapPage newPage(HeapPageId pid, byte[] data, boolean owned) throws IOException {
+    		return slotted ? new SlottedHeapPage(pid, data, owned) : new HeapPage(pid, data, owned);
+    }
+
+    /**
+     * @return true if this file rejects writes and reads pages through a
+     *         memory mapping
+     */
+    public boolean isReadOnly() {
+    		return readOnly;
+    }
+
+    /**
+     * @throws DbException if this file is read-only
+     */
+    private void checkWritable() throws DbException {
+    		if (readOnly)
+    			throw new DbException(file + " is read-only");
     }
 
     /**
@@ -72,13 +162,15 @@ public class HeapFile implements DbFile {
 	public Page readPage(PageId pid) throws IllegalArgumentException {
         // some code goes here
     		try {
-				RandomAccessFile rf=new RandomAccessFile(this.file, "r");
-				int offset=BufferPool.getPageSize()*(pid.getPageNumber());
-				byte[] readByte=new byte[BufferPool.getPageSize()];
-				rf.seek(offset);
-				rf.readFully(readByte);
-				rf.close();
-				return new HeapPage((HeapPageId) pid,readByte);
+				int pageSize=BufferPool.getPageSize();
+				long offset=(long) pageSize*pid.getPageNumber();
+				if (readOnly) {
+					// the page keeps the array, so the mapping is copied once
+					byte[] data=new byte[pageSize];
+					channel.readMapped(offset, data);
+					return newPage((HeapPageId) pid, data, true);
+				}
+				return newPage((HeapPageId) pid, channel.read(offset, pageSize));
 			} catch (IOException e) {
 				e.printStackTrace();
 				throw new IllegalArgumentException(e);
@@ -90,13 +182,11 @@ public class HeapFile implements DbFile {
 	public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-    		RandomAccessFile rf=new RandomAccessFile(this.file, "rw");
-    		int offset=BufferPool.getPageSize()*(page.getId().getPageNumber());
-		byte[] writebyte=new byte[BufferPool.getPageSize()];
-		rf.seek(offset);
-		rf.write(writebyte, 0, BufferPool.getPageSize());
-		rf.close();
-			
+    		if (readOnly)
+    			throw new IOException(file + " is read-only");
+    		int pageSize=BufferPool.getPageSize();
+    		long offset=(long) pageSize*page.getId().getPageNumber();
+    		channel.write(offset, page.getPageData(), pageSize);
     }
 
     /**
@@ -110,49 +200,142 @@ public class HeapFile implements DbFile {
         return numPages;
     }
 
+    /**
+     * @return the map of the pages of this file that have room, building it
+     *         from the file if this is the first time it is needed
+     */
+    FreeSpaceMap freeSpaceMap() throws IOException {
+    		FreeSpaceMap map=freeSpace;
+    		if (map==null) {
+    			synchronized (this) {
+    				map=freeSpace;
+    				if (map==null) {
+    					map=FreeSpaceMap.build(channel, desc, numPages(), slotted);
+    					freeSpace=map;
+    				}
+    			}
+    		}
+    		return map;
+    }
+
     // see DbFile.java for javadocs
     @Override
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
+    		checkWritable();
     		ArrayList<Page> result = new ArrayList<Page>();
+    		BufferPool bp=Database.getBufferPool();
+    		FreeSpaceMap map=freeSpaceMap();
     		int id=this.getId();
-    		int pgNum=0;
-    		while (pgNum<this.numPages()) {
+    		int pgNum;
+    		while ((pgNum=map.findFree())>=0) {
     			HeapPageId pid=new HeapPageId(id, pgNum);
-    			HeapPage pg= (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+    			boolean locked=bp.holdsLock(tid, pid);
+    			HeapPage pg= (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
     			if (pg.getNumEmptySlots()>0) {
-    				pg.insertTuple(t);
-    				result.add(pg);
-    				return result;
-    			} else {
-    				pgNum++;
+    				pg=(HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+    				// another transaction may have filled the page while we
+    				// waited for the upgrade
+    				if (pg.getNumEmptySlots()>0) {
+    					pg.insertTuple(t);
+    					map.setFree(pgNum, pg.getNumEmptySlots()>0);
+    					result.add(pg);
+    					return result;
+    				}
+    				map.setFree(pgNum, false);
+    				continue;
+    			}
+    			// the map was out of date. we only looked at the page, so the
+    			// lock can go unless we held it before
+    			map.setFree(pgNum, false);
+    			if (!locked) {
+    				bp.releasePage(tid, pid);
     			}
     		}
-    		
-    		HeapPageId pid=new HeapPageId(this.getId(), this.numPages());
-    		HeapPage newPg=new HeapPage(pid, HeapPage.createEmptyPageData());
-		newPg.insertTuple(t);
-		RandomAccessFile rf=new RandomAccessFile(this.file, "rw");
-		int offset=BufferPool.getPageSize()*this.numPages();
-		rf.seek(offset);
-		byte[] writeByte=newPg.getPageData();
-		rf.write(writeByte, 0, BufferPool.getPageSize());
-		rf.close();
-		result.add(newPg);
-		return result;
 
-           
-    		
-    		
+    		// append an empty page, then fill it through the buffer pool so it
+    		// is locked like any other page
+    		HeapPageId pid;
+    		synchronized (this) {
+    			pid=new HeapPageId(id, this.numPages());
+    			writePage(newPage(pid, HeapPage.createEmptyPageData()));
+    			map.setFree(pid.getPageNumber(), true);
+    		}
+    		HeapPage newPg=(HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+    		if (newPg.getNumEmptySlots()==0) {
+    			// other transactions filled it before we got the lock
+    			return insertTuple(tid, t);
+    		}
+    		newPg.insertTuple(t);
+    		map.setFree(pid.getPageNumber(), newPg.getNumEmptySlots()>0);
+    		result.add(newPg);
+    		return result;
+
         // not necessary for lab1
     }
 
+    /**
+     * Appends tuples to new pages at the end of this file with one sequential
+     * write, instead of inserting them into pages of the BufferPool one at a
+     * time. The new pages are locked exclusively for tid before they are
+     * written, so no other transaction sees them before tid commits. They
+     * reach the disk before tid commits, though, so if tid aborts they must
+     * be emptied again with {@link #clearPage}.
+     *
+     * @return the ids of the pages written
+     * @see BufferPool#appendTuples
+     */
+    public ArrayList<PageId> appendTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+    		checkWritable();
+    		ArrayList<PageId> written=new ArrayList<>();
+    		if (tuples.isEmpty()) {
+    			return written;
+    		}
+    		LockManager locks=Database.getBufferPool().getLockManager();
+    		int pageSize=BufferPool.getPageSize();
+    		int slots=HeapPage.slotsPerPage(desc);
+    		// as many pages as the tuples take at a fixed size, which slotted
+    		// pages may need fewer of
+    		ByteArrayOutputStream data=new ByteArrayOutputStream((tuples.size()+slots-1)/slots*pageSize);
+    		FreeSpaceMap map=freeSpaceMap();
+    		synchronized (this) {
+    			int first=this.numPages();
+    			int next=0;
+    			for (int i=0; next<tuples.size(); i++) {
+    				HeapPageId pid=new HeapPageId(getId(), first+i);
+    				// no other transaction can hold a lock past the end of the
+    				// file, so this does not block
+    				locks.acquire(tid, pid, Permissions.READ_WRITE);
+    				written.add(pid);
+    				HeapPage pg=newPage(pid, HeapPage.createEmptyPageData());
+    				while (next<tuples.size() && pg.getNumEmptySlots()>0) {
+    					pg.insertTuple(tuples.get(next++));
+    				}
+    				data.write(pg.getPageData());
+    				map.setFree(first+i, pg.getNumEmptySlots()>0);
+    			}
+    			channel.write((long) pageSize*first, data.toByteArray(), data.size());
+    		}
+    		return written;
+    }
+
+    /**
+     * Overwrites page pid on disk with an empty page, undoing
+     * {@link #appendTuples} for a transaction that aborted.
+     */
+    public void clearPage(PageId pid) throws IOException {
+    		writePage(newPage((HeapPageId) pid, HeapPage.createEmptyPageData()));
+    		freeSpaceMap().setFree(pid.getPageNumber(), true);
+    }
+
     // see DbFile.java for javadocs
     @Override
 	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
+    		checkWritable();
     		ArrayList<Page> result=new ArrayList<>();
 		RecordId recordid=t.getRecordId();
 		PageId pid=recordid.getPageId();
@@ -162,6 +345,11 @@ public class HeapFile implements DbFile {
 		} catch (Exception e) {
 			throw new DbException("Tuple Not On this Page");
 		}
+		try {
+			freeSpaceMap().setFree(pid.getPageNumber(), true);
+		} catch (IOException e) {
+			throw new DbException("could not read free space of " + file);
+		}
 		result.add(pg);
 		return result;
 		
@@ -174,6 +362,25 @@ public class HeapFile implements DbFile {
         // some code goes here
     		return new HeapDbIterator(this, tid);
     }
+
+    /**
+     * Returns an iterator over one of parts partitions of the tuples of this
+     * file. The pages are dealt out to the partitions in turns of
+     * {@link #MORSEL_PAGES} consecutive pages, so that iterators over all
+     * the partitions together return every tuple once. The turns are fixed,
+     * not claimed from a shared counter: each partition can then be opened,
+     * rewound and closed on its own and still read the same pages, and
+     * short morsels spread a run of pages that a filter keeps over all the
+     * partitions.
+     *
+     * @param part the partition to iterate over, from 0 to parts - 1
+     * @param parts the number of partitions
+     */
+    public DbFileIterator iterator(TransactionId tid, int part, int parts) {
+    		if (part<0 || part>=parts)
+    			throw new IllegalArgumentException("no partition " + part + " of " + parts);
+    		return new HeapDbIterator(this, tid, part, parts);
+    }
     
     public class HeapDbIterator extends AbstractDbFileIterator {
     		Iterator<Tuple> pageTuple;
@@ -181,17 +388,52 @@ public class HeapFile implements DbFile {
     		HeapFile hpFile;
     		int currentPgNumber;
     		int numPages;
+    		BufferAccessStrategy strategy;
+    		/** The page read last, and the next of its slots {@link #readBatch} reads. */
+    		HeapPage page;
+    		int slot;
+    		/** The partition of the pages this reads, and the number of partitions. */
+    		final int part, parts;
     		public HeapDbIterator(HeapFile hpFile, TransactionId tid) {
+    			this(hpFile, tid, 0, 1);
+    		}
+
+    		HeapDbIterator(HeapFile hpFile, TransactionId tid, int part, int parts) {
     			this.hpFile=hpFile;
     			this.tid=tid;
-    			currentPgNumber=0;
+    			this.part=part;
+    			this.parts=parts;
+    			currentPgNumber=firstPage();
     			numPages=hpFile.numPages();
     		}
+
+		/**
+		 * @return the first page of this iterator's partition
+		 */
+		private int firstPage() {
+			return part*MORSEL_PAGES;
+		}
     		
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
 			// TODO Auto-generated method stub
-			currentPgNumber=0;
+			currentPgNumber=firstPage();
+			// large files are read through a private ring of frames so the
+			// scan does not flush the rest of the buffer pool
+			strategy=Database.getBufferPool().scanStrategy(numPages);
+			firstPageOfPartition();
+		}
+
+		/**
+		 * Reads the first page, unless a partition other than the first has
+		 * no pages at all.
+		 */
+		private void firstPageOfPartition() throws TransactionAbortedException, DbException {
+			if (part>0 && currentPgNumber>=numPages()) {
+				pageTuple=Collections.emptyIterator();
+				page=null;
+				return;
+			}
 			nextPage();
 		}
 		
@@ -199,13 +441,15 @@ public class HeapFile implements DbFile {
 		public void close() {
 			super.close();
 			pageTuple=null;
+			page=null;
+			strategy=null;
 		}
 
 		@Override
 		public void rewind() throws DbException, TransactionAbortedException {
 			// TODO Auto-generated method stub
-			currentPgNumber=0;
-			nextPage();
+			currentPgNumber=firstPage();
+			firstPageOfPartition();
 		}
 
 		@Override
@@ -214,25 +458,51 @@ public class HeapFile implements DbFile {
 			if (pageTuple == null) {
 				return null;
 			}
-			if (pageTuple.hasNext()) {
-				return pageTuple.next();
-			} else {
-				if (currentPgNumber<numPages()) {
-					nextPage();
-					if (pageTuple.hasNext()) {
-						return pageTuple.next();
-					}
+			// skip empty pages, which deletes can leave anywhere in the file
+			while (!pageTuple.hasNext()) {
+				if (currentPgNumber>=numPages()) {
+					pageTuple=null;
+					return null;
 				}
-				pageTuple=null;
-				return null;
+				nextPage();
 			}
+			return pageTuple.next();
 		}
 		
+		/**
+		 * Appends the next tuples to batch, as many as fit, copying their
+		 * fields straight from the pages. Must not be mixed with next()
+		 * between rewinds.
+		 *
+		 * @return false if there were no more tuples
+		 */
+		boolean readBatch(Batch batch) throws DbException, TransactionAbortedException {
+			if (pageTuple==null)
+				return false;
+			while (!batch.isFull()) {
+				if (page!=null && slot<page.numSlots) {
+					slot=page.readInto(batch, slot);
+					continue;
+				}
+				if (page==null || currentPgNumber>=numPages()) {
+					pageTuple=null;
+					break;
+				}
+				nextPage();
+			}
+			return batch.rows()>0;
+		}
+
 		public void nextPage() throws TransactionAbortedException, DbException {
 			HeapPageId hpId=new HeapPageId(hpFile.getId(), currentPgNumber);
-			HeapPage hpPg=(HeapPage) Database.getBufferPool().getPage(tid, hpId, Permissions.READ_ONLY);
+			HeapPage hpPg=(HeapPage) Database.getBufferPool().getPage(tid, hpId, Permissions.READ_ONLY, strategy);
 			pageTuple=hpPg.iterator();
+			page=hpPg;
+			slot=0;
 			currentPgNumber++;
+			// skip the morsels of the other partitions
+			if (parts>1 && currentPgNumber%MORSEL_PAGES==0)
+				currentPgNumber+=(parts-1)*MORSEL_PAGES;
 		}
     	
     }
@@ -6,9 +6,16 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and decodes a tuple only when it
+ * is asked for, and then each field of the tuple only when the field is
+ * asked for, so a scan that looks at one column of a few tuples does not
+ * pay for the rest. Tuples inserted into the page are kept as objects, and
+ * written out from their fields by {@link #getPageData}.
  *
  * @see HeapFile
  * @see BufferPool
+ * @see SlottedHeapPage
  *
  */
 public class HeapPage implements Page {
@@ -16,6 +23,9 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
+    /** The page as read from disk; never modified. */
+    final byte data[];
+    /** Tuples inserted into this page; null for slots still in data. */
     final Tuple tuples[];
     final int numSlots;
 
@@ -42,47 +52,55 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
-        this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this(id, data, false);
+    }
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+    /**
+     * Create a HeapPage from a set of bytes of data read from disk, keeping
+     * data itself rather than a copy if owned is true. The caller then hands
+     * the array over and must not modify it.
+     */
+    HeapPage(HeapPageId id, byte[] data, boolean owned) throws IOException {
+        this(id, data, slotsPerPage(Database.getCatalog().getTupleDesc(id.getTableId())), owned);
+        System.arraycopy(this.data, 0, header, 0, header.length);
+    }
 
-        setBeforeImage();
+    /**
+     * Create a page of numSlots tuple slots, all of them empty, from a set of
+     * bytes of data read from disk, for a page format that marks the slots
+     * in use itself.
+     *
+     * @param owned true if the page may keep data, which must then be a
+     *        whole page, rather than a copy
+     */
+    HeapPage(HeapPageId id, byte[] data, int numSlots, boolean owned) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = numSlots;
+        // unless it was handed over, the caller may reuse its buffer, so keep
+        // a copy
+        this.data = owned ? data : Arrays.copyOf(data, BufferPool.getPageSize());
+        this.header = new byte[headerBytes(numSlots)];
+        this.tuples = new Tuple[numSlots];
+
+        // the bytes we were read from are the before image, and are never
+        // modified; nobody else can see this page yet, so no need to lock
+        oldData = this.data;
     }
 
-    /** Retrieve the number of tuples on this page.
-        @return the number of tuples on this page
-    */
-    private int getNumTuples() {        
+    /**
+     * @return the number of tuple slots on a page holding tuples described by td
+     */
+    static int slotsPerPage(TupleDesc td) {
     		int tupleSize=td.getSize();
-    		int numberOfTuples=BufferPool.getPageSize()*BYTE_SIZE/ (tupleSize*BYTE_SIZE+HEADER_SIZE_EACH_TUPLE);
-        return numberOfTuples;
-
+    		return BufferPool.getPageSize()*BYTE_SIZE/ (tupleSize*BYTE_SIZE+HEADER_SIZE_EACH_TUPLE);
     }
 
     /**
-     * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
-     * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
+     * @return the number of header bytes of a page with numSlots tuple slots
      */
-    private int getHeaderSize() {              
-    		int headerSize=(int) Math.ceil(this.getNumTuples() * HEADER_SIZE_EACH_TUPLE / (double) BYTE_SIZE);
-        return headerSize;
-                 
+    static int headerBytes(int numSlots) {
+    		return (int) Math.ceil(numSlots * HEADER_SIZE_EACH_TUPLE / (double) BYTE_SIZE);
     }
     
     /** Return a view of this page before it was modified
@@ -95,7 +113,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return copyOf(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -104,6 +122,14 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * @return a page of the same format as this one, with the same id, read
+     *         from data
+     */
+    HeapPage copyOf(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     @Override
 	public void setBeforeImage() {
         synchronized(oldDataLock)
@@ -122,37 +148,21 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset in data of the tuple in slot slotId
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
 
-        return t;
+    /**
+     * @return the tuple in used slot slotId, decoding it from the page data
+     *         if it was not inserted into this page
+     */
+    Tuple tuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t != null)
+            return t;
+        return new Tuple(td, new RecordId(pid, slotId), data, slotOffset(slotId));
     }
 
     /**
@@ -198,6 +208,16 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot, unchanged since the page was read
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, slotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -258,7 +278,7 @@ public class HeapPage implements Page {
     		if (!this.isSlotUsed(TupleNumber)) {
     			throw new DbException("Slot empty");
     		}
-    		if (!tuples[TupleNumber].getRecordId().equals(tid)) {
+    		if (!pid.equals(tid.getPageId())) {
     			throw new DbException("Tuple not here");
     		}
     		this.markSlotUsed(TupleNumber, false);
@@ -273,10 +293,12 @@ public class HeapPage implements Page {
      */
     public void insertTuple(Tuple t) throws DbException {
         // not necessary for lab1
-    		if (this.getNumEmptySlots()==0) {
-    			throw new DbException("page is full");
+    		// skip whole header bytes of used slots
+    		int i=0;
+    		while (i<this.numSlots && header[i/BYTE_SIZE]==(byte) 0xFF) {
+    			i+=BYTE_SIZE;
     		}
-    		for (int i=0; i<this.numSlots; i++) {
+    		for (; i<this.numSlots; i++) {
     			if (!isSlotUsed(i)) {
     				PageId pid=this.pid;
     				this.markSlotUsed(i, true);
@@ -286,6 +308,7 @@ public class HeapPage implements Page {
     				return;
     			}
     		}
+    		throw new DbException("page is full");
 
     }
 
@@ -321,13 +344,16 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         
-    		int count=0;
-    		for (int i=0; i<numSlots; i++) {
-    			if (!isSlotUsed(i)) {
-    				count++;
+    		int used=0;
+    		for (int i=0; i<numSlots/BYTE_SIZE; i++) {
+    			used+=Integer.bitCount(header[i] & 0xFF);
+    		}
+    		for (int i=numSlots/BYTE_SIZE*BYTE_SIZE; i<numSlots; i++) {
+    			if (isSlotUsed(i)) {
+    				used++;
     			}
     		}
-        return count;
+        return numSlots-used;
     }
 
     /**
@@ -364,19 +390,84 @@ public class HeapPage implements Page {
 		
     }
 
+    /**
+     * Appends the tuples in the used slots of this page, from slotId on, to
+     * batch, as many as fit. Fields still in the page data are copied
+     * straight into the batch's vectors, without decoding tuples.
+     *
+     * @return the slot after the last one read, which is numSlots once the
+     *         whole page has been read
+     */
+    int readInto(Batch batch, int slotId) {
+        int size = td.getSize();
+        int n = td.numFields();
+        int[] offsets = new int[n];
+        int[][] ints = new int[n][];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = td.getOffset(i);
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = batch.getInts(i);
+        }
+        for (; slotId < numSlots && !batch.isFull(); slotId++) {
+            if (((header[slotId / BYTE_SIZE] >> (slotId % BYTE_SIZE)) & 1) == 0)
+                continue;
+            int row = batch.addRow();
+            if (tuples[slotId] != null) {
+                batch.set(row, 0, tuples[slotId]);
+                continue;
+            }
+            int offset = header.length + slotId * size;
+            for (int i = 0; i < n; i++) {
+                if (ints[i] != null)
+                    ints[i][row] = Type.readInt(data, offset + offsets[i]);
+                else
+                    batch.getStrings(i)[row] = ((StringField) td.getFieldType(i)
+                            .parse(data, offset + offsets[i])).getValue();
+            }
+        }
+        return slotId;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
         
-    		ArrayList<Tuple> newArray=new ArrayList<>();
-    		for (int i=0; i<numSlots; i++) {
-    			if (isSlotUsed(i)) {
-    				newArray.add(tuples[i]);
-    			}
-    		}
-        return newArray.iterator();
+        return new TupleIterator();
+    }
+
+    /**
+     * Iterates over the slots that were in use when it was created, and
+     * decodes each tuple as it gets to it.
+     */
+    private class TupleIterator implements Iterator<Tuple> {
+        /** The header as of creation, so tuples inserted later are not returned. */
+        private final byte[] used = header.clone();
+        private int next = advance(0);
+
+        /**
+         * @return the first used slot at or after slotId, or numSlots
+         */
+        private int advance(int slotId) {
+            while (slotId < numSlots && ((used[slotId / BYTE_SIZE] >> (slotId % BYTE_SIZE)) & 1) == 0)
+                slotId++;
+            return slotId;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < numSlots;
+        }
+
+        @Override
+        public Tuple next() {
+            if (next >= numSlots)
+                throw new NoSuchElementException();
+            Tuple t = tuple(next);
+            next = advance(next + 1);
+            return t;
+        }
     }
 
 }
@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopsJoin joins child1 with a table that has an index on its
+ * join field, such as a BTreeFile keyed on it. Instead of scanning the
+ * whole inner table for every child1 tuple, like {@link Join}, it looks up
+ * the matches of each child1 tuple through the index.
+ * <p>
+ * child1 is read {@link #BATCH_SIZE} tuples at a time, and each batch is
+ * sorted on the join field before it is probed. Consecutive probes then go
+ * to the same or neighbouring index pages, which are likely to still be in
+ * the BufferPool, and a key that appears more than once in a batch is
+ * looked up only once. Tuples therefore do not come out in child1's order.
+ */
+public class IndexNestedLoopsJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of child1 tuples sorted and probed together. */
+    public static final int BATCH_SIZE = 1024;
+
+    private JoinPredicate pred;
+    private OpIterator child1;
+    private IndexOpIterator child2;
+    private TupleDesc comboTD;
+    /** The predicate's operator, applied to the index key of child2. */
+    private final Predicate.Op indexOp;
+
+    transient private Tuple[] batch;
+    transient private int batchSize;
+    transient private int batchPos;
+    transient private Tuple t1;
+    transient private Field probedKey;
+    transient private ArrayList<Tuple> matches;
+    transient private int matchPos;
+    transient private boolean innerOpen;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Index scan of the right(inner) relation, on the field the
+     *            predicate compares
+     * @throws IllegalArgumentException
+     *             if p compares with LIKE or NOT_EQUALS, which an index
+     *             cannot look up
+     */
+    public IndexNestedLoopsJoin(JoinPredicate p, OpIterator child1, IndexOpIterator child2) {
+        switch (p.getOperator()) {
+        case EQUALS:
+            indexOp = Predicate.Op.EQUALS;
+            break;
+        case LESS_THAN:
+            indexOp = Predicate.Op.GREATER_THAN;
+            break;
+        case LESS_THAN_OR_EQ:
+            indexOp = Predicate.Op.GREATER_THAN_OR_EQ;
+            break;
+        case GREATER_THAN:
+            indexOp = Predicate.Op.LESS_THAN;
+            break;
+        case GREATER_THAN_OR_EQ:
+            indexOp = Predicate.Op.LESS_THAN_OR_EQ;
+            break;
+        default:
+            throw new IllegalArgumentException("cannot look up " + p.getOperator() + " in an index");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name()
+    {
+	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name()
+    {
+	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        batch = new Tuple[BATCH_SIZE];
+        matches = new ArrayList<Tuple>();
+        start();
+        super.open();
+    }
+
+    private void start() {
+        batchSize = batchPos = 0;
+        t1 = null;
+        probedKey = null;
+        matches.clear();
+        matchPos = 0;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        if (innerOpen) {
+            child2.close();
+            innerOpen = false;
+        }
+        batch = null;
+        matches = null;
+        t1 = null;
+        probedKey = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        start();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The tuples are the concatenation of the joining tuples
+     * from the left and right relation.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (matchPos >= matches.size()) {
+            if (batchPos == batchSize && !readBatch())
+                return null;
+            t1 = batch[batchPos];
+            batch[batchPos++] = null;
+            Field key = t1.getField(pred.getField1());
+            if (probedKey == null || !key.equals(probedKey))
+                probe(key);
+            matchPos = 0;
+        }
+        Tuple t2 = matches.get(matchPos++);
+
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Reads the next batch of child1 tuples and sorts it on the join field.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean readBatch() throws TransactionAbortedException, DbException {
+        batchSize = batchPos = 0;
+        while (batchSize < BATCH_SIZE && child1.hasNext())
+            batch[batchSize++] = child1.next();
+        Arrays.sort(batch, 0, batchSize, new TupleComparator(pred.getField1(), true));
+        return batchSize > 0;
+    }
+
+    /**
+     * Looks up the child2 tuples that join with key into matches.
+     */
+    private void probe(Field key) throws TransactionAbortedException, DbException {
+        IndexPredicate ipred = new IndexPredicate(indexOp, key);
+        if (innerOpen) {
+            child2.rewind(ipred);
+        } else {
+            child2.open(ipred);
+            innerOpen = true;
+        }
+        matches.clear();
+        while (child2.hasNext())
+            matches.add(child2.next());
+        probedKey = key;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = (IndexOpIterator) children[1];
+    }
+
+}
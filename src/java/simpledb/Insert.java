@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
 /**
@@ -17,6 +18,11 @@ public class Insert extends Operator {
     private TupleDesc td;
     private OpIterator[] opIterator;
     private boolean called;
+    private final boolean bulk;
+
+    /** Pages of tuples collected before each bulk append. */
+    static final int BULK_PAGES = 64;
+
     /**
      * Constructor.
      *
@@ -33,6 +39,24 @@ public class Insert extends Operator {
     public Insert(TransactionId t, OpIterator child, int tableId)
             throws DbException {
         // some code goes here
+    		this(t, child, tableId, false);
+    }
+
+    /**
+     * Constructor for an insert that optionally loads in bulk: tuples are
+     * collected into batches of {@link #BULK_PAGES} pages, and each batch is
+     * appended to the end of the table with
+     * {@link BufferPool#appendTuples}, bypassing the buffer pool.
+     *
+     * @param bulk
+     *            true to append tuples in bulk
+     * @throws DbException
+     *             if TupleDesc of child differs from table into which we are to
+     *             insert.
+     */
+    public Insert(TransactionId t, OpIterator child, int tableId, boolean bulk)
+            throws DbException {
+    		this.bulk=bulk;
     		this.t=t;
     		this.child=child;
     		this.tableId=tableId;
@@ -94,10 +118,20 @@ public class Insert extends Operator {
     		}
     		this.called=true;
     		int count=0;
+    		int batchSize=BULK_PAGES*HeapPage.slotsPerPage(file.getTupleDesc());
+    		ArrayList<Tuple> batch=new ArrayList<>();
     		while (child.hasNext()) {
 	    		try {
 	    			Tuple insertTuple=child.next();
-	    			Database.getBufferPool().insertTuple(t, tableId, insertTuple);
+	    			if (bulk) {
+	    				batch.add(insertTuple);
+	    				if (batch.size()==batchSize) {
+	    					Database.getBufferPool().appendTuples(t, tableId, batch);
+	    					batch.clear();
+	    				}
+	    			} else {
+	    				Database.getBufferPool().insertTuple(t, tableId, insertTuple);
+	    			}
 				} catch (NoSuchElementException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
@@ -109,6 +143,13 @@ public class Insert extends Operator {
 				}
 	        count++;
     		}
+    		if (!batch.isEmpty()) {
+    			try {
+    				Database.getBufferPool().appendTuples(t, tableId, batch);
+    			} catch (IOException e) {
+    				throw new DbException("could not append to table " + tableId);
+    			}
+    		}
     		Tuple tuple=new Tuple(td);
         tuple.setField(0, new IntField(count));
         return tuple;
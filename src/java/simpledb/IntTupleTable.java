@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntTupleTable is a hash multimap from int keys to tuples, used by
+ * HashEquiJoin when it joins on an INT_TYPE field. Keys are kept unboxed in
+ * an open-addressing table with linear probing. Each key slot points to
+ * the most recently added row with that key, and rows with the same key
+ * are chained through a parallel array of row indexes. Adding a tuple
+ * therefore allocates nothing except when one of the arrays grows.
+ * <p>
+ * Rows are numbered from 0 in the order they are added. To visit the rows
+ * with a key, start at {@link #first} and follow {@link #next} until it
+ * returns -1.
+ */
+public class IntTupleTable {
+
+    /** Estimated bytes a row takes in this table, beyond the tuple data. */
+    static final int ROW_OVERHEAD = 40;
+
+    private static final int EMPTY = -1;
+
+    /** Key of each slot; only meaningful where head is not EMPTY. */
+    private int[] keys;
+    /** Last row added with the key of each slot, or EMPTY. */
+    private int[] heads;
+    private int usedSlots;
+
+    private Tuple[] tuples;
+    /** The row added before each row with the same key, or EMPTY. */
+    private int[] nexts;
+    private int size;
+
+    /**
+     * Creates an empty table sized for about expectedRows rows.
+     */
+    public IntTupleTable(int expectedRows) {
+        int slots = Integer.highestOneBit(Math.max(16, expectedRows) * 2 - 1) << 1;
+        keys = new int[slots];
+        heads = new int[slots];
+        Arrays.fill(heads, EMPTY);
+        tuples = new Tuple[Math.max(16, expectedRows)];
+        nexts = new int[tuples.length];
+    }
+
+    /**
+     * @return the number of rows in this table
+     */
+    public int size() {
+        return size;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot of key, or the empty slot where it belongs
+     */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (heads[i] != EMPTY && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Adds a row mapping key to t.
+     */
+    public void add(int key, Tuple t) {
+        if (size == tuples.length) {
+            tuples = Arrays.copyOf(tuples, size * 2);
+            nexts = Arrays.copyOf(nexts, size * 2);
+        }
+        int i = slot(key);
+        if (heads[i] == EMPTY) {
+            keys[i] = key;
+            usedSlots++;
+        }
+        tuples[size] = t;
+        nexts[size] = heads[i];
+        heads[i] = size;
+        size++;
+        if (usedSlots * 2 > keys.length)
+            rehash();
+    }
+
+    /**
+     * Doubles the number of slots, keeping them at most half full.
+     */
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new int[oldKeys.length * 2];
+        heads = new int[oldKeys.length * 2];
+        Arrays.fill(heads, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] != EMPTY) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                heads[j] = oldHeads[i];
+            }
+        }
+    }
+
+    /**
+     * @return the last row added with key, or -1 if there is none
+     */
+    public int first(int key) {
+        return heads[slot(key)];
+    }
+
+    /**
+     * @return the row added before row with the same key, or -1 if there is
+     *         none
+     */
+    public int next(int row) {
+        return nexts[row];
+    }
+
+    /**
+     * @return the tuple of row
+     */
+    public Tuple tuple(int row) {
+        return tuples[row];
+    }
+}
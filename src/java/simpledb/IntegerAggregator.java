@@ -7,20 +7,20 @@ import java.util.*;
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-    
-    private int gbfield;
-    private Type gbfieldtype;
+
+    private int[] gbfields;
+    private Type[] gbfieldtypes;
     private int afield;
     private Op what;
-    
-    
+
+
     public class AggHelper{
-    		public Field key;
+    		public GroupKey key;
     		public int min;
     		public int max;
     		public int count;
     		public int sum;
-    		public AggHelper(Field key){
+    		public AggHelper(GroupKey key){
     			this.key=key;
     			this.min=Integer.MAX_VALUE;
     			this.max=Integer.MIN_VALUE;
@@ -28,14 +28,22 @@ public class IntegerAggregator implements Aggregator {
     			this.sum=0;
     		}
     }
-    
-    private HashMap<Field,AggHelper> map;
-    private AggHelper overall;
-    
+
+    private HashMap<GroupKey,AggHelper> map;
+
+    /**
+     * The groups of a single INT_TYPE group by field by the value of the
+     * field, in an open-addressing table, so that batches find their group
+     * without creating a key. Groups not yet in it are looked up in map.
+     */
+    private int[] intKeys;
+    private AggHelper[] intGroups;
+    private int numIntGroups;
+
     /**
      * Aggregate constructor
-     * 
-     * @param gbfieldS
+     *
+     * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
      * @param gbfieldtype
@@ -48,136 +56,219 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
-    		this.gbfield=gbfield;
-    		this.gbfieldtype=gbfieldtype;
+        this(gbfield == NO_GROUPING ? new int[0] : new int[] { gbfield },
+                gbfield == NO_GROUPING ? new Type[0] : new Type[] { gbfieldtype },
+                afield, what);
+    }
+
+    /**
+     * Aggregate constructor for a grouping by several fields
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple,
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group by fields
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param what
+     *            the aggregation operator
+     */
+    public IntegerAggregator(int[] gbfields, Type[] gbfieldtypes, int afield, Op what) {
+    		this.gbfields=gbfields;
+    		this.gbfieldtypes=gbfieldtypes;
     		this.afield=afield;
     		this.what=what;
-    		map=new HashMap<Field, AggHelper>();
-    		overall=new AggHelper(null);
+    		map=new HashMap<GroupKey, AggHelper>();
     }
-    
-    
+
+
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
     @Override
 	public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
-    		Field key;
-    		AggHelper agg;
-    		if(gbfield==Aggregator.NO_GROUPING)
-    		{
-    			key=null;
-    		}
-    		else
-    		{
-    			key=tup.getField(gbfield);
-    		}
-    		if(map.containsKey(key))
+    		AggHelper agg=group(GroupKey.of(tup, gbfields));
+    		int  value = ((IntField)tup.getField(afield)).getValue();
+    		if(what==Op.SC_AVG)
     		{
-    			agg=map.get(key);
+    			// a SUM_COUNT tuple: its count follows its sum
+    			agg.sum=agg.sum+value;
+    			agg.count=agg.count+((IntField)tup.getField(afield+1)).getValue();
+    			return;
     		}
-    		else{
-    			agg=new AggHelper(key);
-    		}
-    		int  value = ((IntField)tup.getField(afield)).getValue();
     		agg.count++;
-    		overall.count++;
     		agg.sum=agg.sum+value;
-    		overall.sum=overall.sum+value;
     		if(agg.min>value) {
     			agg.min=value;
     		}
-    		if(overall.min>value) {
-    			overall.min=value;
-    		}
     		if(agg.max<value){
     			agg.max=value;
     		}
-    		if(overall.max<value){
-    			overall.max=value;
+    }
+
+    /**
+     * @return the group of key, which is created if it does not exist yet
+     */
+    private AggHelper group(GroupKey key) {
+    		AggHelper agg=map.get(key);
+    		if(agg==null)
+    		{
+    			agg=new AggHelper(key);
+    			map.put(key, agg);
     		}
-    		map.put(key, agg);
+    		return agg;
+    }
+
+    /**
+     * Merges the rows of batch into their groups straight from its vectors.
+     * A single INT_TYPE group by field is looked up by its value in
+     * intGroups; other group by fields need a key per row.
+     */
+    @Override
+    public void mergeBatchIntoGroups(Batch batch) {
+        if (what == Op.SC_AVG) {
+            Aggregator.super.mergeBatchIntoGroups(batch);
+            return;
+        }
+        int[] values = batch.getInts(afield);
+        int[] keys = null;
+        if (gbfields.length == 1 && gbfieldtypes[0] == Type.INT_TYPE) {
+            keys = batch.getInts(gbfields[0]);
+            if (intKeys == null) {
+                intKeys = new int[64];
+                intGroups = new AggHelper[64];
+            }
+        }
+        AggHelper agg = gbfields.length == 0 ? group(GroupKey.NONE) : null;
+        for (int i = 0; i < batch.size(); i++) {
+            int row = batch.row(i);
+            if (keys != null)
+                agg = intGroup(batch, row, keys[row]);
+            else if (gbfields.length > 0)
+                agg = group(GroupKey.of(batch, row, gbfields));
+            int value = values[row];
+            agg.count++;
+            agg.sum += value;
+            if (agg.min > value)
+                agg.min = value;
+            if (agg.max < value)
+                agg.max = value;
+        }
+    }
+
+    /**
+     * @return the group of row of batch, whose single group by field is key
+     */
+    private AggHelper intGroup(Batch batch, int row, int key) {
+        int mask = intKeys.length - 1;
+        int h = key * 0x9E3779B9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (intGroups[i] != null) {
+            if (intKeys[i] == key)
+                return intGroups[i];
+            i = (i + 1) & mask;
+        }
+        AggHelper agg = group(GroupKey.of(batch, row, gbfields));
+        intKeys[i] = key;
+        intGroups[i] = agg;
+        if (++numIntGroups * 2 > intKeys.length)
+            growIntGroups();
+        return agg;
+    }
+
+    /**
+     * Doubles the number of slots of intGroups, keeping them at most half
+     * full.
+     */
+    private void growIntGroups() {
+        int[] oldKeys = intKeys;
+        AggHelper[] oldGroups = intGroups;
+        intKeys = new int[oldKeys.length * 2];
+        intGroups = new AggHelper[oldKeys.length * 2];
+        int mask = intKeys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldGroups[j] == null)
+                continue;
+            int h = oldKeys[j] * 0x9E3779B9;
+            int i = (h ^ (h >>> 16)) & mask;
+            while (intGroups[i] != null)
+                i = (i + 1) & mask;
+            intKeys[i] = oldKeys[j];
+            intGroups[i] = oldGroups[j];
+        }
+    }
+
+    @Override
+    public boolean hasGroup(Tuple tup) {
+    		return map.containsKey(GroupKey.of(tup, gbfields));
+    }
+
+    @Override
+    public int numGroups() {
+    		return map.size();
     }
 
     /**
      * Create a OpIterator over group aggregate results.
-     * 
-     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
-     *         if using group, or a single (aggregateVal) if no grouping. The
-     *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *
+     * @return a OpIterator whose tuples are the group by fields followed by
+     *         the aggregateVal if using group, or a single (aggregateVal) if
+     *         no grouping. The aggregateVal is determined by the type of
+     *         aggregate specified in the constructor, and is a sum followed
+     *         by a count for SUM_COUNT.
      */
     @Override
 	public OpIterator iterator() {
-        // some code goes here
-        TupleDesc td;
-        Type[] tp;
+        int vals=what==Op.SUM_COUNT?2:1;
+        Type[] tp=new Type[gbfields.length+vals];
+        for (int i=0; i<gbfields.length; i++)
+        		tp[i]=gbfieldtypes[i];
+        for (int i=0; i<vals; i++)
+        		tp[gbfields.length+i]=Type.INT_TYPE;
+        TupleDesc td=new TupleDesc(tp);
         ArrayList<Tuple> tuples = new ArrayList<>();
-        
-        if(gbfield==Aggregator.NO_GROUPING)
+
+        Collection<AggHelper> groups=map.values();
+        if(gbfields.length==0 && groups.isEmpty())
         {
-        		tp=new Type[1];
-        		tp[0]=Type.INT_TYPE;
-        		td=new TupleDesc(tp);
-        		Tuple tuple=new Tuple(td);
-        		int val=0;
-        		switch(this.what)
-        		{
-        			case MIN: 
-        				val=overall.min;
-        				break;
-        			case MAX:
-        				val=overall.max;
-        				break;
-        			case SUM:
-        				val=overall.sum;
-        				break;
-        			case AVG:
-        				val=overall.sum/overall.count;
-        				break;
-        			case COUNT:
-        				val=overall.count;
-        				break;
-        		}
-        		tuple.setField(0, new IntField(val));
-        		tuples.add(tuple);
-        		return new TupleIterator(td,tuples);	
+        		// an aggregate over no tuples still has a value
+        		groups=Collections.singleton(new AggHelper(GroupKey.NONE));
         }
-        tp=new Type[2];
-		tp[0]=gbfieldtype;
-		tp[1]=Type.INT_TYPE;
-		td=new TupleDesc(tp);
-        for(Field key: map.keySet())
+        for(AggHelper agg: groups)
         {
         		int val=0;
         		Tuple tuple=new Tuple(td);
         		switch(this.what)
         		{
-        			case MIN: 
-        				val=map.get(key).min;
+        			case MIN:
+        				val=agg.min;
         				break;
         			case MAX:
-        				val=map.get(key).max;
+        				val=agg.max;
         				break;
         			case SUM:
-        				val=map.get(key).sum;
+        				val=agg.sum;
         				break;
         			case AVG:
-        				val=map.get(key).sum/map.get(key).count;
+        			case SC_AVG:
+        				val=agg.count==0?0:agg.sum/agg.count;
         				break;
         			case COUNT:
-        				val=map.get(key).count;
+        				val=agg.count;
+        				break;
+        			case SUM_COUNT:
+        				val=agg.sum;
+        				tuple.setField(gbfields.length+1, new IntField(agg.count));
         				break;
         		}
-        		tuple.setField(0, key);
-    			tuple.setField(1, new IntField(val));
+        		agg.key.fill(tuple);
+    			tuple.setField(gbfields.length, new IntField(val));
         		tuples.add(tuple);
         }
         return new TupleIterator(td,tuples);
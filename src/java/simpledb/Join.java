@@ -4,15 +4,39 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Join is a block nested loops join, for predicates a hash or merge join
+ * cannot evaluate. It reads as many child1 tuples as fit in its memory
+ * budget into a block, and scans child2 once for each block, comparing
+ * every child2 tuple with every tuple of the block. An N&times;M join thus
+ * scans child2 ceil(N / block size) times instead of N times.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default memory budget for a block of child1 tuples, in bytes. */
+    public static final long DEFAULT_MEMORY_BYTES = 16L << 20;
+
+    private JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private TupleDesc desc;
+    /** Number of child1 tuples in a full block. */
+    private final int blockTuples;
+
+    transient private ArrayList<Tuple> block;
+    transient private Tuple current2;
+    /** The next tuple of block to compare with current2. */
+    transient private int pos;
+    /** True once child2 has been read since it was opened or rewound. */
+    transient private boolean innerUsed;
+    private int innerScans;
+
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -20,27 +44,27 @@ public class Join extends Operator {
      * @param child2
      *            Iterator for the right(inner) relation to join
      */
-    private JoinPredicate p;
-    private OpIterator child1;
-    private OpIterator child2;
-    private TupleDesc desc;
-    private OpIterator[] childrenOp;
-    private Tuple current1;
-    private Tuple current2;
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
-        // some code goes here
-    		this.p=p;
-    		this.child1=child1;
-    		this.child2=child2;
-    		TupleDesc td1=child1.getTupleDesc();
-    		TupleDesc td2=child2.getTupleDesc();
-    		this.desc=TupleDesc.merge(td1, td2);
-    		this.current1=null;
-    		this.current2=null;
+        this(p, child1, child2, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor for a join whose blocks of child1 tuples may take up to
+     * memoryBytes bytes. A block always holds at least one tuple.
+     *
+     * @param memoryBytes
+     *            the memory budget of a block
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBytes) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.desc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        long tupleBytes = child1.getTupleDesc().getSize() + HashEquiJoin.TUPLE_OVERHEAD;
+        this.blockTuples = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBytes / tupleBytes));
     }
 
     public JoinPredicate getJoinPredicate() {
-        // some code goes here
         return this.p;
     }
 
@@ -50,17 +74,31 @@ public class Join extends Operator {
      *       alias or table name.
      * */
     public String getJoinField1Name() {
-        // some code goes here
-    		return desc.getFieldName(p.getField1());
+        return child1.getTupleDesc().getFieldName(p.getField1());
     }
+
     /**
      * @return
      *       the field name of join field2. Should be quantified by
      *       alias or table name.
      * */
     public String getJoinField2Name() {
-        // some code goes here
-    		return desc.getFieldName(p.getField2());
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /**
+     * @return the number of child1 tuples a block holds
+     */
+    public int getBlockTuples() {
+        return blockTuples;
+    }
+
+    /**
+     * @return the number of times child2 was scanned since this join was
+     *         created, counting partial scans
+     */
+    public int getInnerScanCount() {
+        return innerScans;
     }
 
     /**
@@ -68,46 +106,48 @@ public class Join extends Operator {
      *      implementation logic.
      */
     @Override
-	public TupleDesc getTupleDesc() {
-        // some code goes here
-    		return this.desc;
+    public TupleDesc getTupleDesc() {
+        return this.desc;
     }
 
     @Override
-	public void open() throws DbException, NoSuchElementException,
+    public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
-		super.open();	
-    		child1.open();
-    		child2.open();
-    		this.current1=null;
-    		this.current2=null;
+        child1.open();
+        child2.open();
+        block = new ArrayList<Tuple>();
+        start();
+        super.open();
+    }
+
+    private void start() {
+        block.clear();
+        current2 = null;
+        pos = 0;
+        innerUsed = false;
     }
 
     @Override
-	public void close() {
-        // some code goes here
-    		super.close();
-    		child1.close();
-    		child2.close();
-    		this.current1=null;
-    		this.current2=null;
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block = null;
+        current2 = null;
     }
 
     @Override
-	public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
-		child1.rewind();
-		child2.rewind();
-		this.current1=null;
-		this.current2=null;
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        start();
     }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate. Within a block, tuples come out grouped
+     * by child2 tuple, in child2's order.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -117,60 +157,69 @@ public class Join extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     @Override
-	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-    		
-    		while (child1.hasNext() || current1!=null) {
-    			if (current1==null) {
-    				current1=child1.next();
-    			}
-    			Iterator<Field> i1=current1.fields();
-    			while (child2.hasNext()) {
-    				current2=child2.next();
-    				Iterator<Field> i2=current2.fields();
-    				if (p.filter(current1,current2)) {
-    					Tuple result=new Tuple(this.getTupleDesc());
-    					int i=0;
-    					while (i1.hasNext()) {
-    						Field i1_next=i1.next();
-    						if (i1_next==null) {
-    							break;
-    						}
-    						result.setField(i, i1_next);
-    						i++;
-    					}
-    					while (i2.hasNext()) {
-    						result.setField(i, i2.next());
-    						i++;
-    					}
-    					return result; 
-    				}
-    			}
-    			current1=null;
-    			child2.rewind();
-    		}
-        return null;
-        
-    		
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (current2 != null) {
+                while (pos < block.size()) {
+                    Tuple current1 = block.get(pos++);
+                    if (p.filter(current1, current2))
+                        return merge(current1, current2);
+                }
+                current2 = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                current2 = child2.next();
+                pos = 0;
+            } else if (!readBlock()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Reads the next block of child1 tuples, and rewinds child2 unless no
+     * block has been joined with it yet.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean readBlock() throws TransactionAbortedException, DbException {
+        block.clear();
+        while (block.size() < blockTuples && child1.hasNext())
+            block.add(child1.next());
+        if (block.isEmpty())
+            return false;
+        if (innerUsed)
+            child2.rewind();
+        innerUsed = true;
+        innerScans++;
+        return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(desc);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
     }
 
     @Override
     public OpIterator[] getChildren() {
-        // some code goes here
-    		return this.childrenOp;
+        return new OpIterator[]{this.child1, this.child2};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // some code goes here
-    		this.childrenOp = new OpIterator[2];
-		childrenOp[0]=children[0];
-		childrenOp[1]=children[1];
+        this.child1 = children[0];
+        this.child2 = children[1];
     }
 
 }
@@ -11,6 +11,19 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+    /**
+     * Cost of inserting a tuple into a hash table, relative to probing it or
+     * to one predicate application.
+     */
+    static final double HASH_BUILD_COST = 2.0;
+
+    /**
+     * Bytes a left-hand tuple is assumed to take in a block of a nested
+     * loops join, data and overhead, since join costs are estimated without
+     * the widths of the inputs.
+     */
+    static final int BLOCK_TUPLE_BYTES = 128;
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
@@ -34,6 +47,12 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * Joins the optimizer chose to run by probing an index (see
+     * {@link LogicalJoinNode#probeIndex}) are index nested loops joins.
+     * Otherwise, joins whose inputs are both sorted on their join fields (see
+     * {@link #sortedOn}) are merge joins, other equality joins are hash
+     * joins, and the rest are nested loops joins.
      * 
      * @param lj
      *            The join being considered
@@ -68,12 +87,81 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.probeIndex && (j = instantiateIndexJoin(p, plan1, plan2)) != null) {
+            return j;
+        }
+        // a range merge join holds all of plan2 in memory, with no budget, so
+        // only equality joins are merged
+        if (!(lj instanceof LogicalSubplanJoinNode) && lj.p == Predicate.Op.EQUALS
+                && sortedOn(plan1, t1id) && sortedOn(plan2, t2id)) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * @return an IndexNestedLoopsJoin that looks up the tuples of plan1 in
+     *         the B+ tree file plan2 scans, with plan2's filters applied to
+     *         its output, or null if plan2 is not such a scan
+     */
+    private static OpIterator instantiateIndexJoin(JoinPredicate p,
+            OpIterator plan1, OpIterator plan2) {
+        ArrayList<Predicate> filters = new ArrayList<Predicate>();
+        OpIterator inner = plan2;
+        while (inner instanceof Filter) {
+            filters.add(((Filter) inner).getPredicate());
+            inner = ((Filter) inner).getChildren()[0];
+        }
+        if (!(inner instanceof SeqScan) || !sortedOn(inner, p.getField2()))
+            return null;
+        SeqScan scan = (SeqScan) inner;
+        OpIterator j = new IndexNestedLoopsJoin(p, plan1, new BTreeScan(
+                scan.getTransactionId(), Database.getCatalog().getTableId(
+                        scan.getTableName()), scan.getAlias(), null));
+        // the filters now see the joined tuples, with plan1's fields first
+        int width1 = plan1.getTupleDesc().numFields();
+        for (Predicate f : filters)
+            j = new Filter(new Predicate(f.getField() + width1, f.getOp(), f.getOperand()), j);
+        return j;
+    }
+
+    /**
+     * @return true if it is known that it returns its tuples in ascending
+     *         order of the given field: it is a scan of a B+ tree file on its
+     *         key field, an ascending OrderBy on the field, a merge join on
+     *         it, or a Filter over one of those
+     */
+    static boolean sortedOn(OpIterator it, int field) {
+        if (it instanceof Filter)
+            return sortedOn(((Filter) it).getChildren()[0], field);
+        if (it instanceof OrderBy) {
+            OrderBy ob = (OrderBy) it;
+            return ob.isASC() && ob.getOrderByField() == field;
+        }
+        if (it instanceof SortMergeJoin) {
+            JoinPredicate jp = ((SortMergeJoin) it).getJoinPredicate();
+            int width1 = ((SortMergeJoin) it).getChildren()[0].getTupleDesc().numFields();
+            return field == jp.getField1() || (jp.getOperator() == Predicate.Op.EQUALS
+                    && field == width1 + jp.getField2());
+        }
+        String tableName;
+        if (it instanceof SeqScan)
+            tableName = ((SeqScan) it).getTableName();
+        else if (it instanceof BTreeScan)
+            tableName = ((BTreeScan) it).getTableName();
+        else
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(tableName));
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -102,19 +190,55 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, false, false);
+    }
+
+    /**
+     * Estimate the cost of a join whose inputs may be known to be sorted on
+     * their join fields, costing the join {@link #instantiateJoin} will pick:
+     * an equality merge join reads each input once and compares each tuple
+     * about once; a hash join reads each input once and inserts every left tuple
+     * into a hash table; a nested loops join scans the right input once per
+     * block of left tuples and compares every pair.
+     *
+     * @param sorted1
+     *            true if the left-hand side is sorted on its join field
+     * @param sorted2
+     *            true if the right-hand side is sorted on its join field
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
+        } else if (sorted1 && sorted2 && j.p == Predicate.Op.EQUALS) {
+            return cost1 + cost2 + card1 + card2;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            return cost1 + cost2 + HASH_BUILD_COST * card1 + card2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return cost1 + card1 * cost2 + card1 * card2;
+            double blocks = Math.ceil((double) card1 * BLOCK_TUPLE_BYTES / Join.DEFAULT_MEMORY_BYTES);
+            return cost1 + blocks * cost2 + (double) card1 * card2;
         }
     }
 
+    /**
+     * Estimate the cost of an index nested loops join that looks up each
+     * left-hand tuple in a B+ tree on the right-hand table's join field. Each
+     * lookup reads one leaf page, since the internal pages of the tree stay
+     * in the BufferPool, and a batch of lookups, which is sorted, never reads
+     * more than the whole right-hand table.
+     *
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        double batches = Math.ceil((double) card1 / IndexNestedLoopsJoin.BATCH_SIZE);
+        double io = Math.min((double) card1 * TableStats.IOCOSTPERPAGE, batches * cost2);
+        return cost1 + io + card1 * Math.log(card2 + 1) / Math.log(2);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -250,6 +374,9 @@ public class JoinOptimizer {
     				cache.addPlan(nodes, curr.cost, curr.card, curr.plan);
     			}
     		}
+    		// a query over a single table has nothing to order
+    		if (length == 0)
+    			return new Vector<LogicalJoinNode>();
     		Set<LogicalJoinNode> set = new HashSet<>(joins);
     		Vector<LogicalJoinNode> best = cache.getOrder(set);
         return best;
@@ -317,6 +444,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // only base tables are known to be sorted
+        boolean leftSorted = false, rightSorted = false;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -332,6 +461,9 @@ public class JoinOptimizer {
                             filterSelectivities.get(j.t2Alias));
             rightPkey = table2Alias == null ? false : isPkey(table2Alias,
                     j.f2PureName);
+            leftSorted = isSorted(j.t1Alias, j.f1PureName);
+            rightSorted = table2Alias == null ? false : isSorted(table2Alias,
+                    j.f2PureName);
         } else {
             // news is not empty -- figure best way to join j to news
             prevBest = pc.getOrder(news);
@@ -360,6 +492,8 @@ public class JoinOptimizer {
                                 filterSelectivities.get(j.t2Alias));
                 rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
                         j.f2PureName);
+                rightSorted = j.t2Alias == null ? false : isSorted(j.t2Alias,
+                        j.f2PureName);
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                                                         // (both
                 // shouldn't be)
@@ -372,6 +506,7 @@ public class JoinOptimizer {
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
+                leftSorted = isSorted(j.t1Alias, j.f1PureName);
 
             } else {
                 // don't consider this plan if one of j.t1 or j.t2
@@ -381,10 +516,29 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost,
+                leftSorted, rightSorted);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost,
+                rightSorted, leftSorted);
+        // a base table stored in a B+ tree on its join field can be the
+        // inner side of an index join
+        boolean subplan = j instanceof LogicalSubplanJoinNode;
+        if (!subplan && rightSorted && j.p == Predicate.Op.EQUALS) {
+            double cost = estimateIndexJoinCost(j, t1card, t2card, t1cost, t2cost);
+            if (cost < cost1) {
+                cost1 = cost;
+                j = probingIndex(j);
+            }
+        }
+        if (!subplan && leftSorted && j2.p == Predicate.Op.EQUALS) {
+            double cost = estimateIndexJoinCost(j2, t2card, t1card, t2cost, t1cost);
+            if (cost < cost2) {
+                cost2 = cost;
+                j2 = probingIndex(j2);
+            }
+        }
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -406,6 +560,16 @@ public class JoinOptimizer {
         return cc;
     }
 
+    /**
+     * @return a copy of j that is to be run as an index nested loops join
+     */
+    private static LogicalJoinNode probingIndex(LogicalJoinNode j) {
+        LogicalJoinNode copy = new LogicalJoinNode(j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, j.p);
+        copy.probeIndex = true;
+        return copy;
+    }
+
     /**
      * Return true if the specified table is in the list of joins, false
      * otherwise
@@ -435,6 +599,26 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
+    /**
+     * Return true if the specified table is stored in a B+ tree file keyed
+     * on field, so that scanning it returns tuples sorted on field
+     *
+     * @param tableAlias
+     *            The alias of the table in the query
+     * @param field
+     *            The pure name of the field
+     */
+    private boolean isSorted(String tableAlias, String field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(p.getTableId(tableAlias));
+        if (!(f instanceof BTreeFile))
+            return false;
+        try {
+            return ((BTreeFile) f).keyField() == f.getTupleDesc().fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
     /**
      * Return true if a primary key field is joined by one of the joins in
      * joinlist
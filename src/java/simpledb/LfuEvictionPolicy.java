@@ -0,0 +1,52 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LfuEvictionPolicy evicts the least frequently used page: it counts the hits
+ * on every resident page and picks the page with the lowest count. Finding
+ * the victim scans every tracked page, and counts never decay, so this policy
+ * is mainly kept as a baseline to compare {@link ClockEvictionPolicy} with.
+ * All methods, hits included, synchronize on the policy.
+ */
+public class LfuEvictionPolicy implements EvictionPolicy {
+
+    private final HashMap<PageId, Integer> count;
+
+    public LfuEvictionPolicy() {
+        count = new HashMap<PageId, Integer>();
+    }
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        if (count.containsKey(pid))
+            pageAccessed(pid);
+        else
+            count.put(pid, 0);
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        Integer c = count.get(pid);
+        if (c != null)
+            count.put(pid, c + 1);
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        count.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        PageId victim = null;
+        int min = Integer.MAX_VALUE;
+        for (Map.Entry<PageId, Integer> e : count.entrySet()) {
+            if (e.getValue() < min && evictable.isEvictable(e.getKey())) {
+                min = e.getValue();
+                victim = e.getKey();
+            }
+        }
+        return victim;
+    }
+}
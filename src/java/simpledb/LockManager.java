@@ -0,0 +1,460 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LockManager implements page-level strict two-phase locking for the
+ * BufferPool. Every page has a shared (read) and an exclusive (write) mode;
+ * a transaction that holds the only shared lock on a page can upgrade it to
+ * an exclusive one. Locks are held until the transaction completes, unless
+ * released early through {@link #release}.
+ * <p>
+ * A request that cannot be granted joins the page's FIFO wait queue and the
+ * thread parks until a releasing transaction hands it the lock. Upgrades go
+ * to the front of the queue, since the upgrading transaction already blocks
+ * everybody behind it.
+ * <p>
+ * Deadlocks are found in the wait-for graph: a waiting transaction waits
+ * for the holders its request conflicts with and for every request queued
+ * ahead of it. A transaction whose plan runs on several worker threads can
+ * wait for several locks at once, and then waits for the blockers of all
+ * of them. Each time a transaction blocks, the lock manager looks for a
+ * cycle through it and aborts the youngest transaction (the one with the
+ * highest {@link TransactionId#getId()}) on the cycle, which gets a
+ * {@link TransactionAbortedException}. The graph is never stored; it is read
+ * off the wait queues while the search runs, which is serialized so that two
+ * transactions closing a cycle at the same time cannot both miss it.
+ * Waiters also search again every {@link #DETECT_INTERVAL_MILLIS} in case a
+ * cycle formed through a lock being granted rather than a new wait.
+ * <p>
+ * The lock for a page is created the first time the page is locked and is
+ * dropped again once nobody holds or waits for it, so the lock manager only
+ * keeps locks for pages that are in use. A lock that was dropped is marked
+ * as such, and a request that finds it after it was dropped looks the page
+ * up again.
+ *
+ * @see BufferPool#getPage
+ */
+public class LockManager {
+
+    /** How often a waiting transaction checks for deadlocks again. */
+    static final long DETECT_INTERVAL_MILLIS = 500;
+
+    /**
+     * Gets told about every lock request that had to wait.
+     */
+    public interface WaitListener {
+        /**
+         * @param tid the waiting transaction
+         * @param pid the page it waited for
+         * @param nanos how long it waited
+         * @param aborted true if it was chosen as a deadlock victim
+         */
+        public void waited(TransactionId tid, PageId pid, long nanos, boolean aborted);
+    }
+
+    /**
+     * A thread waiting for a lock. Fields other than granted and aborted are
+     * guarded by the monitor of the PageLock it waits on.
+     */
+    private static final class Waiter {
+        final TransactionId tid;
+        final PageLock lock;
+        final boolean exclusive;
+        final Thread thread;
+        volatile boolean granted;
+        volatile boolean aborted;
+        boolean newlyHeld;
+
+        Waiter(TransactionId tid, PageLock lock, boolean exclusive) {
+            this.tid = tid;
+            this.lock = lock;
+            this.exclusive = exclusive;
+            this.thread = Thread.currentThread();
+        }
+    }
+
+    /**
+     * The lock on a single page. All fields are guarded by its monitor.
+     */
+    static final class PageLock {
+        final PageId pid;
+        TransactionId exclusive;
+        TransactionId[] shared = new TransactionId[4];
+        int numShared;
+        final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+        /** Set once this lock is no longer in the lock table. */
+        boolean removed;
+
+        PageLock(PageId pid) {
+            this.pid = pid;
+        }
+
+        private int sharedIndex(TransactionId tid) {
+            for (int i = 0; i < numShared; i++) {
+                if (shared[i].equals(tid))
+                    return i;
+            }
+            return -1;
+        }
+
+        /** @return true if nobody holds or waits for this lock */
+        boolean idle() {
+            return exclusive == null && numShared == 0 && waiters.isEmpty();
+        }
+
+        boolean holds(TransactionId tid) {
+            return tid.equals(exclusive) || sharedIndex(tid) >= 0;
+        }
+
+        boolean grantable(TransactionId tid, boolean x) {
+            if (exclusive != null && !exclusive.equals(tid))
+                return false;
+            if (!x)
+                return true;
+            return numShared == 0 || (numShared == 1 && shared[0].equals(tid));
+        }
+
+        /**
+         * Gives tid the lock in the requested mode; the caller has checked
+         * that it is grantable.
+         *
+         * @return true if tid did not hold this lock in any mode before
+         */
+        boolean grant(TransactionId tid, boolean x) {
+            boolean wasHeld = holds(tid);
+            if (x) {
+                exclusive = tid;
+                removeShared(tid);
+            } else if (!wasHeld) {
+                if (numShared == shared.length)
+                    shared = Arrays.copyOf(shared, numShared * 2);
+                shared[numShared++] = tid;
+            }
+            return !wasHeld;
+        }
+
+        private void removeShared(TransactionId tid) {
+            int i = sharedIndex(tid);
+            if (i < 0)
+                return;
+            shared[i] = shared[--numShared];
+            shared[numShared] = null;
+        }
+
+        /** Drops whatever tid holds and hands the lock to the next waiters. */
+        void release(TransactionId tid) {
+            if (tid.equals(exclusive))
+                exclusive = null;
+            removeShared(tid);
+            grantWaiters();
+        }
+
+        /**
+         * @return the transactions w waits for: the holders its request
+         *         conflicts with and everybody queued ahead of it
+         */
+        ArrayList<TransactionId> blockers(Waiter w) {
+            ArrayList<TransactionId> b = new ArrayList<TransactionId>();
+            if (exclusive != null && !exclusive.equals(w.tid))
+                b.add(exclusive);
+            if (w.exclusive) {
+                for (int i = 0; i < numShared; i++) {
+                    if (!shared[i].equals(w.tid))
+                        b.add(shared[i]);
+                }
+            }
+            for (Waiter ahead : waiters) {
+                if (ahead == w)
+                    break;
+                if (!ahead.tid.equals(w.tid))
+                    b.add(ahead.tid);
+            }
+            return b;
+        }
+
+        /** Grants the lock to waiters in queue order until one has to wait. */
+        void grantWaiters() {
+            Waiter w;
+            while ((w = waiters.peekFirst()) != null && grantable(w.tid, w.exclusive)) {
+                waiters.pollFirst();
+                w.newlyHeld = grant(w.tid, w.exclusive);
+                w.granted = true;
+                LockSupport.unpark(w.thread);
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> locks;
+    private final ConcurrentHashMap<TransactionId, ArrayList<PageLock>> held;
+    /** The requests each blocked transaction is waiting on, one per waiting thread. */
+    private final ConcurrentHashMap<TransactionId, Set<Waiter>> waiting;
+    /** Serializes deadlock searches. */
+    private final Object detector = new Object();
+    private volatile WaitListener listener;
+
+    public LockManager() {
+        locks = new ConcurrentHashMap<PageId, PageLock>();
+        held = new ConcurrentHashMap<TransactionId, ArrayList<PageLock>>();
+        waiting = new ConcurrentHashMap<TransactionId, Set<Waiter>>();
+    }
+
+    /**
+     * Sets the listener told about every lock wait, or null for none.
+     */
+    public void setWaitListener(WaitListener listener) {
+        this.listener = listener;
+    }
+
+    private PageLock lockFor(PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            lock = locks.computeIfAbsent(pid, PageLock::new);
+        return lock;
+    }
+
+    /**
+     * Removes lock from the lock table if it is idle; the caller holds its
+     * monitor.
+     */
+    private void dropIfIdle(PageLock lock) {
+        if (lock.idle()) {
+            lock.removed = true;
+            locks.remove(lock.pid, lock);
+        }
+    }
+
+    private void remember(TransactionId tid, PageLock lock) {
+        ArrayList<PageLock> l = held.get(tid);
+        if (l == null)
+            l = held.computeIfAbsent(tid, t -> new ArrayList<PageLock>());
+        synchronized (l) {
+            l.add(lock);
+        }
+    }
+
+    /**
+     * Acquires a lock on pid for tid, shared for {@link Permissions#READ_ONLY}
+     * and exclusive for {@link Permissions#READ_WRITE}, blocking until it is
+     * granted. Returns immediately if tid already holds a lock that is strong
+     * enough.
+     *
+     * @throws TransactionAbortedException if tid was chosen as the victim
+     *         of a deadlock
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean x = perm == Permissions.READ_WRITE;
+        PageLock lock;
+        Waiter w = null;
+        boolean newlyHeld;
+        while (true) {
+            lock = lockFor(pid);
+            synchronized (lock) {
+                if (lock.removed)
+                    continue;
+                boolean holds = lock.holds(tid);
+                if (holds && (!x || tid.equals(lock.exclusive)))
+                    return;
+                // nobody may overtake the queue, except a transaction that
+                // already holds the lock and wants to upgrade it
+                if ((holds || lock.waiters.isEmpty()) && lock.grantable(tid, x)) {
+                    newlyHeld = lock.grant(tid, x);
+                } else {
+                    w = new Waiter(tid, lock, x);
+                    if (holds)
+                        lock.waiters.addFirst(w);
+                    else
+                        lock.waiters.addLast(w);
+                    newlyHeld = false;
+                }
+                break;
+            }
+        }
+        if (w != null) {
+            Waiter waiter = w;
+            long start = System.nanoTime();
+            boolean aborted = true;
+            waiting.compute(tid, (t, s) -> {
+                if (s == null)
+                    s = ConcurrentHashMap.newKeySet();
+                s.add(waiter);
+                return s;
+            });
+            try {
+                await(w);
+                aborted = false;
+            } finally {
+                waiting.computeIfPresent(tid, (t, s) -> {
+                    s.remove(waiter);
+                    return s.isEmpty() ? null : s;
+                });
+                WaitListener l = listener;
+                if (l != null)
+                    l.waited(tid, pid, System.nanoTime() - start, aborted);
+            }
+            newlyHeld = w.newlyHeld;
+        }
+        if (newlyHeld)
+            remember(tid, lock);
+    }
+
+    /**
+     * Parks until w is granted, or leaves the queue if w's transaction is
+     * picked as a deadlock victim or its thread is interrupted.
+     */
+    private void await(Waiter w) throws TransactionAbortedException {
+        long interval = TimeUnit.MILLISECONDS.toNanos(DETECT_INTERVAL_MILLIS);
+        while (!w.granted) {
+            if (!w.aborted)
+                detectDeadlock(w);
+            if (w.aborted || Thread.currentThread().isInterrupted()) {
+                synchronized (w.lock) {
+                    if (w.granted)
+                        return;
+                    w.lock.waiters.remove(w);
+                    // an aborted exclusive request may have been holding
+                    // back compatible requests behind it
+                    w.lock.grantWaiters();
+                    dropIfIdle(w.lock);
+                }
+                throw new TransactionAbortedException();
+            }
+            LockSupport.parkNanos(w.lock, interval);
+        }
+    }
+
+    /**
+     * Looks for a cycle in the wait-for graph that goes through w and, if
+     * there is one, marks the youngest transaction on it aborted.
+     */
+    private void detectDeadlock(Waiter w) {
+        synchronized (detector) {
+            ArrayList<TransactionId> cycle = new ArrayList<TransactionId>();
+            if (!findCycle(w.tid, w.tid, cycle, new HashSet<TransactionId>()))
+                return;
+            TransactionId victim = cycle.get(0);
+            for (TransactionId t : cycle) {
+                if (t.getId() > victim.getId())
+                    victim = t;
+            }
+            Set<Waiter> vs = waiting.get(victim);
+            if (vs != null) {
+                for (Waiter v : vs) {
+                    v.aborted = true;
+                    LockSupport.unpark(v.thread);
+                }
+            }
+        }
+    }
+
+    /**
+     * Depth-first search for a path from t back to start.
+     *
+     * @param path the transactions on the path so far; holds the cycle if
+     *        one is found
+     * @return true if t (transitively) waits for start
+     */
+    private boolean findCycle(TransactionId start, TransactionId t,
+            ArrayList<TransactionId> path, HashSet<TransactionId> visited) {
+        Set<Waiter> ws = waiting.get(t);
+        if (ws == null)
+            return false;
+        ArrayList<TransactionId> blockers = new ArrayList<TransactionId>();
+        for (Waiter w : ws) {
+            if (w.granted || w.aborted)
+                continue;
+            synchronized (w.lock) {
+                blockers.addAll(w.lock.blockers(w));
+            }
+        }
+        path.add(t);
+        for (TransactionId b : blockers) {
+            if (b.equals(start))
+                return true;
+            if (visited.add(b) && findCycle(start, b, path, visited))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    /**
+     * Releases whatever lock tid holds on pid.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return;
+        synchronized (lock) {
+            lock.release(tid);
+            dropIfIdle(lock);
+        }
+        ArrayList<PageLock> l = held.get(tid);
+        if (l != null) {
+            synchronized (l) {
+                l.remove(lock);
+            }
+        }
+    }
+
+    /**
+     * Releases every lock tid holds.
+     */
+    public void releaseAll(TransactionId tid) {
+        ArrayList<PageLock> l = held.remove(tid);
+        if (l == null)
+            return;
+        synchronized (l) {
+            for (PageLock lock : l) {
+                synchronized (lock) {
+                    lock.release(tid);
+                    dropIfIdle(lock);
+                }
+            }
+        }
+    }
+
+    /** @return the number of pages with a lock in the lock table */
+    int numLocks() {
+        return locks.size();
+    }
+
+    /** @return true if tid holds a lock on pid in either mode */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return lock.holds(tid);
+        }
+    }
+
+    /** @return true if tid holds an exclusive lock on pid */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return tid.equals(lock.exclusive);
+        }
+    }
+
+    /**
+     * @return the pages tid holds locks on
+     */
+    public ArrayList<PageId> lockedPages(TransactionId tid) {
+        ArrayList<PageId> pids = new ArrayList<PageId>();
+        ArrayList<PageLock> l = held.get(tid);
+        if (l != null) {
+            synchronized (l) {
+                for (PageLock lock : l)
+                    pids.add(lock.pid);
+            }
+        }
+        return pids;
+    }
+}
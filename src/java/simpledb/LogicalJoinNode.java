@@ -23,6 +23,12 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /**
+     * True if the optimizer chose to join by looking up each left-hand tuple
+     * in an index on the join field of the right-hand table.
+     */
+    public boolean probeIndex;
+
     public LogicalJoinNode() {
     }
 
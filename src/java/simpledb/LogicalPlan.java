@@ -5,16 +5,21 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, group by fields, order by fields
+ * and a limit. LogicalPlans can only represent queries with one
+ * aggregation field, but may group by any number of fields, sort on any
+ * number of fields, each ascending or descending, and return only the
+ * first n result tuples.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,12 +34,14 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private int limit = NO_LIMIT;
+    private int parallelism = 1;
     private String query;
 //    private Query owner;
 
@@ -187,33 +194,76 @@ public class LogicalPlan {
     
     /** Add an aggregate over the field with the specified grouping to
         the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        expression.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null for no grouping
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
+        addAggregate(op, afield, gfield == null ? Collections.<String>emptyList()
+                : Collections.singletonList(gfield));
+    }
+
+    /** Add an aggregate over the field, grouped by several fields, to
+        the query.  SimpleDb only supports a single aggregate
+        expression.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+        @param gfields the fields to group by, empty for no grouping
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield, List<String> gfields) throws ParsingException {
         afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
+        groupByFields.clear();
+        for (String gfield : gfields)
+            groupByFields.add(disambiguateName(gfield));
         aggOp = op;
         aggField = afield;
-        groupByField = gfield;
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields are sorted on
+        in the order they are added, so tuples that agree on the first field are ordered by the second, and so on.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAscs.add(asc);
+    }
+
+    /** Value of a plan's limit when it has no LIMIT clause. */
+    public static final int NO_LIMIT = -1;
+
+    /** Add a LIMIT clause, so that the query returns at most n tuples.
+        @param n the most tuples to return
+        @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("negative LIMIT " + n);
+        limit = n;
+    }
+
+    /** Set the degree of parallelism of the plan: the number of workers that
+        scan, join and aggregate in parallel, with {@link Exchange}s moving
+        tuples between them. 1, the default, runs the whole plan on the
+        calling thread.
+        @param n the number of workers
+        @throws IllegalArgumentException if n is not positive
+    */
+    public void setParallelism(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("parallelism must be positive, not " + n);
+        parallelism = n;
+    }
+
+    /** @return the degree of parallelism of the plan */
+    public int getParallelism() {
+        return parallelism;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -271,6 +321,55 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Find the columns of a table that the query refers to through one of its aliases:
+        in the select list, the filters, the joins, the aggregate, the GROUP BY and the
+        ORDER BY.
+        @param alias the alias of the table
+        @param td the TupleDesc of the table
+        @return the columns, in the order of the table, at least one of them; or null if
+          the query needs all of them, for SELECT *, or refers to a field the table does
+          not have, which is reported when the plan is built
+    */
+    private int[] referencedColumns(String alias, TupleDesc td) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2QuantifiedName);
+        }
+        if (aggField != null)
+            names.add(aggField);
+        names.addAll(groupByFields);
+        names.addAll(oByFields);
+
+        TreeSet<Integer> columns = new TreeSet<Integer>();
+        for (String name : names) {
+            String[] parts = name.split("[.]");
+            if (parts.length != 2)
+                return null;
+            if (parts[1].equals("*") && (parts[0].equals("null") || parts[0].equals(alias)))
+                return null;
+            if (!parts[0].equals(alias))
+                continue;
+            try {
+                columns.add(td.fieldNameToIndex(parts[1]));
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+        if (columns.isEmpty())
+            columns.add(0);
+        int[] out = new int[columns.size()];
+        int i = 0;
+        for (int c : columns)
+            out[i++] = c;
+        return out;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -294,7 +393,14 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 // a columnar table is read only for the columns the query uses
+                 int[] columns = file instanceof ColumnFile
+                         ? referencedColumns(table.alias, file.getTupleDesc()) : null;
+                 if (columns != null)
+                     ss = new SeqScan(t, file.getId(), table.alias, columns);
+                 else
+                     ss = new SeqScan(t, file.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -338,7 +444,11 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the stats are by the fields of the table, which a scan of some
+            // of its columns does not return all of
+            int field = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias))
+                    .fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(field, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -414,7 +524,7 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                outFields.add(groupByFields.size());
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -426,16 +536,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(disambiguateName(si.fname));
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(groupByFields.get(g));
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  groupByFields.get(g) + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,11 +571,21 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            Operator aggNode;
             try {
-                aggNode = new Aggregate(node,
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                // input already grouped needs no hashing, and streams
+                if (StreamAggregate.groupedOn(node, gfields))
+                    aggNode = new StreamAggregate(node,
+                                        td.fieldNameToIndex(aggField),
+                                        gfields,
+                                getAggOp(aggOp));
+                else
+                    aggNode = new Aggregate(node,
                                         td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
+                                        gfields,
                                 getAggOp(aggOp));
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
@@ -474,13 +595,162 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                ascs[i] = oByAscs.get(i);
+            }
+            // a limited sort only needs to keep the first tuples
+            if (limit == NO_LIMIT)
+                node = new OrderBy(fields, ascs, node);
+            else
+                node = new TopN(fields, ascs, limit, node);
+        } else if (limit != NO_LIMIT) {
+            node = new Limit(limit, node);
         }
 
+        if (parallelism > 1)
+            node = gather(partitions(node, parallelism));
+
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Splits a serial plan into plans that together return the same
+     * tuples, each over a disjoint part of the input, to run in parallel:
+     * <ul>
+     * <li>scans are split into partitions of the table,
+     * <li>Filters and Projects are copied over the parts of their input,
+     * <li>equality joins become hash joins of the parts of both inputs,
+     * repartitioned on the join fields,
+     * <li>other joins join the parts of their outer input with all of the
+     * inner input, broadcast to each,
+     * <li>Aggregates aggregate each part of their input, and merge the
+     * partial aggregates, repartitioned on the group fields if they are
+     * grouped; over an input that is not split, grouped Aggregates
+     * aggregate the parts of their input repartitioned on the group fields,
+     * <li>OrderBy, TopN and Limit stay whole, over the gathered parts of
+     * their input,
+     * <li>anything else, which may depend on the order of its input, stays
+     * whole over its whole input.
+     * </ul>
+     * The copies of a join or aggregate share the memory budget of one.
+     *
+     * @param n the number of parts to split into
+     * @return the plans of the parts, at most n of them
+     */
+    private static OpIterator[] partitions(OpIterator plan, int n) {
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            if (!(Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile)
+                    || scan.getColumns() != null)
+                return new OpIterator[] { plan };
+            OpIterator[] parts = new OpIterator[n];
+            for (int i = 0; i < n; i++)
+                parts[i] = new SeqScan(scan.getTransactionId(), scan.getTableId(),
+                        scan.getAlias(), i, n);
+            return parts;
+        }
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            OpIterator[] parts = partitions(f.getChildren()[0], n);
+            for (int i = 0; i < parts.length; i++)
+                parts[i] = new Filter(f.getPredicate(), parts[i]);
+            return parts;
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            TupleDesc td = p.getTupleDesc();
+            Type[] types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++)
+                types[i] = td.getFieldType(i);
+            OpIterator[] parts = partitions(p.getChildren()[0], n);
+            for (int i = 0; i < parts.length; i++)
+                parts[i] = new Project(p.getOutFieldIds(), types, parts[i]);
+            return parts;
+        }
+        if (plan instanceof Join || plan instanceof HashEquiJoin || plan instanceof SortMergeJoin) {
+            OpIterator[] children = ((Operator) plan).getChildren();
+            JoinPredicate jp;
+            if (plan instanceof Join)
+                jp = ((Join) plan).getJoinPredicate();
+            else if (plan instanceof HashEquiJoin)
+                jp = ((HashEquiJoin) plan).getJoinPredicate();
+            else
+                jp = ((SortMergeJoin) plan).getJoinPredicate();
+            if (jp.getOperator() == Predicate.Op.EQUALS) {
+                Repartition[] left = Repartition.create(partitions(children[0], n),
+                        new int[] { jp.getField1() }, n);
+                Repartition[] right = Repartition.create(partitions(children[1], n),
+                        new int[] { jp.getField2() }, n);
+                OpIterator[] parts = new OpIterator[n];
+                for (int i = 0; i < n; i++)
+                    parts[i] = new HashEquiJoin(jp, left[i], right[i],
+                            HashEquiJoin.DEFAULT_MEMORY_BYTES / n);
+                return parts;
+            }
+            if (plan instanceof Join) {
+                OpIterator[] parts = partitions(children[0], n);
+                // the serial join's budget, half for the inner tuples and
+                // half for the blocks of outer tuples
+                Broadcast[] inner = Broadcast.create(partitions(children[1], n), parts.length,
+                        Join.DEFAULT_MEMORY_BYTES / 2);
+                for (int i = 0; i < parts.length; i++)
+                    parts[i] = new Join(jp, parts[i], inner[i], Join.DEFAULT_MEMORY_BYTES / 2 / n);
+                return parts;
+            }
+            return new OpIterator[] { plan };
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            int[] gfields = a.groupFields();
+            OpIterator[] in = partitions(a.getChildren()[0], n);
+            if (in.length > 1) {
+                // each part aggregates its own tuples, and the partial
+                // aggregates of a group are merged by one consumer
+                long memoryBytes = Aggregate.DEFAULT_MEMORY_BYTES / (2 * n);
+                OpIterator[] partials = new OpIterator[in.length];
+                for (int i = 0; i < in.length; i++)
+                    partials[i] = a.partial(in[i], memoryBytes);
+                if (gfields.length == 0)
+                    return new OpIterator[] { a.merge(new Gather(partials), memoryBytes) };
+                int[] groups = new int[gfields.length];
+                for (int i = 0; i < groups.length; i++)
+                    groups[i] = i;
+                Repartition[] merged = Repartition.create(partials, groups, n);
+                OpIterator[] parts = new OpIterator[n];
+                for (int i = 0; i < n; i++)
+                    parts[i] = a.merge(merged[i], memoryBytes);
+                return parts;
+            }
+            if (gfields.length > 0) {
+                Repartition[] merged = Repartition.create(in, gfields, n);
+                OpIterator[] parts = new OpIterator[n];
+                for (int i = 0; i < n; i++)
+                    parts[i] = new Aggregate(merged[i], a.aggregateField(), gfields,
+                            a.aggregateOp(), Aggregate.DEFAULT_MEMORY_BYTES / n);
+                return parts;
+            }
+            a.setChildren(in);
+            return new OpIterator[] { plan };
+        }
+        if (plan instanceof OrderBy || plan instanceof TopN
+                || plan instanceof Limit) {
+            Operator o = (Operator) plan;
+            o.setChildren(new OpIterator[] { gather(partitions(o.getChildren()[0], n)) });
+        }
+        return new OpIterator[] { plan };
+    }
+
+    /**
+     * @return a plan that returns the tuples of all of parts
+     */
+    private static OpIterator gather(OpIterator[] parts) {
+        return parts.length == 1 ? parts[0] : new Gather(parts);
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -46,6 +46,29 @@ public abstract class Operator implements OpIterator {
     protected abstract Tuple fetchNext() throws DbException,
             TransactionAbortedException;
 
+    /**
+     * Returns the next tuples of fetchNext as a batch, for operators that
+     * implement {@link BatchIterator#nextBatch} tuple by tuple.
+     *
+     * @return the next batch, or null if the iteration is finished
+     */
+    protected Batch fetchBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        Batch batch = new Batch(getTupleDesc());
+        if (next != null) {
+            batch.add(next);
+            next = null;
+        }
+        while (!batch.isFull()) {
+            Tuple t = fetchNext();
+            if (t == null)
+                break;
+            batch.add(t);
+        }
+        return batch.rows() == 0 ? null : batch;
+    }
+
     /**
      * Closes this iterator. If overridden by a subclass, they should call
      * super.close() in order for Operator's internal state to be consistent.
@@ -1,24 +1,70 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * OrderBy is an external merge sort. It reads its child into memory until
+ * its memory budget is used up, sorts those tuples and writes them to a
+ * {@link TupleSpillFile} as a sorted run, and so on until the child is
+ * exhausted. If the whole child fits, it is sorted in memory and nothing
+ * is written. Otherwise the runs, and the tuples still in memory, are
+ * merged as tuples are fetched, with a priority queue holding the next
+ * tuple of each run. When there are more runs than the budget has room
+ * for read buffers ({@link #MAX_MERGE_WIDTH} at most), runs are first
+ * merged into longer runs. Tuples that compare equal keep their child
+ * order.
+ * <p>
+ * The sort key may have several fields, each ascending or descending.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the tuples sorted at once, in bytes. */
+    public static final long DEFAULT_MEMORY_BYTES = 16L << 20;
+    /** Most runs merged at once. */
+    static final int MAX_MERGE_WIDTH = 64;
+    /** Memory a run being merged takes for its read buffer, in bytes. */
+    static final int RUN_BUFFER_BYTES = 64 * 1024;
+
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private final int[] orderByFields;
+    private final boolean[] ascending;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private final long memoryBytes;
+    private final TupleComparator comparator;
+
+    /** The tuples in memory, sorted. */
+    transient private ArrayList<Tuple> childTups;
+    /** The sorted runs on disk, in the order they were written. */
+    transient private ArrayList<TupleSpillFile> runs;
+    transient private int pos;
+    transient private PriorityQueue<Run> merge;
+    private int runsWritten;
+
+    /**
+     * One input of the final merge: a spilled run, or the tuples in memory,
+     * with its next tuple.
+     */
+    private static class Run {
+        final int index;
+        final OpIterator file;
+        int pos;
+        Tuple head;
+
+        Run(int index, OpIterator file) {
+            this.index = index;
+            this.file = file;
+        }
+    }
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -27,28 +73,89 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields: by the first,
+     * then tuples that agree on it by the second, and so on.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Creates a new OrderBy node that holds at most memoryBytes bytes of
+     * tuples in memory, and writes sorted runs to disk beyond that.
+     *
+     * @param memoryBytes
+     *            the memory budget of the sort
+     * @throws IllegalArgumentException
+     *             if there are no sort fields, or not one order per field
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, long memoryBytes) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order for each of at least one field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascending = asc.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.memoryBytes = memoryBytes;
+        this.comparator = new TupleComparator(this.orderByFields, this.ascending);
     }
-    
+
+    /**
+     * @return true if the sort order of the first sort field is ascending
+     */
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascending[0];
     }
-    
+
+    /**
+     * @return the first sort field
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
-    
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    /**
+     * @return the sort fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return for each sort field, true if its sort order is ascending
+     */
+    public boolean[] getAscending() {
+        return ascending.clone();
+    }
+
+    /**
+     * @return the number of sorted runs this operator has written to disk,
+     *         including runs merged from other runs
+     */
+    public int getRunCount() {
+        return runsWritten;
+    }
+
     @Override
 	public TupleDesc getTupleDesc() {
         return td;
@@ -58,39 +165,181 @@ public class OrderBy extends Operator {
 	public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        childTups = new ArrayList<Tuple>();
+        runs = new ArrayList<TupleSpillFile>();
+        try {
+            sortRuns();
+            int width = (int) Math.max(2, Math.min(MAX_MERGE_WIDTH,
+                    memoryBytes / RUN_BUFFER_BYTES));
+            // leave room for the tuples still in memory
+            while (runs.size() > width - 1)
+                mergeRuns(width);
+        } catch (IOException e) {
+            deleteRuns();
+            throw new DbException("could not write sorted run: " + e);
+        }
+        start();
         super.open();
     }
 
+    /**
+     * Reads the child in chunks that fit in memory, sorts each, and writes
+     * all but the last to disk as runs.
+     */
+    private void sortRuns() throws DbException, TransactionAbortedException, IOException {
+        long tupleBytes = td.getSize() + HashEquiJoin.TUPLE_OVERHEAD;
+        long memUsed = 0;
+        while (child.hasNext()) {
+            if (memUsed + tupleBytes > memoryBytes && !childTups.isEmpty()) {
+                Collections.sort(childTups, comparator);
+                TupleSpillFile run = new TupleSpillFile(td);
+                runs.add(run);
+                runsWritten++;
+                for (Tuple t : childTups)
+                    run.add(t);
+                childTups.clear();
+                memUsed = 0;
+            }
+            childTups.add(child.next());
+            memUsed += tupleBytes;
+        }
+        Collections.sort(childTups, comparator);
+    }
+
+    /**
+     * Replaces the first width runs with a single run holding their tuples.
+     */
+    private void mergeRuns(int width)
+            throws DbException, TransactionAbortedException, IOException {
+        List<TupleSpillFile> inputs = runs.subList(0, width);
+        TupleSpillFile merged = new TupleSpillFile(td);
+        PriorityQueue<Run> queue = new PriorityQueue<Run>(width, runOrder());
+        for (int i = 0; i < width; i++) {
+            Run run = new Run(i, inputs.get(i).iterator());
+            run.file.open();
+            advance(run, queue);
+        }
+        while (!queue.isEmpty()) {
+            Run run = queue.poll();
+            merged.add(run.head);
+            advance(run, queue);
+        }
+        for (TupleSpillFile input : inputs)
+            input.delete();
+        inputs.clear();
+        runs.add(0, merged);
+        runsWritten++;
+    }
+
+    /**
+     * Sets up the final merge, or the iteration over childTups if nothing
+     * was spilled.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        pos = 0;
+        if (runs.isEmpty()) {
+            merge = null;
+            return;
+        }
+        merge = new PriorityQueue<Run>(runs.size() + 1, runOrder());
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                Run run = new Run(i, runs.get(i).iterator());
+                run.file.open();
+                advance(run, merge);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not read sorted run: " + e);
+        }
+        // the tuples in memory come last in the child, so they rank last
+        advance(new Run(runs.size(), null), merge);
+    }
+
+    /**
+     * Reads the next tuple of run and puts it back in queue, unless the
+     * run is exhausted.
+     */
+    private void advance(Run run, PriorityQueue<Run> queue)
+            throws DbException, TransactionAbortedException {
+        if (run.file != null) {
+            if (!run.file.hasNext()) {
+                run.file.close();
+                return;
+            }
+            run.head = run.file.next();
+        } else {
+            if (run.pos == childTups.size())
+                return;
+            run.head = childTups.get(run.pos++);
+        }
+        queue.add(run);
+    }
+
+    /**
+     * @return an order of runs by their next tuples, and by their place in
+     *         the child when those are equal
+     */
+    private Comparator<Run> runOrder() {
+        return new Comparator<Run>() {
+            public int compare(Run r1, Run r2) {
+                int c = comparator.compare(r1.head, r2.head);
+                return c != 0 ? c : r1.index - r2.index;
+            }
+        };
+    }
+
+    private void deleteRuns() {
+        if (runs == null)
+            return;
+        for (TupleSpillFile run : runs)
+            run.delete();
+        runs = null;
+    }
+
     @Override
 	public void close() {
         super.close();
-        it = null;
+        child.close();
+        if (merge != null) {
+            for (Run run : merge) {
+                if (run.file != null)
+                    run.file.close();
+            }
+            merge = null;
+        }
+        deleteRuns();
+        childTups = null;
     }
 
     @Override
 	public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (merge != null) {
+            for (Run run : merge) {
+                if (run.file != null)
+                    run.file.close();
+            }
+        }
+        start();
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
     @Override
 	protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+        if (merge == null)
+            return pos < childTups.size() ? childTups.get(pos++) : null;
+        Run run = merge.poll();
+        if (run == null)
             return null;
+        Tuple t = run.head;
+        advance(run, merge);
+        return t;
     }
 
     @Override
@@ -104,26 +353,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    @Override
-	public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
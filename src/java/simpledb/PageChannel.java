@@ -0,0 +1,194 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * PageChannel does the disk I/O of a DbFile through one long-lived
+ * {@link FileChannel} over its backing file, instead of opening the file for
+ * every page. Reads and writes are positional, so threads reading different
+ * pages of the same file never share or move a file pointer.
+ * <p>
+ * The channel is opened on first use. A PageChannel over a read-only table
+ * opens it read-only; any other opens it read-write if possible and
+ * read-only otherwise. Nothing closes it explicitly: DbFiles live as long as the
+ * Catalog refers to them, and the channel's file descriptor is released when
+ * the channel is garbage collected.
+ * <p>
+ * Page reads go into a page-sized buffer that belongs to the calling thread
+ * and is reused for its next read, so the read itself allocates nothing. A
+ * Page must not keep a reference to the array: the BTree pages and
+ * ColumnPage parse their data right away, while HeapPage decodes its tuples
+ * lazily and so keeps a page-sized copy of the data it was read from.
+ * <p>
+ * A read-only PageChannel can instead serve reads from memory mappings of
+ * the file through {@link #readMapped}, which leaves caching to the OS page
+ * cache and copies the bytes from mapped memory straight into the caller's
+ * array, with no read system call and no pass through the thread's buffer.
+ * The file is mapped in segments of up to {@link #SEGMENT_BYTES}, each once,
+ * on the first read that needs it. Nothing writes to the file through a
+ * read-only channel, so the mappings never go stale.
+ */
+public class PageChannel {
+
+    /** Largest mapping; a single MappedByteBuffer cannot exceed 2GB. */
+    static final long SEGMENT_BYTES = 1L << 30;
+
+    private static final ThreadLocal<ByteBuffer> readBuffer = new ThreadLocal<ByteBuffer>();
+
+    private final File file;
+    private final boolean readOnly;
+    private volatile FileChannel channel;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    public PageChannel(File file) {
+        this(file, false);
+    }
+
+    /**
+     * @param readOnly true to open the file read-only, which rejects writes
+     *        and allows {@link #readMapped}
+     */
+    public PageChannel(File file, boolean readOnly) {
+        this.file = file;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @return the channel over the file, opening it if this is the first use
+     */
+    public FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c == null) {
+            synchronized (this) {
+                c = channel;
+                if (c == null) {
+                    if (readOnly) {
+                        c = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                    } else {
+                        try {
+                            c = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+                        } catch (AccessDeniedException e) {
+                            c = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                        }
+                    }
+                    channel = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * @return the size of the file in bytes, 0 if it does not exist yet
+     */
+    public long size() throws IOException {
+        if (channel == null && !file.exists())
+            return 0;
+        return channel().size();
+    }
+
+    /**
+     * Reads length bytes starting at position into the calling thread's
+     * read buffer.
+     *
+     * @return the buffer's backing array, holding the bytes read at index 0
+     *         through length - 1. It is overwritten by the thread's next
+     *         read, so the caller must not keep it.
+     * @throws EOFException if the file ends before position + length
+     */
+    public byte[] read(long position, int length) throws IOException {
+        ByteBuffer buf = threadBuffer(length);
+        buf.limit(length);
+        FileChannel c = channel();
+        while (buf.hasRemaining()) {
+            if (c.read(buf, position + buf.position()) < 0)
+                throw new EOFException("read past end of " + file);
+        }
+        return buf.array();
+    }
+
+    /**
+     * Fills dst with the bytes starting at position, copying them out of a
+     * memory mapping of the file rather than reading them through the
+     * channel. Only a read-only PageChannel maps its file.
+     *
+     * @throws EOFException if the file ends before position + dst.length
+     */
+    public void readMapped(long position, byte[] dst) throws IOException {
+        if (!readOnly)
+            throw new IllegalStateException(file + " is not opened read-only");
+        int done = 0;
+        while (done < dst.length) {
+            long pos = position + done;
+            int seg = (int) (pos / SEGMENT_BYTES);
+            int offset = (int) (pos % SEGMENT_BYTES);
+            int n = (int) Math.min(dst.length - done, SEGMENT_BYTES - offset);
+            MappedByteBuffer m = mapped(seg);
+            if (offset + n > m.capacity())
+                throw new EOFException("read past end of " + file);
+            m.get(offset, dst, done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * @return the mapping of segment seg, mapping it if this is the first
+     *         read from it
+     */
+    private MappedByteBuffer mapped(int seg) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        if (seg < segs.length && segs[seg] != null)
+            return segs[seg];
+        synchronized (this) {
+            segs = segments;
+            if (seg < segs.length && segs[seg] != null)
+                return segs[seg];
+            long start = seg * SEGMENT_BYTES;
+            long length = Math.min(SEGMENT_BYTES, channel().size() - start);
+            if (length <= 0)
+                throw new EOFException("read past end of " + file);
+            MappedByteBuffer m = channel().map(FileChannel.MapMode.READ_ONLY, start, length);
+            if (seg >= segs.length)
+                segs = Arrays.copyOf(segs, seg + 1);
+            else
+                segs = segs.clone();
+            segs[seg] = m;
+            segments = segs;
+            return m;
+        }
+    }
+
+    /**
+     * @return the calling thread's read buffer, cleared and at least length
+     *         bytes long
+     */
+    private static ByteBuffer threadBuffer(int length) {
+        ByteBuffer buf = readBuffer.get();
+        if (buf == null || buf.capacity() < length) {
+            buf = ByteBuffer.allocate(length);
+            readBuffer.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Writes length bytes of data starting at position, growing the file if
+     * necessary.
+     */
+    public void write(long position, byte[] data, int length) throws IOException {
+        if (readOnly)
+            throw new IOException(file + " is read-only");
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+        FileChannel c = channel();
+        while (buf.hasRemaining())
+            c.write(buf, position + buf.position());
+    }
+}
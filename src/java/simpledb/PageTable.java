@@ -0,0 +1,234 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageTable maps the ids of the pages resident in the BufferPool to their
+ * frames. The table is split into stripes, each a small hash map with its
+ * own lock, so that threads looking up pages in different stripes never
+ * contend; a lookup holds one stripe lock for the duration of a hash probe.
+ * <p>
+ * Every frame carries a pin count. The BufferPool pins a frame while it is
+ * working on it (loading the page from disk, flushing it, handing it out)
+ * and the table refuses to drop a pinned or dirty frame through
+ * {@link #removeIfClean}, which is what eviction uses.
+ *
+ * @see BufferPool
+ */
+public class PageTable {
+
+    /** Number of stripes; a power of two so the stripe is a mask of the hash. */
+    private static final int STRIPES = 64;
+
+    /**
+     * A buffer pool frame: the slot a single resident page lives in.
+     */
+    static class Frame {
+        final PageId pid;
+        private volatile Page page;
+        private boolean failed;
+        /** Guarded by the lock of the stripe this frame lives in. */
+        private int pins;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+
+        /**
+         * @return the page in this frame, waiting for another thread to
+         *         finish reading it from disk if necessary, or null if that
+         *         read failed
+         */
+        Page awaitPage() {
+            Page p = page;
+            if (p != null)
+                return p;
+            return waitForPage();
+        }
+
+        private synchronized Page waitForPage() {
+            boolean interrupted = false;
+            while (page == null && !failed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            return page;
+        }
+
+        /** @return the page in this frame, or null while it is being read */
+        Page page() {
+            return page;
+        }
+
+        /** Replaces the page in this frame, e.g. with a newly dirtied copy. */
+        synchronized void setPage(Page p) {
+            page = p;
+            notifyAll();
+        }
+
+        /**
+         * Fills a new frame with the page read from disk, unless a dirtied
+         * copy was put in while the read was going on.
+         *
+         * @return the page now in the frame
+         */
+        synchronized Page fill(Page p) {
+            if (page == null) {
+                page = p;
+                notifyAll();
+            }
+            return page;
+        }
+
+        synchronized void loadFailed() {
+            failed = true;
+            notifyAll();
+        }
+    }
+
+    private final HashMap<PageId, Frame>[] stripes;
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public PageTable() {
+        stripes = new HashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new HashMap<PageId, Frame>();
+    }
+
+    private HashMap<PageId, Frame> stripe(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (STRIPES - 1)];
+    }
+
+    /**
+     * @return the number of frames in the table, including frames whose page
+     *         is still being read
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Looks up the frame for pid and pins it.
+     *
+     * @return the pinned frame, or null if pid is not resident
+     */
+    Frame pin(PageId pid) {
+        HashMap<PageId, Frame> s = stripe(pid);
+        synchronized (s) {
+            Frame f = s.get(pid);
+            if (f != null)
+                f.pins++;
+            return f;
+        }
+    }
+
+    /**
+     * Creates an empty, pinned frame for pid. The caller must then either
+     * fill it with {@link Frame#fill} or take it out again with
+     * {@link #remove}; until then other threads asking for the page wait in
+     * {@link Frame#awaitPage}.
+     *
+     * @return the new frame, or null if pid already has a frame
+     */
+    Frame createPinned(PageId pid) {
+        HashMap<PageId, Frame> s = stripe(pid);
+        synchronized (s) {
+            if (s.containsKey(pid))
+                return null;
+            Frame f = new Frame(pid);
+            f.pins = 1;
+            s.put(pid, f);
+            size.incrementAndGet();
+            return f;
+        }
+    }
+
+    /** Releases one pin on f. */
+    void unpin(Frame f) {
+        synchronized (stripe(f.pid)) {
+            f.pins--;
+        }
+    }
+
+    /** @return true if some thread holds a pin on the frame for pid */
+    boolean isPinned(PageId pid) {
+        HashMap<PageId, Frame> s = stripe(pid);
+        synchronized (s) {
+            Frame f = s.get(pid);
+            return f != null && f.pins > 0;
+        }
+    }
+
+    /**
+     * @return true if the frame for pid could be dropped right now: nobody
+     *         has it pinned and it holds a clean page
+     */
+    boolean isEvictable(PageId pid) {
+        HashMap<PageId, Frame> s = stripe(pid);
+        synchronized (s) {
+            Frame f = s.get(pid);
+            if (f == null || f.pins > 0)
+                return false;
+            Page p = f.page();
+            return p != null && p.isDirty() == null;
+        }
+    }
+
+    /**
+     * Removes the frame for pid, whether or not it is pinned.
+     *
+     * @return the removed frame, or null if pid was not resident
+     */
+    Frame remove(PageId pid) {
+        HashMap<PageId, Frame> s = stripe(pid);
+        synchronized (s) {
+            Frame f = s.remove(pid);
+            if (f != null)
+                size.decrementAndGet();
+            return f;
+        }
+    }
+
+    /**
+     * Removes the frame for pid unless it is pinned, its page is still being
+     * read, or its page is dirty.
+     *
+     * @return true if the frame was removed
+     */
+    boolean removeIfClean(PageId pid) {
+        HashMap<PageId, Frame> s = stripe(pid);
+        synchronized (s) {
+            Frame f = s.get(pid);
+            if (f == null || f.pins > 0)
+                return false;
+            Page p = f.page();
+            if (p == null || p.isDirty() != null)
+                return false;
+            s.remove(pid);
+            size.decrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * @return a snapshot of the ids of all resident pages
+     */
+    public ArrayList<PageId> pageIds() {
+        ArrayList<PageId> ids = new ArrayList<PageId>(size());
+        for (HashMap<PageId, Frame> s : stripes) {
+            synchronized (s) {
+                ids.addAll(s.keySet());
+            }
+        }
+        return ids;
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -12,6 +14,73 @@ import jline.SimpleCompletor;
 public class Parser {
     static boolean explain = false;
 
+    /**
+     * A LIMIT clause at the end of a statement. Zql has no LIMIT, so the
+     * clause is cut off the statement before Zql parses it.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+limit\\s+(\\d+)\\s*(;?)\\s*$", Pattern.CASE_INSENSITIVE);
+
+    /** The LIMIT of the statement being parsed, or LogicalPlan.NO_LIMIT. */
+    private int limit = LogicalPlan.NO_LIMIT;
+
+    /**
+     * Removes a LIMIT clause from the end of statement s, and remembers its
+     * count for the query the statement holds.
+     *
+     * @return s without its LIMIT clause
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find()) {
+            limit = LogicalPlan.NO_LIMIT;
+            return s;
+        }
+        try {
+            limit = Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT " + m.group(1) + " is too large");
+        }
+        return s.substring(0, m.start()) + m.group(2);
+    }
+
+    /**
+     * Adds the LIMIT of the statement being parsed, if it has one, to lp.
+     */
+    private void addLimit(LogicalPlan lp) throws simpledb.ParsingException {
+        if (limit != LogicalPlan.NO_LIMIT)
+            lp.addLimit(limit);
+    }
+
+    /**
+     * A statement that sets the degree of parallelism of the queries that
+     * follow, which Zql cannot parse.
+     */
+    private static final Pattern SET_PARALLELISM = Pattern.compile(
+            "^\\s*set\\s+parallelism\\s+(\\d+)\\s*;?\\s*$", Pattern.CASE_INSENSITIVE);
+
+    /** The degree of parallelism of the queries this parser plans. */
+    private int parallelism = 1;
+
+    /**
+     * Sets the degree of parallelism of the queries this parser plans from
+     * now on, see {@link LogicalPlan#setParallelism}.
+     *
+     * @throws IllegalArgumentException if n is not positive
+     */
+    public void setParallelism(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("parallelism must be positive, not " + n);
+        parallelism = n;
+    }
+
+    /**
+     * @return the degree of parallelism of the queries this parser plans
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -182,22 +251,18 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        ArrayList<String> groupByFields = new ArrayList<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
+                groupByFields.add(groupByField);
                 System.out.println("GROUP BY FIELD : " + groupByField);
             }
 
@@ -229,9 +294,9 @@ public class Parser {
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,31 +306,27 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFun == null) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
         if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+            lp.addAggregate(aggFun, aggField, groupByFields);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
-
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
         }
         return lp;
     }
@@ -279,6 +340,8 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        addLimit(lp);
+        lp.setParallelism(parallelism);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -387,6 +450,8 @@ public class Parser {
         } else {
             ZQuery zq = s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            addLimit(lp);
+            lp.setParallelism(parallelism);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -465,12 +530,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                addLimit(lp);
+                lp.setParallelism(parallelism);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,8 +570,32 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) != -1;)
+                statement.write(buf, 0, n);
+            Matcher set = SET_PARALLELISM.matcher(statement.toString("UTF-8"));
+            if (set.find()) {
+                int n;
+                try {
+                    n = Integer.parseInt(set.group(1));
+                } catch (NumberFormatException e) {
+                    n = 0;
+                }
+                if (n < 1)
+                    throw new simpledb.ParsingException("invalid parallelism " + set.group(1));
+                setParallelism(n);
+                System.out.println("Parallelism set to " + n + ".");
+                return;
+            }
+            String text = stripLimit(statement.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(text.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
+            // an INSERT ... VALUES inserts one tuple and has no query to limit
+            if (limit != LogicalPlan.NO_LIMIT && !(s instanceof ZQuery
+                    || (s instanceof ZInsert && ((ZInsert) s).getValues() == null)))
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported on queries and INSERT ... SELECT");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -581,11 +672,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit", "set parallelism" };
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -595,7 +686,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel n] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -616,6 +707,14 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    try {
+                        setParallelism(Integer.parseInt(argv[++i]));
+                    } catch (RuntimeException e) {
+                        System.out.println("Expected a positive number after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
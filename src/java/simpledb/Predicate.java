@@ -107,6 +107,78 @@ public class Predicate implements Serializable {
     		return t.getField(field).compare(op, operand);
     }
 
+    /**
+     * Keeps only the rows of batch whose field satisfies this predicate.
+     * An INT_TYPE field compared with an IntField is compared straight from
+     * its vector, without creating Fields.
+     *
+     * @param batch
+     *            The batch to filter
+     */
+    public void filter(Batch batch) {
+        int n = batch.size();
+        int[] rows = new int[n];
+        int kept = 0;
+        if (batch.getTupleDesc().getFieldType(field) == Type.INT_TYPE
+                && operand instanceof IntField) {
+            int[] values = batch.getInts(field);
+            int v = ((IntField) operand).getValue();
+            // one loop per operator, so the loops do not branch on it
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (values[row] == v)
+                        rows[kept++] = row;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (values[row] != v)
+                        rows[kept++] = row;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (values[row] > v)
+                        rows[kept++] = row;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (values[row] >= v)
+                        rows[kept++] = row;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (values[row] < v)
+                        rows[kept++] = row;
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (values[row] <= v)
+                        rows[kept++] = row;
+                }
+                break;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int row = batch.row(i);
+                if (batch.getField(field, row).compare(op, operand))
+                    rows[kept++] = row;
+            }
+        }
+        batch.select(rows, kept);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
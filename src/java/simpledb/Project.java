@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
@@ -41,6 +41,13 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /**
+     * @return the ids of the fields of the child's tuples this projects out
+     */
+    public ArrayList<Integer> getOutFieldIds() {
+        return new ArrayList<Integer>(outFieldIds);
+    }
+
     @Override
 	public TupleDesc getTupleDesc() {
         return td;
@@ -85,6 +92,21 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of the child with only the projected fields,
+     * which shares the child's vectors rather than copying them.
+     */
+    @Override
+    public Batch nextBatch() throws TransactionAbortedException, DbException {
+        Batch batch = Batch.read(child);
+        if (batch == null)
+            return null;
+        int[] fields = new int[outFieldIds.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = outFieldIds.get(i);
+        return batch.project(td, fields);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
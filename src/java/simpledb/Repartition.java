@@ -0,0 +1,246 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Repartition is the {@link Exchange} that splits the tuples of its
+ * producers among several consumers by the hash of some of their fields, so
+ * that tuples with equal values of those fields go to the same consumer.
+ * Each consumer reads its share from a Repartition operator of its own, a
+ * port, made by {@link #create}.
+ * <p>
+ * The ports share one run of the producers, which starts when the first
+ * port is opened and ends when the last is closed. A port cannot be
+ * rewound, nor opened again before all the others have been closed.
+ * Consumers must read their ports concurrently, as a producer waits once a
+ * port it has tuples for is full.
+ */
+public class Repartition extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The hash seed of the partitioning, which no join or aggregate uses, so
+     * that the tuples of one port do not all fall into one of their
+     * partitions.
+     */
+    static final int HASH_LEVEL = -1;
+
+    private final Hub hub;
+    private final int port;
+
+    transient private Reader reader;
+
+    /**
+     * The state the ports of a repartition share.
+     */
+    private static class Hub {
+        OpIterator[] producers;
+        final int[] fields;
+        final int consumers;
+        final TupleDesc td;
+
+        /** The current run, or null if no port is open. */
+        private Run run;
+        /** The ports of the current run. */
+        private Port[] ports;
+
+        Hub(OpIterator[] producers, int[] fields, int consumers) {
+            this.producers = producers.clone();
+            this.fields = fields.clone();
+            this.consumers = consumers;
+            this.td = producerDesc(producers);
+        }
+
+        /**
+         * Opens port, starting a run of the producers if it is the first.
+         *
+         * @return the reader of the port
+         */
+        synchronized Reader open(int port) throws DbException {
+            if (run == null) {
+                ports = new Port[consumers];
+                for (int i = 0; i < consumers; i++)
+                    ports[i] = new Port(producers.length);
+                run = newRun(ports);
+                run.start();
+            } else if (ports[port].opened) {
+                throw new DbException("repartition port " + port
+                        + " opened again before the other ports were closed");
+            }
+            ports[port].opened = true;
+            return new Reader(ports[port].queue, run);
+        }
+
+        private Run newRun(Port[] ports) {
+            return new Run(producers) {
+                @Override
+                Sink newSink() {
+                    return new Sink() {
+                        private final ArrayList<ArrayList<Tuple>> batches = newBatches();
+
+                        @Override
+                        public void add(Tuple t) throws InterruptedException {
+                            int p = HashEquiJoin.partition(GroupKey.of(t, fields).hashCode(),
+                                    HASH_LEVEL, consumers);
+                            ArrayList<Tuple> batch = batches.get(p);
+                            batch.add(t);
+                            if (batch.size() >= BATCH_TUPLES)
+                                flush(p);
+                        }
+
+                        @Override
+                        public void flush() throws InterruptedException {
+                            for (int p = 0; p < consumers; p++) {
+                                if (!batches.get(p).isEmpty())
+                                    flush(p);
+                            }
+                        }
+
+                        private void flush(int p) throws InterruptedException {
+                            Port port = ports[p];
+                            // the tuples of a closed port are dropped
+                            put(port.queue, batches.get(p), () -> port.closed);
+                            batches.set(p, new ArrayList<Tuple>(BATCH_TUPLES));
+                        }
+                    };
+                }
+
+                @Override
+                void finish() throws InterruptedException {
+                    for (Port port : ports)
+                        put(port.queue, END, () -> port.closed);
+                }
+            };
+        }
+
+        private ArrayList<ArrayList<Tuple>> newBatches() {
+            ArrayList<ArrayList<Tuple>> batches = new ArrayList<ArrayList<Tuple>>(consumers);
+            for (int i = 0; i < consumers; i++)
+                batches.add(new ArrayList<Tuple>(BATCH_TUPLES));
+            return batches;
+        }
+
+        /**
+         * Closes port, and ends the run if it was the last one open.
+         */
+        synchronized void close(int port) {
+            if (run == null || !ports[port].opened || ports[port].closed)
+                return;
+            ports[port].closed = true;
+            for (Port p : ports) {
+                if (!p.closed)
+                    return;
+            }
+            run.stop();
+            run = null;
+            ports = null;
+        }
+    }
+
+    /**
+     * The queue of one consumer in a run, and whether the consumer has
+     * opened and closed its port.
+     */
+    private static class Port {
+        final BlockingQueue<List<Tuple>> queue;
+        boolean opened;
+        volatile boolean closed;
+
+        Port(int producers) {
+            queue = new ArrayBlockingQueue<List<Tuple>>(QUEUE_BATCHES * producers);
+        }
+    }
+
+    private Repartition(Hub hub, int port) {
+        this.hub = hub;
+        this.port = port;
+    }
+
+    /**
+     * Creates the ports of a repartition.
+     *
+     * @param producers
+     *            the plans whose tuples to split, which return tuples with
+     *            the same TupleDesc
+     * @param fields
+     *            the fields whose hash picks the consumer of a tuple
+     * @param consumers
+     *            the number of consumers
+     * @return one port per consumer
+     */
+    public static Repartition[] create(OpIterator[] producers, int[] fields, int consumers) {
+        if (consumers < 1)
+            throw new IllegalArgumentException("a repartition needs a consumer");
+        Hub hub = new Hub(producers, fields, consumers);
+        Repartition[] ports = new Repartition[consumers];
+        for (int i = 0; i < consumers; i++)
+            ports[i] = new Repartition(hub, i);
+        return ports;
+    }
+
+    /**
+     * @return the fields whose hash picks the consumer of a tuple
+     */
+    public int[] getFields() {
+        return hub.fields.clone();
+    }
+
+    /**
+     * @return the number of this port, from 0
+     */
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public String getName() {
+        String names = "";
+        for (int f : hub.fields) {
+            if (!names.isEmpty())
+                names += ",";
+            names += hub.td.getFieldName(f);
+        }
+        return "repartition(" + names + ")," + hub.producers.length + "->" + hub.consumers;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return hub.td;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        reader = hub.open(port);
+        super.open();
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return reader.next();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        throw new DbException("a repartition port cannot be rewound");
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        hub.close(port);
+        reader = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return hub.producers.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        hub.producers = children.clone();
+    }
+}
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -15,8 +15,12 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private TupleDesc desc;
-    private HeapFile hpFile;
+    private DbFile file;
     private DbFileIterator iterator;
+    private int part = 0;
+    private int parts = 1;
+    /** The columns of the table this scan returns, or null for all of them. */
+    private int[] columns;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -48,6 +52,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableid);
     }
 
+    /**
+     * @return the id of the table this scan reads
+     */
+    int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the transaction this scan runs as a part of
+     */
+    TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -82,21 +100,152 @@ public class SeqScan implements OpIterator {
     			
     		}
     		this.desc=new TupleDesc(descType, descName);
-    		
+    		this.columns=null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Creates a scan of one of parts partitions of the specified table, so
+     * that scans of all the partitions can run in parallel. A HeapFile is
+     * split as {@link HeapFile#iterator(TransactionId, int, int)} does; any
+     * other file is read whole by the first partition and not at all by the
+     * others.
+     *
+     * @param part
+     *            the partition to scan, from 0 to parts - 1
+     * @param parts
+     *            the number of partitions
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int part, int parts) {
+        this(tid, tableid, tableAlias);
+        if (part < 0 || part >= parts)
+            throw new IllegalArgumentException("no partition " + part + " of " + parts);
+        this.part = part;
+        this.parts = parts;
+    }
+
+    /**
+     * Creates a scan that returns only some of the columns of the specified
+     * table. The pages of the other columns of a {@link ColumnFile} are not
+     * read at all; any other file is read whole and its tuples are cut down
+     * to the columns.
+     *
+     * @param columns
+     *            the columns of the table to return, in that order
+     * @throws IllegalArgumentException
+     *             if there are no columns or one does not exist
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias);
+        if (columns.length == 0)
+            throw new IllegalArgumentException("a column scan needs a column");
+        Type[] types=new Type[columns.length];
+        String[] names=new String[columns.length];
+        for (int i=0; i<columns.length; i++) {
+            if (columns[i]<0 || columns[i]>=desc.numFields())
+                throw new IllegalArgumentException("no column " + columns[i]);
+            types[i]=desc.getFieldType(columns[i]);
+            names[i]=desc.getFieldName(columns[i]);
+        }
+        this.desc=new TupleDesc(types, names);
+        this.columns=columns.clone();
+    }
+
+    /**
+     * @return the columns of the table this scan returns, or null if it
+     *         returns all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the partition of the table this scans
+     */
+    public int getPartition() {
+        return part;
+    }
+
+    /**
+     * @return the number of partitions the table is split into, 1 if this
+     *         scans the whole table
+     */
+    public int getPartitions() {
+        return parts;
+    }
+
     @Override
 	public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-     	hpFile=(HeapFile) Database.getCatalog().getDatabaseFile(tableid);
-     	iterator=hpFile.iterator(tid);
+     	file=Database.getCatalog().getDatabaseFile(tableid);
+     	if (columns != null && file instanceof ColumnFile)
+     		iterator=((ColumnFile) file).iterator(tid, columns);
+     	else if (columns != null)
+     		iterator=project(file.iterator(tid));
+     	else if (parts == 1)
+     		iterator=file.iterator(tid);
+     	else if (file instanceof HeapFile)
+     		iterator=((HeapFile) file).iterator(tid, part, parts);
+     	else if (part == 0)
+     		iterator=file.iterator(tid);
+     	else
+     		iterator=new AbstractDbFileIterator() {
+     			@Override
+     			public void open() {
+     			}
+
+     			@Override
+     			public void rewind() {
+     			}
+
+     			@Override
+     			protected Tuple readNext() {
+     				return null;
+     			}
+     		};
      	iterator.open();
     }
 
+    /**
+     * @return an iterator over the tuples of it cut down to the columns of
+     *         this scan
+     */
+    private DbFileIterator project(final DbFileIterator it) {
+        return new AbstractDbFileIterator() {
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                it.rewind();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                it.close();
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (!it.hasNext())
+                    return null;
+                Tuple t=it.next();
+                Tuple out=new Tuple(desc);
+                for (int i=0; i<columns.length; i++)
+                    out.setField(i, t.getField(columns[i]));
+                out.setRecordId(t.getRecordId());
+                return out;
+            }
+        };
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -131,6 +280,25 @@ public class SeqScan implements OpIterator {
     		
     }
 
+    /**
+     * Returns the next tuples as a batch. The tuples of a HeapFile and the
+     * columns of a ColumnFile are copied into the batch straight from their
+     * pages.
+     */
+    @Override
+    public Batch nextBatch() throws TransactionAbortedException, DbException {
+        if (iterator == null)
+            throw new IllegalStateException("SeqScan not yet open");
+        Batch batch = new Batch(desc);
+        if (iterator instanceof HeapFile.HeapDbIterator)
+            return ((HeapFile.HeapDbIterator) iterator).readBatch(batch) ? batch : null;
+        if (iterator instanceof ColumnFile.ColumnDbIterator)
+            return ((ColumnFile.ColumnDbIterator) iterator).readBatch(batch) ? batch : null;
+        while (!batch.isFull() && iterator.hasNext())
+            batch.add(iterator.next());
+        return batch.rows() == 0 ? null : batch;
+    }
+
     @Override
 	public void close() {
         // some code goes here
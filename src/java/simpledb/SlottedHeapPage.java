@@ -0,0 +1,275 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SlottedHeapPage is the page format of a slotted {@link HeapFile}, which
+ * stores each tuple as a variable-length record so that a string takes up
+ * its actual length rather than {@link Type#STRING_LEN} bytes. A table of
+ * short strings then fits several times as many tuples on a page as
+ * {@link HeapPage} does, and a scan reads that many times fewer pages.
+ * <p>
+ * A page starts with a header of two 2-byte numbers: the number of entries
+ * in the slot directory that follows it, and the offset of the records,
+ * which are packed at the end of the page. Each slot directory entry is
+ * the 2-byte offset and the 2-byte length of the record of its slot, or
+ * zeros for an empty slot. The free space is between the slot directory
+ * and the records. A record holds the fields of its tuple one after the
+ * other: an int in 4 bytes, and a string as its length in 4 bytes followed
+ * by a byte per character. Offsets fit in 2 bytes as long as pages are
+ * smaller than 64KB.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, for as long as it is on the
+ * page. Records are not moved in memory: deleting a tuple only frees its
+ * slot and the bytes of its record are counted as free, and
+ * {@link #getPageData} packs the records of the tuples on the page
+ * together again, so that the free space on disk is in one piece.
+ * <p>
+ * A page counts empty slots for as many tuples of the largest size,
+ * {@link TupleDesc#getMaxSize()}, as still fit, so that an insert into a
+ * page with an empty slot never fails. A page may therefore be considered
+ * full with room left for short tuples, but never more than one largest
+ * tuple's worth.
+ *
+ * @see HeapFile
+ * @see TupleDesc#getSize(Tuple)
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    /** Size of the header: the number of slot entries and the offset of the records. */
+    static final int HEADER_SIZE = 4;
+    /** Size of a slot directory entry: the offset and length of its record. */
+    static final int SLOT_SIZE = 4;
+
+    /** The offset in data of the record of each slot that was in use when the page was read. */
+    private final int[] offsets;
+    /** The length of the record of each slot in use. */
+    private final int[] lengths;
+    /** The total length of the records of the slots in use. */
+    private int recordBytes;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * in the format described above. A page of zeros is an empty page.
+     *
+     * @throws IOException if data is not a page of this format
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * keeping data itself rather than a copy if owned is true.
+     *
+     * @throws IOException if data is not a page of this format
+     * @see HeapPage#HeapPage(HeapPageId, byte[], boolean)
+     */
+    SlottedHeapPage(HeapPageId id, byte[] data, boolean owned) throws IOException {
+        super(id, data, maxSlots(Database.getCatalog().getTupleDesc(id.getTableId())), owned);
+        offsets = new int[numSlots];
+        lengths = new int[numSlots];
+        int entries = readShort(this.data, 0);
+        if (entries > numSlots)
+            throw new IOException("bad slot count " + entries + " on " + id);
+        for (int i = 0; i < entries; i++) {
+            int offset = readShort(this.data, HEADER_SIZE + i * SLOT_SIZE);
+            int length = readShort(this.data, HEADER_SIZE + i * SLOT_SIZE + 2);
+            if (offset == 0)
+                continue;
+            if (offset + length > this.data.length)
+                throw new IOException("bad record of slot " + i + " on " + id);
+            offsets[i] = offset;
+            lengths[i] = length;
+            recordBytes += length;
+            header[i / 8] |= 1 << (i % 8);
+        }
+    }
+
+    /**
+     * @return the most tuples a page can hold, that is how many of the
+     *         smallest tuples of td fit, with their slot directory entries
+     */
+    static int maxSlots(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (SLOT_SIZE + Math.max(1, td.getMinSize()));
+    }
+
+    /**
+     * @return true if a page whose header is the first {@link #HEADER_SIZE}
+     *         bytes of h, as on disk, has room for a tuple of td of the
+     *         largest size
+     */
+    static boolean hasRoom(TupleDesc td, byte[] h) {
+        int entries = readShort(h, 0);
+        int end = entries == 0 ? BufferPool.getPageSize() : readShort(h, 2);
+        return end - HEADER_SIZE - entries * SLOT_SIZE >= td.getMaxSize() + SLOT_SIZE;
+    }
+
+    @Override
+    HeapPage copyOf(byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    /**
+     * @return the number of slot directory entries this page needs, up to
+     *         the last slot in use
+     */
+    private int entries() {
+        for (int i = numSlots - 1; i >= 0; i--) {
+            if (isSlotUsed(i))
+                return i + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of bytes that are neither header, slot directory
+     *         nor record, once the records are packed together
+     */
+    private int freeBytes() {
+        return BufferPool.getPageSize() - HEADER_SIZE - entries() * SLOT_SIZE - recordBytes;
+    }
+
+    /**
+     * Returns the number of tuples of the largest size that can still be
+     * inserted into this page.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        int room = Math.max(0, freeBytes()) / (td.getMaxSize() + SLOT_SIZE);
+        return Math.min(super.getNumEmptySlots(), room);
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot.
+     *
+     * @throws DbException if its record does not fit on the page
+     */
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        int length = td.getSize(t);
+        if (length + SLOT_SIZE > freeBytes())
+            throw new DbException("page is full");
+        super.insertTuple(t);
+        int slotId = t.getRecordId().getTupleNumber();
+        lengths[slotId] = length;
+        recordBytes += length;
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException, Exception {
+        super.deleteTuple(t);
+        int slotId = t.getRecordId().getTupleNumber();
+        recordBytes -= lengths[slotId];
+        lengths[slotId] = 0;
+    }
+
+    /**
+     * @return the tuple in used slot slotId, decoding it from its record if
+     *         it was not inserted into this page
+     */
+    @Override
+    Tuple tuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t != null)
+            return t;
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = offsets[slotId];
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            t.setField(i, type.parse(data, offset));
+            offset += type == Type.STRING_TYPE ? 4 + Type.readInt(data, offset) : type.getLen();
+        }
+        return t;
+    }
+
+    @Override
+    int readInto(Batch batch, int slotId) {
+        int n = td.numFields();
+        for (; slotId < numSlots && !batch.isFull(); slotId++) {
+            if (!isSlotUsed(slotId))
+                continue;
+            int row = batch.addRow();
+            if (tuples[slotId] != null) {
+                batch.set(row, 0, tuples[slotId]);
+                continue;
+            }
+            int offset = offsets[slotId];
+            for (int i = 0; i < n; i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    batch.getInts(i)[row] = Type.readInt(data, offset);
+                    offset += 4;
+                } else {
+                    int length = Type.readInt(data, offset);
+                    batch.getStrings(i)[row] = new String(data, offset + 4, length);
+                    offset += 4 + length;
+                }
+            }
+        }
+        return slotId;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the records of the tuples on it packed together at its end.
+     *
+     * @see #SlottedHeapPage
+     */
+    @Override
+    public byte[] getPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        int entries = entries();
+        int end = page.length;
+        for (int i = 0; i < entries; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            end -= lengths[i];
+            if (tuples[i] != null)
+                writeRecord(tuples[i], page, end);
+            else
+                System.arraycopy(data, offsets[i], page, end, lengths[i]);
+            writeShort(page, HEADER_SIZE + i * SLOT_SIZE, end);
+            writeShort(page, HEADER_SIZE + i * SLOT_SIZE + 2, lengths[i]);
+        }
+        writeShort(page, 0, entries);
+        writeShort(page, 2, entries == 0 ? 0 : end);
+        return page;
+    }
+
+    /**
+     * Writes t as a record into page at offset.
+     */
+    private void writeRecord(Tuple t, byte[] page, int offset) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                writeInt(page, offset, ((IntField) t.getField(i)).getValue());
+                offset += 4;
+            } else {
+                String s = ((StringField) t.getField(i)).getValue();
+                int length = Math.min(s.length(), Type.STRING_LEN);
+                writeInt(page, offset, length);
+                // one byte per char, as StringField.serialize writes them
+                for (int j = 0; j < length; j++)
+                    page[offset + 4 + j] = (byte) s.charAt(j);
+                offset += 4 + length;
+            }
+        }
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+    }
+
+    private static void writeShort(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 8);
+        b[offset + 1] = (byte) v;
+    }
+
+    private static void writeInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+}
@@ -0,0 +1,234 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that are both sorted in ascending order
+ * on their join fields, such as scans of B+ tree files on their key fields
+ * or the output of an ascending OrderBy, without building a hash table.
+ * <p>
+ * For an equality predicate both children are read once, in step. Only the
+ * run of child2 tuples that share the current key is kept in memory, so
+ * that it can be joined with every child1 tuple with that key.
+ * <p>
+ * For a range predicate (&lt;, &lt;=, &gt;, &gt;=) child2 is read into
+ * memory when the join is opened. The child2 tuples that match a child1
+ * tuple are then a prefix or a suffix of child2, whose boundary only moves
+ * forward as child1's keys grow, so the join never evaluates the predicate
+ * on a pair that does not match. That copy of child2 has no memory budget,
+ * so the JoinOptimizer only picks a SortMergeJoin for equality joins.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+
+    transient private Tuple t1;
+    /** Equality: the child2 tuples with the key of the last group read. */
+    transient private ArrayList<Tuple> group;
+    transient private Field groupKey;
+    /** Equality: the first child2 tuple after group, or null. */
+    transient private Tuple lookahead;
+    /** Range: all of child2, and the boundary of the current t1's matches. */
+    transient private ArrayList<Tuple> inner;
+    transient private int bound;
+    /** The next tuple of group or inner to join with t1, and where to stop. */
+    transient private int pos;
+    transient private int end;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on. Both children must return their tuples in ascending order of
+     * the field the predicate compares.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException
+     *             if p compares with LIKE or NOT_EQUALS
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("SortMergeJoin does not support " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a SortMergeJoin can join on op
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name()
+    {
+	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name()
+    {
+	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        start();
+        super.open();
+    }
+
+    /**
+     * Resets the join state; for a range predicate, reads child2.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        t1 = null;
+        pos = end = 0;
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            group = new ArrayList<Tuple>();
+            groupKey = null;
+            lookahead = child2.hasNext() ? child2.next() : null;
+        } else {
+            inner = new ArrayList<Tuple>();
+            while (child2.hasNext())
+                inner.add(child2.next());
+            bound = 0;
+        }
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        t1 = null;
+        group = null;
+        groupKey = null;
+        lookahead = null;
+        inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples come out grouped by child1 tuple, in child1's
+     * order, and are the concatenation of the joining tuples from the left
+     * and right relation.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        ArrayList<Tuple> matches = pred.getOperator() == Predicate.Op.EQUALS ? group : inner;
+        while (pos >= end) {
+            if (!child1.hasNext())
+                return null;
+            t1 = child1.next();
+            Field key = t1.getField(pred.getField1());
+            if (pred.getOperator() == Predicate.Op.EQUALS) {
+                if (!inGroup(key) && !readGroup(key))
+                    return null;
+                pos = 0;
+                end = inGroup(key) ? group.size() : 0;
+            } else {
+                seek(key);
+            }
+        }
+        Tuple t2 = matches.get(pos++);
+
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * @return true if group holds the child2 tuples with key
+     */
+    private boolean inGroup(Field key) {
+        return groupKey != null && key.equals(groupKey);
+    }
+
+    /**
+     * Skips the child2 tuples with keys below key, and reads the ones with
+     * key into group.
+     *
+     * @return false if child2 has no tuples left with key or above, so no
+     *         later child1 tuple can match
+     */
+    private boolean readGroup(Field key) throws TransactionAbortedException, DbException {
+        int f2 = pred.getField2();
+        while (lookahead != null && lookahead.getField(f2).compare(Predicate.Op.LESS_THAN, key))
+            lookahead = child2.hasNext() ? child2.next() : null;
+        if (lookahead == null)
+            return false;
+        if (!lookahead.getField(f2).equals(key))
+            return true;
+        group.clear();
+        groupKey = key;
+        while (lookahead != null && lookahead.getField(f2).equals(key)) {
+            group.add(lookahead);
+            lookahead = child2.hasNext() ? child2.next() : null;
+        }
+        return true;
+    }
+
+    /**
+     * Moves bound past the child2 tuples that do not match key, if they come
+     * before the matches, or that do, if they come after them, and sets pos
+     * and end to the matches of key.
+     */
+    private void seek(Field key) {
+        Predicate.Op op = pred.getOperator();
+        // child1 > child2 and child1 <= child2 split child2 at the first key
+        // that is not below t1's; the other two at the first that is above it
+        Predicate.Op skip = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.LESS_THAN_OR_EQ
+                ? Predicate.Op.LESS_THAN : Predicate.Op.LESS_THAN_OR_EQ;
+        int f2 = pred.getField2();
+        while (bound < inner.size() && inner.get(bound).getField(f2).compare(skip, key))
+            bound++;
+        if (op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ) {
+            pos = 0;
+            end = bound;
+        } else {
+            pos = bound;
+            end = inner.size();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,202 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StreamAggregate computes the same aggregate as {@link Aggregate} over a
+ * child whose tuples of each group are adjacent, such as a child sorted on
+ * the group by fields. Instead of hashing every group, it aggregates one
+ * group at a time and returns it as soon as a tuple of another group is
+ * read, so it needs memory for a single group and returns its first tuple
+ * after reading only the first group.
+ */
+public class StreamAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int afield;
+    private final int[] gbfields;
+    private final Aggregator.Op aop;
+
+    /** The first tuple of the next group, or null if not read yet. */
+    transient private Tuple pending;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples, whose tuples with
+     *            equal group by fields are adjacent.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfields
+     *            The columns over which we are grouping the result
+     * @param aop
+     *            The aggregation operator to use
+     * @throws IllegalArgumentException
+     *             if there is no grouping, or aop cannot be computed over
+     *             afield's type
+     */
+    public StreamAggregate(OpIterator child, int afield, int[] gfields, Aggregator.Op aop) {
+        if (gfields.length == 0)
+            throw new IllegalArgumentException("a streaming aggregate needs a group by field");
+        this.child = child;
+        this.afield = afield;
+        this.gbfields = gfields.clone();
+        this.aop = aop;
+        // fail now rather than when opened
+        Aggregate.newAggregator(child.getTupleDesc(), afield, gbfields, aop);
+    }
+
+    /**
+     * @return true if the tuples of it with equal values of fields are known
+     *         to be adjacent: it is sorted on the only field, or it is an
+     *         OrderBy whose first keys are fields in any order and direction,
+     *         or a Filter over one of those
+     */
+    static boolean groupedOn(OpIterator it, int[] fields) {
+        if (fields.length == 0)
+            return false;
+        if (it instanceof Filter)
+            return groupedOn(((Filter) it).getChildren()[0], fields);
+        if (it instanceof OrderBy) {
+            int[] keys = ((OrderBy) it).getOrderByFields();
+            if (keys.length < fields.length)
+                return false;
+            Set<Integer> leading = new HashSet<Integer>();
+            for (int i = 0; i < fields.length; i++)
+                leading.add(keys[i]);
+            for (int f : fields) {
+                if (!leading.contains(f))
+                    return false;
+            }
+            return true;
+        }
+        return fields.length == 1 && JoinOptimizer.sortedOn(it, fields[0]);
+    }
+
+    /**
+     * @return the index of the first groupby field in the <b>INPUT</b>
+     *         tuples
+     */
+    public int groupField() {
+        return gbfields[0];
+    }
+
+    /**
+     * @return the indexes of the groupby fields in the <b>INPUT</b> tuples
+     */
+    public int[] groupFields() {
+        return gbfields.clone();
+    }
+
+    /**
+     * @return the name of the first groupby field in the <b>OUTPUT</b> tuples
+     */
+    public String groupFieldName() {
+        return child.getTupleDesc().getFieldName(gbfields[0]);
+    }
+
+    /**
+     * @return the names of the groupby fields in the <b>OUTPUT</b> tuples
+     */
+    public String[] groupFieldNames() {
+        String[] names = new String[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            names[i] = child.getTupleDesc().getFieldName(gbfields[i]);
+        return names;
+    }
+
+    /**
+     * @return the aggregate field
+     */
+    public int aggregateField() {
+        return afield;
+    }
+
+    /**
+     * @return the name of the aggregate field in the <b>OUTPUT</b> tuples
+     */
+    public String aggregateFieldName() {
+        return child.getTupleDesc().getFieldName(afield);
+    }
+
+    /**
+     * @return the aggregate operator
+     */
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    @Override
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        child.open();
+        pending = null;
+        super.open();
+    }
+
+    /**
+     * Returns the group by fields followed by the aggregate of the next
+     * group, or null if there are no more groups.
+     */
+    @Override
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pending == null) {
+            if (!child.hasNext())
+                return null;
+            pending = child.next();
+        }
+        // the aggregator only ever holds the current group
+        Aggregator agg = Aggregate.newAggregator(child.getTupleDesc(), afield, gbfields, aop);
+        agg.mergeTupleIntoGroup(pending);
+        pending = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!agg.hasGroup(t)) {
+                pending = t;
+                break;
+            }
+            agg.mergeTupleIntoGroup(t);
+        }
+        OpIterator it = agg.iterator();
+        it.open();
+        Tuple result = it.next();
+        it.close();
+        return result;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        pending = null;
+    }
+
+    /**
+     * Returns the TupleDesc of this StreamAggregate: the group by fields
+     * followed by the aggregate value column, named as in {@link Aggregate}.
+     */
+    @Override
+    public TupleDesc getTupleDesc() {
+        return Aggregate.outputDesc(child.getTupleDesc(), afield, gbfields, aop);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child.close();
+        pending = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -7,13 +7,12 @@ import java.util.*;
 public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-    
-    private int gbfield;
-    private Type gbfieldtype;
+
+    private int[] gbfields;
+    private Type[] gbfieldtypes;
     private int afield;
     private Op what;
-    private HashMap<Field,Integer> map;
-    private int overall;
+    private HashMap<GroupKey,Integer> map;
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -24,13 +23,27 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
-    		this.gbfield=gbfield;
-		this.gbfieldtype=gbfieldtype;
+        this(gbfield == NO_GROUPING ? new int[0] : new int[] { gbfield },
+                gbfield == NO_GROUPING ? new Type[0] : new Type[] { gbfieldtype },
+                afield, what);
+    }
+
+    /**
+     * Aggregate constructor for a grouping by several fields
+     * @param gbfields the 0-based indexes of the group-by fields in the tuple, empty if there is no grouping
+     * @param gbfieldtypes the types of the group by fields
+     * @param afield the 0-based index of the aggregate field in the tuple
+     * @param what aggregation operator to use -- only supports COUNT
+     * @throws IllegalArgumentException if what != COUNT
+     */
+    public StringAggregator(int[] gbfields, Type[] gbfieldtypes, int afield, Op what) {
+    		if (what != Op.COUNT)
+    			throw new IllegalArgumentException("strings only support COUNT, not " + what);
+    		this.gbfields=gbfields;
+		this.gbfieldtypes=gbfieldtypes;
 		this.afield=afield;
 		this.what=what;
-		map=new HashMap<Field,Integer>();
-		overall=0;
+		map=new HashMap<GroupKey,Integer>();
     }
 
     /**
@@ -39,63 +52,61 @@ public class StringAggregator implements Aggregator {
      */
     @Override
 	public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
-    		Field key = tup.getField(this.gbfield);
-    		int count=0;
-    		if(map.containsKey(key))
-    		{
-    			count=map.get(key);
-    		}
-    		count++;
-    		map.put(key, count);
-    		overall++;
+    		GroupKey key = GroupKey.of(tup, gbfields);
+    		Integer count = map.get(key);
+    		map.put(key, count == null ? 1 : count + 1);
+    }
+
+    @Override
+    public void mergeBatchIntoGroups(Batch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            GroupKey key = GroupKey.of(batch, batch.row(i), gbfields);
+            Integer count = map.get(key);
+            map.put(key, count == null ? 1 : count + 1);
+        }
+    }
+
+    @Override
+    public boolean hasGroup(Tuple tup) {
+    		return map.containsKey(GroupKey.of(tup, gbfields));
+    }
+
+    @Override
+    public int numGroups() {
+    		return map.size();
     }
 
     /**
      * Create a OpIterator over group aggregate results.
      *
-     * @return a OpIterator whose tuples are the pair (groupVal,
-     *   aggregateVal) if using group, or a single (aggregateVal) if no
+     * @return a OpIterator whose tuples are the group by fields followed by
+     *   the aggregateVal if using group, or a single (aggregateVal) if no
      *   grouping. The aggregateVal is determined by the type of
      *   aggregate specified in the constructor.
      */
     @Override
 	public OpIterator iterator() {
-        // some code goes here
-    		TupleDesc td;
-        Type[] tp;
+        Type[] tp=new Type[gbfields.length+1];
+        for (int i=0; i<gbfields.length; i++)
+        		tp[i]=gbfieldtypes[i];
+        tp[gbfields.length]=Type.INT_TYPE;
+        TupleDesc td=new TupleDesc(tp);
         ArrayList<Tuple> tuples = new ArrayList<>();
-        
-        if(gbfield==Aggregator.NO_GROUPING)
+
+        if(gbfields.length==0 && map.isEmpty())
         {
-        		tp=new Type[1];
-        		tp[0]=Type.INT_TYPE;
-        		td=new TupleDesc(tp);
+        		// a count over no tuples is 0
         		Tuple tuple=new Tuple(td);
-        		tuple.setField(0, new IntField(overall));
-			tuples.add(tuple);
-			return new TupleIterator(td,tuples);
+        		tuple.setField(0, new IntField(0));
+        		tuples.add(tuple);
         }
-        	tp=new Type[2];
-        	tp[0]=gbfieldtype;
-        	tp[1]=Type.INT_TYPE;
-        	td=new TupleDesc(tp);
-        for(Field key: map.keySet())
+        for(Map.Entry<GroupKey,Integer> e: map.entrySet())
         {
-        		int val=0;
         		Tuple tuple=new Tuple(td);
-        		if(what==Op.COUNT)
-        		{
-        			val=map.get(key);
-        		}
-        		else
-        		{
-        			throw new IllegalArgumentException();
-        		}
-        		tuple.setField(0, key);
-    			tuple.setField(1, new IntField(val));
+        		e.getKey().fill(tuple);
+    			tuple.setField(gbfields.length, new IntField(e.getValue()));
         		tuples.add(tuple);
         }
         return new TupleIterator(td,tuples);
     }
-}
\ No newline at end of file
+}
@@ -70,6 +70,8 @@ public class TableStats {
     private int ioCost;
     private DbFile file;
     private int tupleCount;
+    /** The total size of the tuples as variable-length records. */
+    private long tupleBytes;
     private TupleDesc td;
     private int numfield;
     private DbFileIterator it;
@@ -114,6 +116,7 @@ public class TableStats {
 				while (it.hasNext()) {
 					Tuple t = it.next();
 					this.tupleCount++;
+					this.tupleBytes += td.getSize(t);
 					for (int i=0; i< td.numFields(); i++) {
 						Field f = t.getField(i);
 						if (f.getType() == Type.INT_TYPE) {
@@ -163,6 +166,9 @@ public class TableStats {
     public HashMap<Integer, IntHistogram> createInt(int numfield, DbFileIterator it) {
     		HashMap<Integer, IntHistogram> result = new HashMap<>();
     		for (int j = 0; j< numfield; j++) {
+    			// string fields have no min and max, and a StringHistogram instead
+    			if (td.getFieldType(j) != Type.INT_TYPE)
+    				continue;
     			IntHistogram ihis = new IntHistogram(NUM_HIST_BINS, min.get(j), max.get(j));
     			result.put(j, ihis);
     		}
@@ -193,8 +199,10 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-    		HeapFile hp = (HeapFile) file;
-    		return hp.numPages() * this.ioCost;
+    		int pages = file instanceof BTreeFile ? ((BTreeFile) file).numPages()
+    				: file instanceof ColumnFile ? ((ColumnFile) file).numPages()
+    				: ((HeapFile) file).numPages();
+    		return pages * this.ioCost;
         
     }
 
@@ -260,4 +268,15 @@ public class TableStats {
         return this.tupleCount;
     }
 
+    /**
+     * @return the average size in bytes of the tuples of this table as
+     *         variable-length records, see {@link TupleDesc#getSize(Tuple)},
+     *         or 0 if the table is empty. It lies between
+     *         {@link TupleDesc#getMinSize()} and {@link TupleDesc#getMaxSize()},
+     *         which are all a TupleDesc can tell without the data.
+     */
+    public double avgTupleSize() {
+        return tupleCount == 0 ? 0 : (double) tupleBytes / tupleCount;
+    }
+
 }
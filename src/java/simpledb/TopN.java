@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements an ORDER BY followed by a LIMIT: it
+ * returns the first tuples of its child in sort order, up to a given
+ * number. Instead of sorting the whole child, as {@link OrderBy} does, it
+ * reads the child once and keeps the best tuples seen so far in a bounded
+ * heap whose root is the worst of them, so it holds at most limit tuples
+ * and takes O(n log limit) time. Tuples that compare equal keep their
+ * child order, as with OrderBy.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    /**
+     * Initial capacity of the heap; it grows from there, so that a LIMIT
+     * far larger than the child costs no more than the child's size.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    private OpIterator child;
+    private TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] ascending;
+    private final int limit;
+    private final TupleComparator comparator;
+
+    /** The result, in sort order. */
+    transient private Tuple[] top;
+    transient private int pos;
+
+    /** A tuple in the heap, with its position in the child. */
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param limit
+     *            the most tuples to return
+     * @param child
+     *            the tuples to sort.
+     * @throws IllegalArgumentException
+     *             if there are no sort fields, not one order per field, or
+     *             limit is negative
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order for each of at least one field");
+        if (limit < 0)
+            throw new IllegalArgumentException("negative LIMIT " + limit);
+        this.child = child;
+        td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.ascending = asc.clone();
+        this.limit = limit;
+        this.comparator = new TupleComparator(this.orderByFields, this.ascending);
+    }
+
+    /**
+     * @return the sort fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return for each sort field, true if its sort order is ascending
+     */
+    public boolean[] getAscending() {
+        return ascending.clone();
+    }
+
+    /**
+     * @return the most tuples this operator returns
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        // the worst tuple kept, last in sort order and latest among equals,
+        // is at the root
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(
+                Math.max(1, Math.min(limit, INITIAL_CAPACITY)),
+                new Comparator<Entry>() {
+                    public int compare(Entry e1, Entry e2) {
+                        int c = comparator.compare(e2.tuple, e1.tuple);
+                        return c != 0 ? c : Long.compare(e2.seq, e1.seq);
+                    }
+                });
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(new Entry(t, seq));
+            } else if (limit > 0 && comparator.compare(t, heap.peek().tuple) < 0) {
+                // t comes after the root on a tie, so only a better tuple
+                // replaces it
+                heap.poll();
+                heap.add(new Entry(t, seq));
+            }
+            seq++;
+        }
+        top = new Tuple[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--)
+            top[i] = heap.poll().tuple;
+        pos = 0;
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the kept tuples in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    @Override
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return pos < top.length ? top[pos++] : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 import java.util.Iterator;
@@ -8,6 +10,10 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple read from a page can be backed by the page's bytes instead, in
+ * which case each field is decoded the first time it is asked for. Such a
+ * tuple keeps the page's byte array reachable for as long as it lives.
  */
 public class Tuple implements Serializable {
 
@@ -15,6 +21,9 @@ public class Tuple implements Serializable {
     private TupleDesc schema;
     private RecordId record;
     private Field[] field;
+    /** The encoded fields this tuple decodes from, if any. */
+    private transient byte[] data;
+    private transient int offset;
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -25,7 +34,21 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         
     		this.schema=td;
-    		this.field=new Field[td.getSize()];
+    		this.field=new Field[td.numFields()];
+    }
+
+    /**
+     * Create a tuple whose fields are decoded on demand from data, where they
+     * are encoded one after the other starting at offset.
+     *
+     * @param data
+     *            the encoded tuple; it must not change while this tuple lives
+     */
+    Tuple(TupleDesc td, RecordId rid, byte[] data, int offset) {
+    		this(td);
+    		this.record=rid;
+    		this.data=data;
+    		this.offset=offset;
     }
 
     /**
@@ -82,11 +105,28 @@ public class Tuple implements Serializable {
         
     		if(i>=0 && i<this.field.length)
     		{
-    			return this.field[i];
+    			Field f=this.field[i];
+    			if (f==null && data!=null) {
+    				f=schema.getFieldType(i).parse(data, offset+schema.getOffset(i));
+    				this.field[i]=f;
+    			}
+    			return f;
     		}
         return null;
     }
 
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     *         that has been set. A field that has not been decoded yet is
+     *         read straight from the encoded tuple, without creating an
+     *         IntField.
+     */
+    int getInt(int i) {
+    		if (this.field[i]==null && data!=null)
+    			return Type.readInt(data, offset+schema.getOffset(i));
+    		return ((IntField) getField(i)).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -101,9 +141,9 @@ public class Tuple implements Serializable {
     		String result="";
     		for (int i=0; i<field.length; i++) {
     			if (i==0) {
-    				result +=field[i]+"";
+    				result +=getField(i)+"";
     			} else {
-    				result +="\t"+field[i];
+    				result +="\t"+getField(i);
     			}
     		}
     		return result;
@@ -116,9 +156,25 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         
+        decodeAll();
         return Arrays.asList(field).iterator();
     }
 
+    /**
+     * Decodes every field that has not been decoded yet.
+     */
+    private void decodeAll() {
+    		if (data!=null) {
+    			for (int i=0; i<field.length; i++)
+    				getField(i);
+    		}
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+    		decodeAll();
+    		out.defaultWriteObject();
+    }
+
     /**
      * reset the TupleDesc of this tuple (only affecting the TupleDesc)
      * */
@@ -126,6 +182,7 @@ public class Tuple implements Serializable {
     {
         
     		this.schema=td;
-    		this.field=new Field[td.getSize()];
+    		this.field=new Field[td.numFields()];
+    		this.data=null;
     }
 }
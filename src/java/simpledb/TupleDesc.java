@@ -49,6 +49,9 @@ public class TupleDesc implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /** Computed on first use; the fields do not change after construction. */
+    private transient int[] offsets;
+
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -153,15 +156,76 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size
+     *         in a {@link HeapPage}, where every string is padded to
+     *         {@link Type#STRING_LEN}. As a variable-length record in a
+     *         {@link SlottedHeapPage} a tuple is between
+     *         {@link #getMinSize()} and {@link #getMaxSize()} bytes, see
+     *         {@link #getSize(Tuple)}.
      */
     public int getSize() {
         
-    		int sum = 0;
-        for (int i=0; i<this.numFields(); i++) {
-        		sum += this.getFieldType(i).getLen();
+        return offsets()[numFields()];
+    }
+
+    /**
+     * @return the largest size in bytes of a tuple of this TupleDesc as a
+     *         variable-length record, when all its strings are
+     *         {@link Type#STRING_LEN} long; the same as the fixed size
+     *         {@link #getSize()}
+     */
+    public int getMaxSize() {
+        return getSize();
+    }
+
+    /**
+     * @return the smallest size in bytes of a tuple of this TupleDesc as a
+     *         variable-length record, when all its strings are empty
+     */
+    public int getMinSize() {
+        int size=0;
+        for (int i=0; i<numFields(); i++)
+            size+=getFieldType(i)==Type.STRING_TYPE ? 4 : getFieldType(i).getLen();
+        return size;
+    }
+
+    /**
+     * @return the size in bytes of t, which has this TupleDesc, as a
+     *         variable-length record: a string takes its length, 4 bytes,
+     *         and then a byte per character
+     */
+    public int getSize(Tuple t) {
+        int size=0;
+        for (int i=0; i<numFields(); i++) {
+            if (getFieldType(i)==Type.STRING_TYPE)
+                size+=4+Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            else
+                size+=getFieldType(i).getLen();
         }
-        return sum;
+        return size;
+    }
+
+    /**
+     * @return the offset in bytes of the ith field from the start of a tuple
+     *         corresponding to this TupleDesc
+     */
+    public int getOffset(int i) {
+    		return offsets()[i];
+    }
+
+    /**
+     * @return the offsets of the fields, followed by the size of a tuple
+     */
+    private int[] offsets() {
+    		int[] o=offsets;
+    		if (o==null) {
+    			o=new int[numFields()+1];
+    			for (int i=0; i<this.numFields(); i++) {
+    				o[i+1]=o[i]+this.getFieldType(i).getLen();
+    			}
+    			offsets=o;
+    		}
+    		return o;
     }
 
     /**
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * TupleSpillFile is a temporary file that an operator writes tuples to when
+ * they do not fit in its memory budget, and reads back later, in the order
+ * they were written. Tuples are stored in the fixed-size format of a
+ * HeapPage slot, and are read back in blocks that the tuples decode their
+ * fields from lazily, like tuples read from a HeapPage.
+ * <p>
+ * A spill file is written once, and then read any number of times through
+ * {@link #iterator}. Nothing can be added once reading has started. The
+ * operator that created the file deletes it with {@link #delete} when it is
+ * done with it.
+ */
+public class TupleSpillFile {
+
+    /** Size of the buffer tuples are written through and the blocks they are read in. */
+    private static final int BLOCK_BYTES = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Creates an empty spill file for tuples described by td.
+     */
+    public TupleSpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BLOCK_BYTES));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples in this file
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends t to this file.
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("spill file is already being read");
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(out);
+        size++;
+    }
+
+    /**
+     * @return an unopened iterator over the tuples in this file, in the order
+     *         they were added
+     */
+    public OpIterator iterator() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /**
+     * Deletes this file.
+     */
+    public void delete() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // we are throwing the contents away anyway
+        }
+        out = null;
+        file.delete();
+    }
+
+    private class Reader implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient InputStream in;
+        private transient byte[] block;
+        private int blockPos;
+        private int read;
+
+        @Override
+        public void open() throws DbException {
+            try {
+                in = new FileInputStream(file);
+            } catch (IOException e) {
+                throw new DbException("could not open spill file " + file + ": " + e);
+            }
+            block = null;
+            blockPos = 0;
+            read = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return in != null && read < size;
+        }
+
+        @Override
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int tupleSize = td.getSize();
+            if (block == null || blockPos == block.length)
+                readBlock(tupleSize);
+            // a new block for every read, since the tuples keep referring to it
+            Tuple t = new Tuple(td, null, block, blockPos);
+            blockPos += tupleSize;
+            read++;
+            return t;
+        }
+
+        private void readBlock(int tupleSize) throws DbException {
+            int tuples = Math.min(size - read, Math.max(1, BLOCK_BYTES / tupleSize));
+            block = new byte[tuples * tupleSize];
+            blockPos = 0;
+            try {
+                new DataInputStream(in).readFully(block);
+            } catch (IOException e) {
+                throw new DbException("could not read spill file " + file + ": " + e);
+            }
+        }
+
+        @Override
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                // nothing left to read
+            }
+            in = null;
+            block = null;
+        }
+    }
+}
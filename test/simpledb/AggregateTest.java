@@ -5,6 +5,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.*;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -178,6 +180,114 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * @return rows three-column tuples, grouped by their first two columns
+   *         into about groups groups, with the row number in the third
+   */
+  private static OpIterator grouped(int rows, int groups) {
+    int side = (int) Math.sqrt(groups);
+    return TestUtil.rows(rows, side, side);
+  }
+
+  /**
+   * @return the sums of the third column of it per value of the first two,
+   *         as the sorted string forms of the tuples (a, b, sum)
+   */
+  private static ArrayList<String> sums(OpIterator it) throws Exception {
+    HashMap<String, Integer> sums = new HashMap<String, Integer>();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      String key = t.getField(0) + "\t" + t.getField(1);
+      Integer sum = sums.get(key);
+      sums.put(key, (sum == null ? 0 : sum) + ((IntField) t.getField(2)).getValue());
+    }
+    it.close();
+    ArrayList<String> out = new ArrayList<String>();
+    for (Map.Entry<String, Integer> e : sums.entrySet())
+      out.add(e.getKey() + "\t" + e.getValue());
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() grouped by two fields
+   */
+  @Test public void multiColumnGroupBy() throws Exception {
+    Aggregate op = new Aggregate(grouped(2000, 100), 2, new int[] { 0, 1 },
+        Aggregator.Op.SUM);
+    assertEquals(3, op.getTupleDesc().numFields());
+    op.open();
+    assertEquals(sums(grouped(2000, 100)), TestUtil.sorted(TestUtil.drainOpen(op)));
+    assertEquals(0, op.getSpillCount());
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() with more groups than fit in its
+   * memory budget: the groups that do not fit are partitioned to disk,
+   * and partitioned again if they still do not fit
+   */
+  @Test public void spill() throws Exception {
+    long groupBytes = Aggregate.GROUP_OVERHEAD + 2 * Type.INT_TYPE.getLen();
+    Aggregate op = new Aggregate(grouped(20000, 5000), 2, new int[] { 0, 1 },
+        Aggregator.Op.SUM, 100 * groupBytes);
+    op.open();
+    ArrayList<String> expected = sums(grouped(20000, 5000));
+    assertEquals(expected, TestUtil.sorted(TestUtil.drainOpen(op)));
+    assertTrue(op.getSpillCount() > Aggregate.FANOUT);
+    op.rewind();
+    assertEquals(expected, TestUtil.sorted(TestUtil.drainOpen(op)));
+    op.close();
+  }
+
+  /**
+   * Unit test for Aggregate.partial() and merge(): merging the partial
+   * aggregates of parts of the input gives the aggregate of the whole
+   * input, for each operator, grouped and not
+   */
+  @Test public void partialMerge() throws Exception {
+    TupleDesc td = Utility.getTupleDesc(3);
+    for (int[] gfields : new int[][] { {}, { 0, 1 } }) {
+      for (Aggregator.Op aop : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+          Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+        Aggregate whole = new Aggregate(grouped(3000, 100), 2, gfields, aop);
+        // three parts, one of them empty
+        ArrayList<ArrayList<Tuple>> parts = new ArrayList<ArrayList<Tuple>>();
+        for (int i = 0; i < 3; i++)
+          parts.add(new ArrayList<Tuple>());
+        OpIterator in = grouped(3000, 100);
+        in.open();
+        for (int i = 0; in.hasNext(); i++)
+          parts.get(i % 2).add(in.next());
+        in.close();
+        ArrayList<Tuple> partials = new ArrayList<Tuple>();
+        TupleDesc partialTd = null;
+        for (ArrayList<Tuple> part : parts) {
+          Aggregate partial = whole.partial(new TupleIterator(td, part),
+              Aggregate.DEFAULT_MEMORY_BYTES);
+          partialTd = partial.getTupleDesc();
+          partial.open();
+          while (partial.hasNext())
+            partials.add(partial.next());
+          partial.close();
+        }
+        assertEquals(aop == Aggregator.Op.AVG ? gfields.length + 2 : gfields.length + 1,
+            partialTd.numFields());
+        Aggregate merge = whole.merge(new TupleIterator(partialTd, partials),
+            Aggregate.DEFAULT_MEMORY_BYTES);
+        assertEquals(whole.getTupleDesc(), merge.getTupleDesc());
+        assertEquals(whole.getTupleDesc().getFieldName(gfields.length),
+            merge.getTupleDesc().getFieldName(gfields.length));
+        whole.open();
+        merge.open();
+        assertEquals(TestUtil.sorted(TestUtil.drainOpen(whole)),
+            TestUtil.sorted(TestUtil.drainOpen(merge)));
+        whole.close();
+        merge.close();
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
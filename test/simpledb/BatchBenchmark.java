@@ -0,0 +1,128 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+
+/**
+ * Measures scan-filter-aggregate queries over a table that is already in
+ * the BufferPool, SELECT SUM(t.c2) FROM t WHERE t.c1 &lt; a and SELECT
+ * t.c0, AVG(t.c2) FROM t WHERE t.c1 &lt; a GROUP BY t.c0, run tuple by
+ * tuple and a {@link Batch} at a time.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.BatchBenchmark [rows] [runs]
+ * </pre>
+ */
+public class BatchBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_RUNS = 10;
+    private static final int COLUMNS = 3;
+    private static final int MAX_VALUE = 1 << 10;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        Database.reset();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                MAX_VALUE, null, null);
+        HeapFile table = Utility.openHeapFile(COLUMNS, f);
+        // keep the whole table cached, so the queries only cost CPU
+        Database.resetBufferPool(table.numPages() + 16);
+        System.out.println(rows + " rows, " + table.numPages() + " pages");
+
+        for (boolean grouped : new boolean[] { false, true }) {
+            report(grouped ? "grouped" : "ungrouped", "tuples", table, rows, grouped, false, runs);
+            report(grouped ? "grouped" : "ungrouped", "batches", table, rows, grouped, true, runs);
+        }
+    }
+
+    private static void report(String query, String name, HeapFile table, int rows,
+            boolean grouped, boolean batches, int runs) throws Exception {
+        int groups = query(table, grouped, batches);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            query(table, grouped, batches);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-10s %-8s %8.1f ms %12.0f rows/s %6d groups%n", query, name,
+                best / 1e6, rows / (best / 1e9), groups);
+    }
+
+    /**
+     * @return the number of groups the query returns, read tuple by tuple
+     *         or a batch at a time
+     */
+    static int query(HeapFile table, boolean grouped, boolean batches) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Filter(new Predicate(1, Predicate.Op.LESS_THAN,
+                new IntField(MAX_VALUE / 2)), new SeqScan(tid, table.getId()));
+        if (!batches)
+            plan = new TupleByTuple(plan);
+        plan = grouped ? new Aggregate(plan, 2, new int[] { 0 }, Aggregator.Op.AVG)
+                : new Aggregate(plan, 2, new int[0], Aggregator.Op.SUM);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * Hides that its child is a BatchIterator, so that the aggregate above
+     * reads it tuple by tuple as it did before batches.
+     */
+    private static class TupleByTuple extends Operator {
+        private static final long serialVersionUID = 1L;
+        private OpIterator child;
+
+        TupleByTuple(OpIterator child) {
+            this.child = child;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        @Override
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            return child.hasNext() ? child.next() : null;
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+            child = children[0];
+        }
+    }
+}
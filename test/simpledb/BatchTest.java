@@ -0,0 +1,214 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 5000;
+
+  private TransactionId tid;
+  private HeapFile table;
+
+  /**
+   * Set up a table of several pages
+   */
+  @Before public void setUp() throws Exception {
+    table = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, null);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * @return the sorted string forms of the rows of the batches of it; it is
+   *         opened and closed
+   */
+  private static ArrayList<String> drainBatches(BatchIterator it) throws Exception {
+    it.open();
+    ArrayList<String> out = drainOpenBatches(it);
+    it.close();
+    return out;
+  }
+
+  /**
+   * @return the sorted string forms of the rows of the rest of the batches
+   *         of it
+   */
+  private static ArrayList<String> drainOpenBatches(BatchIterator it) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    Batch batch;
+    while ((batch = it.nextBatch()) != null) {
+      assertTrue(batch.size() > 0);
+      assertEquals(it.getTupleDesc(), batch.getTupleDesc());
+      for (int i = 0; i < batch.size(); i++)
+        out.add(batch.getTuple(batch.row(i)).toString());
+    }
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Hides that an operator is a BatchIterator, so that its consumer reads
+   * it tuple by tuple.
+   */
+  private static OpIterator tuples(OpIterator it) {
+    return new Operator() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public void open() throws DbException, TransactionAbortedException {
+        it.open();
+        super.open();
+      }
+
+      @Override
+      public void close() {
+        super.close();
+        it.close();
+      }
+
+      @Override
+      public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
+      }
+
+      @Override
+      protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return it.hasNext() ? it.next() : null;
+      }
+
+      @Override
+      public TupleDesc getTupleDesc() {
+        return it.getTupleDesc();
+      }
+
+      @Override
+      public OpIterator[] getChildren() {
+        return new OpIterator[] { it };
+      }
+
+      @Override
+      public void setChildren(OpIterator[] children) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Unit test for SeqScan.nextBatch(), Filter.nextBatch() and
+   * Project.nextBatch(): they return the tuples of next(), twice through
+   * rewind
+   */
+  @Test public void scanFilterProject() throws Exception {
+    SeqScan scan = new SeqScan(tid, table.getId());
+    assertEquals(TestUtil.sorted(TestUtil.drain(new SeqScan(tid, table.getId()))),
+        drainBatches(scan));
+
+    OpIterator plan = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+        new SeqScan(tid, table.getId()));
+    plan = new Project(new ArrayList<Integer>(Arrays.asList(2, 1)),
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, plan);
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(50)), plan);
+    ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(filter));
+    assertTrue(expected.size() > 0 && expected.size() < ROWS / 2);
+    filter.open();
+    assertEquals(expected, drainOpenBatches(filter));
+    filter.rewind();
+    assertEquals(expected, drainOpenBatches(filter));
+    assertNull(filter.nextBatch());
+    filter.close();
+  }
+
+  /**
+   * Unit test for Batch.read(): an operator that is not a BatchIterator is
+   * read a batch at a time, and a batch turns back into its tuples
+   */
+  @Test public void read() throws Exception {
+    OpIterator it = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4, 5, 6 });
+    it.open();
+    Batch batch = Batch.read(it);
+    assertEquals(3, batch.size());
+    assertNull(Batch.read(it));
+    it.close();
+    new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(3)).filter(batch);
+    assertEquals(2, batch.size());
+    assertEquals(2, batch.row(1));
+    assertEquals("5\t6", batch.getTuple(batch.row(1)).toString());
+    int row = batch.addRow();
+    batch.getInts(0)[row] = 7;
+    batch.getInts(1)[row] = 8;
+    assertEquals(3, batch.size());
+    assertEquals(new IntField(7), batch.getField(0, batch.row(2)));
+  }
+
+  /**
+   * Unit test for HashEquiJoin.nextBatch(): it returns the tuples of
+   * next(), in memory and when it spills
+   */
+  @Test public void hashJoin() throws Exception {
+    HeapFile other = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, null);
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    for (long memoryBytes : new long[] { HashEquiJoin.DEFAULT_MEMORY_BYTES, 16 << 10 }) {
+      HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, other.getId()),
+          new SeqScan(tid, table.getId()), memoryBytes);
+      ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(join));
+      assertTrue(expected.size() > 2 * Batch.DEFAULT_ROWS);
+      join = new HashEquiJoin(p, new SeqScan(tid, other.getId()),
+          new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-1)),
+              new SeqScan(tid, table.getId())), memoryBytes);
+      assertEquals(expected, drainBatches(join));
+      assertEquals(memoryBytes < HashEquiJoin.DEFAULT_MEMORY_BYTES, join.getSpillCount() > 0);
+    }
+  }
+
+  /**
+   * Unit test for Aggregate.open() over a BatchIterator: whole batches are
+   * merged into the groups, and the result is the same as tuple by tuple,
+   * for each operator, several groupings and when it spills
+   */
+  @Test public void aggregate() throws Exception {
+    int[][] groupings = { {}, { 1 }, { 1, 0 } };
+    for (int[] gfields : groupings) {
+      for (Aggregator.Op aop : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+          Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(40));
+        Aggregate batched = new Aggregate(new Filter(p, new SeqScan(tid, table.getId())),
+            2, gfields, aop);
+        Aggregate tupled = new Aggregate(tuples(new Filter(p, new SeqScan(tid, table.getId()))),
+            2, gfields, aop);
+        ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(tupled));
+        assertEquals(expected, TestUtil.sorted(TestUtil.drain(batched)));
+        assertEquals(expected, drainBatches(batched));
+      }
+    }
+    long groupBytes = Aggregate.GROUP_OVERHEAD + 2 * Type.INT_TYPE.getLen();
+    Aggregate spilled = new Aggregate(new SeqScan(tid, table.getId()), 2, new int[] { 0, 1 },
+        Aggregator.Op.SUM, 500 * groupBytes);
+    Aggregate tupled = new Aggregate(tuples(new SeqScan(tid, table.getId())), 2,
+        new int[] { 0, 1 }, Aggregator.Op.SUM);
+    assertEquals(TestUtil.sorted(TestUtil.drain(tupled)), TestUtil.sorted(TestUtil.drain(spilled)));
+    assertTrue(spilled.getSpillCount() > 0);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchTest.class);
+  }
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferAccessStrategyTest extends SimpleDbTestBase {
+
+    private static final int BUFFER_PAGES = 16;
+
+    /**
+     * Unit test for BufferAccessStrategy ring bookkeeping
+     */
+    @Test public void ringRecyclesOldestSlot() {
+        BufferAccessStrategy ring = new BufferAccessStrategy(2);
+        HeapPageId p0 = new HeapPageId(1, 0);
+        HeapPageId p1 = new HeapPageId(1, 1);
+        HeapPageId p2 = new HeapPageId(1, 2);
+        assertEquals(2, ring.ringSize());
+
+        assertNull(ring.reusablePage());
+        ring.pageLoaded(p0);
+        assertNull(ring.reusablePage());
+        ring.pageLoaded(p1);
+        assertEquals(p0, ring.reusablePage());
+        ring.pageLoaded(p2);
+        assertEquals(p1, ring.reusablePage());
+    }
+
+    /**
+     * Unit test for BufferPool.scanStrategy(): only files that would flood
+     * the pool get a ring
+     */
+    @Test public void scanStrategyOnlyForLargeFiles() {
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        assertNull(bp.scanStrategy(BUFFER_PAGES));
+        BufferAccessStrategy ring = bp.scanStrategy(BUFFER_PAGES * 10);
+        assertNotNull(ring);
+        assertEquals(BUFFER_PAGES / 8, ring.ringSize());
+    }
+
+    /**
+     * A full scan of a table much larger than the buffer pool must not push
+     * out a page that other transactions use.
+     */
+    @Test public void scanDoesNotEvictHotPage() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 1024 * 50, null, null);
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        TransactionId tid = new TransactionId();
+
+        HeapPageId hotPid = new HeapPageId(hot.getId(), 0);
+        Page hotPage = bp.getPage(tid, hotPid, Permissions.READ_ONLY);
+        bp.getPage(tid, hotPid, Permissions.READ_ONLY);
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(1024 * 50, count);
+
+        // the page was never re-read from disk
+        assertSame(hotPage, bp.getPage(tid, hotPid, Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferAccessStrategyTest.class);
+    }
+}
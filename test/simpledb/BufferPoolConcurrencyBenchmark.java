@@ -0,0 +1,95 @@
+package simpledb;
+
+import simpledb.BTreeUtility.BTreeReader;
+import simpledb.BTreeUtility.BTreeWriter;
+
+import java.util.*;
+
+/**
+ * Measures how BufferPool hit throughput scales with the number of threads.
+ * A B+ tree is built and loaded into a pool large enough to hold all of it,
+ * then 1, 2, 4, ... up to the number of available processors
+ * {@link BTreeReader} threads look up their own keys over and over for a
+ * fixed time. Every lookup walks root to leaf through getPage, so the
+ * lookups per second reported for each thread count are a direct measure of
+ * the hit path.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.BufferPoolConcurrencyBenchmark [rows] [seconds]
+ * </pre>
+ */
+public class BufferPoolConcurrencyBenchmark {
+
+    private static final int DEFAULT_ROWS = 100000;
+    private static final int DEFAULT_SECONDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+
+        Database.reset();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+
+        // every reader gets a key of its own; the writers make sure it exists
+        Random rand = new Random(0);
+        int[] keys = new int[maxThreads];
+        for (int i = 0; i < maxThreads; i++) {
+            keys[i] = rand.nextInt(BTreeUtility.MAX_RAND_VALUE);
+            BTreeWriter bw = new BTreeWriter(new TransactionId(), bf, keys[i], 1);
+            bw.start();
+            bw.join();
+            if (bw.getError() != null)
+                throw bw.getError();
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(bf.numPages() + 16);
+
+        System.out.println(bf.numPages() + " pages, " + seconds + "s per run");
+        System.out.println("threads\tlookups/s\tspeedup");
+        double base = 0;
+        for (int n = 1; ; n = Math.min(n * 2, maxThreads)) {
+            double rate = run(bf, keys, n, seconds);
+            if (n == 1)
+                base = rate;
+            System.out.printf("%d\t%.0f\t%.2f%n", n, rate, rate / base);
+            if (n == maxThreads)
+                break;
+        }
+    }
+
+    /**
+     * Runs n readers for the given time after a short warmup.
+     *
+     * @return the lookups per second of all readers together
+     */
+    private static double run(BTreeFile bf, int[] keys, int n, int seconds)
+            throws Exception {
+        BTreeReader[] readers = new BTreeReader[n];
+        for (int i = 0; i < n; i++) {
+            readers[i] = new BTreeReader(new TransactionId(), bf, new IntField(keys[i]), 1);
+            readers[i].start();
+        }
+        Thread.sleep(1000);
+        long before = 0;
+        for (BTreeReader r : readers)
+            before += r.lookups();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long after = 0;
+        for (BTreeReader r : readers)
+            after += r.lookups();
+        long elapsed = System.nanoTime() - start;
+        for (BTreeReader r : readers)
+            r.finish();
+        for (BTreeReader r : readers) {
+            r.join();
+            if (r.getError() != null)
+                throw r.getError();
+            if (!r.found())
+                throw new IllegalStateException("reader did not find its key");
+        }
+        return (after - before) * 1e9 / elapsed;
+    }
+}
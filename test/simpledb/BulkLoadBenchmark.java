@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares three ways of loading the same rows into an empty table: writing
+ * the file directly with HeapFileEncoder.convert, the lower bound; an
+ * Insert in bulk mode, which appends pages in large writes; and a plain
+ * Insert, which goes through the BufferPool tuple by tuple. The plain
+ * Insert keeps every page it fills dirty until commit, so it runs with a
+ * pool large enough to hold the table.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.BulkLoadBenchmark [rows] [runs]
+ * </pre>
+ */
+public class BulkLoadBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_RUNS = 3;
+    private static final int COLUMNS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        Database.reset();
+        Random rand = new Random(0);
+        ArrayList<ArrayList<Integer>> values = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            int[] row = new int[COLUMNS];
+            ArrayList<Integer> list = new ArrayList<Integer>();
+            for (int j = 0; j < COLUMNS; j++) {
+                row[j] = rand.nextInt(1 << 16);
+                list.add(row[j]);
+            }
+            values.add(list);
+            tuples.add(Utility.getHeapTuple(row));
+        }
+        int pages = rows / HeapPage.slotsPerPage(Utility.getTupleDesc(COLUMNS)) + 1;
+        System.out.println(rows + " rows, " + pages + " pages");
+
+        for (String mode : new String[] { "encoder", "bulk insert", "insert" }) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++)
+                best = Math.min(best, load(mode, values, tuples, pages));
+            System.out.printf("%-12s %8.1f ms %10.0f rows/s%n", mode, best / 1e6,
+                    rows / (best / 1e9));
+        }
+    }
+
+    /**
+     * @return the nanoseconds it takes to load the rows into a new table
+     */
+    static long load(String mode, ArrayList<ArrayList<Integer>> values,
+            ArrayList<Tuple> tuples, int pages) throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        long start = System.nanoTime();
+        if (mode.equals("encoder")) {
+            HeapFileEncoder.convert(values, f, BufferPool.getPageSize(), COLUMNS);
+            return System.nanoTime() - start;
+        }
+
+        HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), COLUMNS);
+        Database.resetBufferPool(pages + BufferPool.DEFAULT_PAGES);
+        start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new TupleIterator(Utility.getTupleDesc(COLUMNS),
+                tuples), table.getId(), mode.equals("bulk insert"));
+        insert.open();
+        insert.next();
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return System.nanoTime() - start;
+    }
+}
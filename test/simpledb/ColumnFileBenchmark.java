@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Measures the pages read and the time taken by queries that touch a few
+ * columns of a wide table of ints and short strings, stored as a HeapFile
+ * and as a {@link ColumnFile}, starting each run with an empty BufferPool.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.ColumnFileBenchmark [rows] [runs]
+ * </pre>
+ */
+public class ColumnFileBenchmark {
+
+    private static final int DEFAULT_ROWS = 100000;
+    private static final int DEFAULT_RUNS = 5;
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE,
+            Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE };
+    private static final String[] QUERIES = {
+            "SELECT SUM(t.c1) FROM %s t WHERE t.c0 < 500;",
+            "SELECT t.c4, COUNT(t.c2) FROM %s t GROUP BY t.c4;",
+            "SELECT * FROM %s t WHERE t.c0 < 10;" };
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        Database.reset();
+        File text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            w.println(r.nextInt(1000) + "," + r.nextInt(1000) + "," + r.nextInt(1000) + ","
+                    + r.nextInt(1000) + ",code" + r.nextInt(100) + ",item" + r.nextInt(10000));
+        }
+        w.close();
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), TYPES.length, TYPES);
+        String[] names = new String[TYPES.length];
+        for (int i = 0; i < names.length; i++)
+            names[i] = "c" + i;
+        HeapFile heap = new HeapFile(f, new TupleDesc(TYPES, names));
+        Database.getCatalog().addTable(heap, "heap");
+
+        TransactionId tid = new TransactionId();
+        ColumnFile columns = ColumnFile.convert(tid, heap, new File(f.getPath() + ".col"));
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < TYPES.length; i++)
+            columns.getColumnFile(i).deleteOnExit();
+        Database.getCatalog().addTable(columns, "columns");
+        TableStats.setTableStats("heap", new TableStats(heap.getId(), 1));
+        TableStats.setTableStats("columns", new TableStats(columns.getId(), 1));
+
+        System.out.print(rows + " rows, heap " + heap.numPages() + " pages, columns");
+        for (int i = 0; i < TYPES.length; i++)
+            System.out.print(" " + columns.numPages(i));
+        System.out.println(" pages");
+        for (String query : QUERIES) {
+            System.out.println(String.format(query, "t"));
+            report("heap", String.format(query, "heap"), runs);
+            report("columns", String.format(query, "columns"), runs);
+        }
+    }
+
+    private static void report(String name, String query, int runs) throws Exception {
+        long pages = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            long start = System.nanoTime();
+            query(query);
+            best = Math.min(best, System.nanoTime() - start);
+            pages = Database.getBufferPool().getPageReadCount();
+        }
+        System.out.printf("  %-8s %8d pages read %8.1f ms%n", name, pages, best / 1e6);
+    }
+
+    /**
+     * @return the number of tuples query returns
+     */
+    static int query(String query) throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
@@ -0,0 +1,195 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 5000;
+  private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+  private TransactionId tid;
+  private HeapFile heap;
+  private ColumnFile columns;
+
+  /**
+   * Set up a table of ints and short strings as a HeapFile "h", and the
+   * same table as a ColumnFile "c"
+   */
+  @Before public void setUp() throws Exception {
+    File text = File.createTempFile("table", ".txt");
+    text.deleteOnExit();
+    PrintWriter w = new PrintWriter(new FileWriter(text));
+    for (int i = 0; i < ROWS; i++)
+      w.println(i + ",s" + (i % 97) + "," + (i % 50));
+    w.close();
+    File f = File.createTempFile("table", ".dat");
+    f.deleteOnExit();
+    HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), TYPES.length, TYPES);
+    TupleDesc td = new TupleDesc(TYPES, new String[] { "a", "s", "b" });
+    heap = new HeapFile(f, td);
+    Database.getCatalog().addTable(heap, "h");
+
+    tid = new TransactionId();
+    File base = File.createTempFile("table", ".col");
+    base.deleteOnExit();
+    columns = ColumnFile.convert(tid, heap, base);
+    for (int i = 0; i < TYPES.length; i++)
+      columns.getColumnFile(i).deleteOnExit();
+    Database.getCatalog().addTable(columns, "c");
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * @return the string forms of the tuples of it, in order
+   */
+  private static ArrayList<String> drain(DbFileIterator it) throws Exception {
+    it.open();
+    ArrayList<String> out = new ArrayList<String>();
+    while (it.hasNext())
+      out.add(it.next().toString());
+    it.close();
+    return out;
+  }
+
+  /**
+   * Unit test for ColumnFile.convert() and ColumnFile.iterator(): the
+   * column file returns the tuples of the heap file in the same order, on
+   * fewer pages since its strings are not padded
+   */
+  @Test public void convert() throws Exception {
+    ArrayList<String> expected = drain(heap.iterator(tid));
+    assertEquals(ROWS, expected.size());
+    assertEquals(expected, drain(columns.iterator(tid)));
+    assertTrue(columns.numPages(0) < heap.numPages() / 10);
+    assertTrue(columns.numPages(1) < heap.numPages() / 2);
+    assertTrue(columns.numPages() < heap.numPages());
+  }
+
+  /**
+   * Unit test for SeqScan over some columns: it returns only those
+   * columns, tuple by tuple and in batches, reading only their pages
+   */
+  @Test public void columnScan() throws Exception {
+    ArrayList<String> expected = new ArrayList<String>();
+    for (int i = 0; i < ROWS; i++)
+      expected.add((i % 50) + "\t" + i);
+    SeqScan scan = new SeqScan(tid, columns.getId(), "c", new int[] { 2, 0 });
+    assertEquals("c.b", scan.getTupleDesc().getFieldName(0));
+    assertEquals(expected, TestUtil.drain(scan));
+    assertArrayEquals(new int[] { 2, 0 }, scan.getColumns());
+
+    ArrayList<String> batches = new ArrayList<String>();
+    scan.open();
+    Batch batch;
+    while ((batch = scan.nextBatch()) != null) {
+      for (int i = 0; i < batch.size(); i++)
+        batches.add(batch.getTuple(batch.row(i)).toString());
+    }
+    scan.close();
+    assertEquals(expected, batches);
+
+    // a heap file is cut down to the columns
+    assertEquals(expected, TestUtil.drain(new SeqScan(tid, heap.getId(), "h", new int[] { 2, 0 })));
+
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TestUtil.drain(new SeqScan(tid, columns.getId(), "c", new int[] { 0 }));
+    assertEquals(columns.numPages(0), Database.getBufferPool().getPageReadCount());
+  }
+
+  /**
+   * Unit test for ColumnFile.insertTuple() and deleteTuple(): a column
+   * file is read only
+   */
+  @Test public void readOnly() throws Exception {
+    DbFileIterator it = columns.iterator(tid);
+    it.open();
+    Tuple t = it.next();
+    it.close();
+    try {
+      Database.getBufferPool().insertTuple(tid, columns.getId(), t);
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    try {
+      Database.getBufferPool().deleteTuple(tid, t);
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Unit test for LogicalPlan.physicalPlan() over a ColumnFile: the scan
+   * reads only the columns the query refers to, and the query returns
+   * what it does over the HeapFile
+   */
+  @Test public void plan() throws Exception {
+    TableStats.setTableStats("h", new TableStats(heap.getId(), 1));
+    TableStats.setTableStats("c", new TableStats(columns.getId(), 1));
+    String[] queries = {
+        "SELECT x.a FROM x WHERE x.b < 10;",
+        "SELECT x.s, COUNT(x.a) FROM x GROUP BY x.s;",
+        "SELECT * FROM x WHERE x.s = 's5';",
+        "SELECT x.a, y.s FROM x, x y WHERE x.a = y.b AND x.b < 3;" };
+    int[][] scanned = { { 0, 2 }, { 0, 1 }, null, { 0, 2 } };
+    Parser p = new Parser();
+    for (int i = 0; i < queries.length; i++) {
+      ArrayList<String> expected = query(p, queries[i].replace("x", "h"));
+      assertTrue(queries[i], expected.size() > 0);
+      LogicalPlan lp = p.generateLogicalPlan(tid, queries[i].replace("x", "c"));
+      OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+      assertArrayEquals(queries[i], scanned[i], scan(plan, "c").getColumns());
+      ArrayList<String> actual = TestUtil.drain(plan);
+      Collections.sort(actual);
+      assertEquals(queries[i], expected, actual);
+    }
+  }
+
+  /**
+   * @return the sorted string forms of the result of query
+   */
+  private ArrayList<String> query(Parser p, String query) throws Exception {
+    LogicalPlan lp = p.generateLogicalPlan(tid, query);
+    return TestUtil.sorted(TestUtil.drain(lp.physicalPlan(tid, TableStats.getStatsMap(), false)));
+  }
+
+  /**
+   * @return the scan in plan with the given alias
+   */
+  private static SeqScan scan(OpIterator plan, String alias) {
+    if (plan instanceof SeqScan && ((SeqScan) plan).getAlias().equals(alias))
+      return (SeqScan) plan;
+    if (plan instanceof Operator) {
+      for (OpIterator child : ((Operator) plan).getChildren()) {
+        SeqScan s = scan(child, alias);
+        if (s != null)
+          return s;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ColumnFileTest.class);
+  }
+}
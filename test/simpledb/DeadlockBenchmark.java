@@ -0,0 +1,154 @@
+package simpledb;
+
+import simpledb.BTreeUtility.BTreeWriter;
+import simpledb.Predicate.Op;
+
+import java.util.*;
+
+/**
+ * Stress test for deadlock handling, built on the scenario of
+ * {@link BTreeDeadlockTest}: two transactions both read the root pointer of
+ * a packed B+ tree and then insert enough copies of a key to split a leaf.
+ * To make every round deadlock, and not only the rounds where a split
+ * reaches the root, both transactions first also read the leaves of both
+ * keys, so each writer needs to upgrade a page the other one has read.
+ * Aborted writers are restarted with a new transaction after a short random
+ * pause, like in the test, until both have committed.
+ * <p>
+ * After all rounds the benchmark prints how many transactions were started
+ * and aborted, and the distribution of the time lock requests spent
+ * waiting, as reported to a {@link LockManager.WaitListener}.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.DeadlockBenchmark [rows] [rounds]
+ * </pre>
+ */
+public class DeadlockBenchmark {
+
+    private static final int DEFAULT_ROWS = 100000;
+    private static final int DEFAULT_ROUNDS = 20;
+    private static final int POLL_INTERVAL = 10;
+    private static final int RESTART_INTERVAL = 50;
+
+    private static final List<Long> waits = Collections.synchronizedList(new ArrayList<Long>());
+    private static int started;
+    private static int aborted;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+        Database.reset();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+        BufferPool bp = Database.resetBufferPool(500);
+        bp.getLockManager().setWaitListener(new LockManager.WaitListener() {
+            public void waited(TransactionId tid, PageId pid, long nanos, boolean aborted) {
+                waits.add(nanos);
+            }
+        });
+
+        Random rand = new Random(0);
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            int item1 = rand.nextInt(BTreeUtility.MAX_RAND_VALUE);
+            int item2 = rand.nextInt(BTreeUtility.MAX_RAND_VALUE);
+            int count1 = deleteAll(bf, item1) + 1;
+            int count2 = deleteAll(bf, item2) + 1;
+            race(bf, rand, item1, count1, item2, count2);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        ArrayList<Long> sorted;
+        synchronized (waits) {
+            sorted = new ArrayList<Long>(waits);
+        }
+        Collections.sort(sorted);
+        System.out.printf("%d rounds in %.1fs%n", rounds, elapsed / 1e9);
+        System.out.printf("transactions %d, aborted %d, abort rate %.1f%%%n",
+                started, aborted, 100.0 * aborted / started);
+        System.out.printf("lock waits %d, p50 %.2fms, p99 %.2fms, max %.2fms%n",
+                sorted.size(), percentile(sorted, 0.50), percentile(sorted, 0.99),
+                percentile(sorted, 1.0));
+    }
+
+    /**
+     * Deletes every tuple with the given key in a committed transaction, so
+     * that inserting one more than that many splits the leaf again.
+     *
+     * @return the number of tuples deleted
+     */
+    private static int deleteAll(BTreeFile bf, int item) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(item)));
+        it.open();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        for (Tuple t : tuples)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples.size();
+    }
+
+    /**
+     * Runs the two writers of one round until both have committed.
+     */
+    private static void race(BTreeFile bf, Random rand, int item1, int count1,
+            int item2, int count2) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        bp.getPage(tid1, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+        bp.getPage(tid2, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+        for (TransactionId tid : new TransactionId[] { tid1, tid2 }) {
+            read(bf, tid, item1);
+            read(bf, tid, item2);
+        }
+        BTreeWriter w1 = startWriter(tid1, bf, item1, count1);
+        BTreeWriter w2 = startWriter(tid2, bf, item2, count2);
+
+        while (w1 != null || w2 != null) {
+            Thread.sleep(POLL_INTERVAL);
+            if (w1 != null && w1.succeeded()) {
+                bp.transactionComplete(w1.tid);
+                w1 = null;
+            } else if (w1 != null && w1.getError() != null) {
+                aborted++;
+                Thread.sleep(rand.nextInt(RESTART_INTERVAL));
+                w1 = startWriter(new TransactionId(), bf, item1, count1);
+            }
+            if (w2 != null && w2.succeeded()) {
+                bp.transactionComplete(w2.tid);
+                w2 = null;
+            } else if (w2 != null && w2.getError() != null) {
+                aborted++;
+                Thread.sleep(rand.nextInt(RESTART_INTERVAL));
+                w2 = startWriter(new TransactionId(), bf, item2, count2);
+            }
+        }
+    }
+
+    private static void read(BTreeFile bf, TransactionId tid, int item) throws Exception {
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(item)));
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+    }
+
+    private static BTreeWriter startWriter(TransactionId tid, BTreeFile bf, int item, int count) {
+        started++;
+        BTreeWriter bw = new BTreeWriter(tid, bf, item, count);
+        bw.start();
+        return bw;
+    }
+
+    private static double percentile(ArrayList<Long> sorted, double p) {
+        if (sorted.isEmpty())
+            return 0;
+        int i = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(i, 0)) / 1e6;
+    }
+}
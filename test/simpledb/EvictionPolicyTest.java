@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for ClockEvictionPolicy.chooseVictim() with no pages
+     */
+    @Test public void clockEmpty() {
+        ClockEvictionPolicy clock = new ClockEvictionPolicy(4);
+        assertNull(clock.chooseVictim(EvictionPolicy.ANY_PAGE));
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: unreferenced pages go first, in
+     * clock order
+     */
+    @Test public void clockUnreferencedFirst() {
+        ClockEvictionPolicy clock = new ClockEvictionPolicy(3);
+        HeapPageId p0 = new HeapPageId(1, 0);
+        HeapPageId p1 = new HeapPageId(1, 1);
+        HeapPageId p2 = new HeapPageId(1, 2);
+        clock.pageAdded(p0);
+        clock.pageAdded(p1);
+        clock.pageAdded(p2);
+
+        clock.pageAccessed(p0);
+        assertEquals(p1, clock.chooseVictim(EvictionPolicy.ANY_PAGE));
+        clock.pageRemoved(p1);
+
+        // p0 lost its reference bit during the last sweep
+        assertEquals(p2, clock.chooseVictim(EvictionPolicy.ANY_PAGE));
+        clock.pageRemoved(p2);
+        assertEquals(p0, clock.chooseVictim(EvictionPolicy.ANY_PAGE));
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: a page gets a second chance on
+     * every hit
+     */
+    @Test public void clockSecondChance() {
+        ClockEvictionPolicy clock = new ClockEvictionPolicy(2);
+        HeapPageId p0 = new HeapPageId(1, 0);
+        HeapPageId p1 = new HeapPageId(1, 1);
+        clock.pageAdded(p0);
+        clock.pageAdded(p1);
+        clock.pageAccessed(p0);
+        clock.pageAccessed(p1);
+
+        // both bits get cleared, then the hand comes back to p0
+        assertEquals(p0, clock.chooseVictim(EvictionPolicy.ANY_PAGE));
+        clock.pageAccessed(p0);
+        assertEquals(p1, clock.chooseVictim(EvictionPolicy.ANY_PAGE));
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: removed pages are never chosen and
+     * the clock grows past its initial size
+     */
+    @Test public void clockRemoveAndGrow() {
+        ClockEvictionPolicy clock = new ClockEvictionPolicy(1);
+        HeapPageId p0 = new HeapPageId(1, 0);
+        HeapPageId p1 = new HeapPageId(1, 1);
+        clock.pageAdded(p0);
+        clock.pageAdded(p1);
+        clock.pageRemoved(p0);
+        assertEquals(p1, clock.chooseVictim(EvictionPolicy.ANY_PAGE));
+        clock.pageRemoved(p1);
+        assertNull(clock.chooseVictim(EvictionPolicy.ANY_PAGE));
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: pages the pool cannot give up are
+     * skipped
+     */
+    @Test public void clockSkipsUnevictable() {
+        ClockEvictionPolicy clock = new ClockEvictionPolicy(2);
+        final HeapPageId p0 = new HeapPageId(1, 0);
+        HeapPageId p1 = new HeapPageId(1, 1);
+        clock.pageAdded(p0);
+        clock.pageAdded(p1);
+        clock.pageAccessed(p1);
+
+        EvictionPolicy.Evictable notP0 = new EvictionPolicy.Evictable() {
+            public boolean isEvictable(PageId pid) {
+                return !pid.equals(p0);
+            }
+        };
+        assertEquals(p1, clock.chooseVictim(notP0));
+        EvictionPolicy.Evictable none = new EvictionPolicy.Evictable() {
+            public boolean isEvictable(PageId pid) {
+                return false;
+            }
+        };
+        assertNull(clock.chooseVictim(none));
+    }
+
+    /**
+     * Unit test for LfuEvictionPolicy.chooseVictim()
+     */
+    @Test public void lfuLeastUsed() {
+        LfuEvictionPolicy lfu = new LfuEvictionPolicy();
+        assertNull(lfu.chooseVictim(EvictionPolicy.ANY_PAGE));
+        HeapPageId p0 = new HeapPageId(1, 0);
+        HeapPageId p1 = new HeapPageId(1, 1);
+        lfu.pageAdded(p0);
+        lfu.pageAdded(p1);
+        lfu.pageAccessed(p0);
+        assertEquals(p1, lfu.chooseVictim(EvictionPolicy.ANY_PAGE));
+        lfu.pageRemoved(p1);
+        assertEquals(p0, lfu.chooseVictim(EvictionPolicy.ANY_PAGE));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,188 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 30000;
+  private static final int PARTS = 4;
+
+  private TransactionId tid;
+  private HeapFile table;
+
+  /**
+   * Set up a table of many morsels
+   */
+  @Before public void setUp() throws Exception {
+    table = SystemTestUtil.createRandomHeapFile(3, ROWS, 1000, null, null, "c");
+    assertTrue(table.numPages() > PARTS * HeapFile.MORSEL_PAGES);
+    Database.getCatalog().addTable(table, "t");
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * @return scans of the PARTS partitions of the table
+   */
+  private OpIterator[] scans() {
+    OpIterator[] scans = new OpIterator[PARTS];
+    for (int i = 0; i < PARTS; i++)
+      scans[i] = new SeqScan(tid, table.getId(), "t", i, PARTS);
+    return scans;
+  }
+
+  /**
+   * Unit test for Gather.getNext(): the partitions of a table together
+   * return the tuples of a SeqScan, twice through rewind
+   */
+  @Test public void gather() throws Exception {
+    ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(new SeqScan(tid, table.getId(),
+        "t")));
+    ArrayList<String> parts = new ArrayList<String>();
+    for (OpIterator scan : scans())
+      parts.addAll(TestUtil.sorted(TestUtil.drain(scan)));
+    Collections.sort(parts);
+    assertEquals(expected, parts);
+
+    Gather op = new Gather(scans());
+    assertEquals(expected, TestUtil.sorted(TestUtil.drain(op)));
+    op.open();
+    op.next();
+    op.rewind();
+    assertEquals(expected, TestUtil.sorted(TestUtil.drainOpen(op)));
+    op.close();
+  }
+
+  /**
+   * Unit test for Repartition.getNext(): each value of the field goes to
+   * exactly one port, and the ports together return every tuple
+   */
+  @Test public void repartition() throws Exception {
+    ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(new SeqScan(tid, table.getId(),
+        "t")));
+    Repartition[] ports = Repartition.create(scans(), new int[] { 1 }, 3);
+    // the ports must be read concurrently
+    ArrayList<ArrayList<String>> read = new ArrayList<ArrayList<String>>();
+    Thread[] readers = new Thread[ports.length];
+    Exception[] failure = new Exception[1];
+    for (int i = 0; i < ports.length; i++) {
+      ArrayList<String> out = new ArrayList<String>();
+      read.add(out);
+      Repartition port = ports[i];
+      readers[i] = new Thread(() -> {
+        try {
+          out.addAll(TestUtil.sorted(TestUtil.drain(port)));
+        } catch (Exception e) {
+          failure[0] = e;
+        }
+      });
+      readers[i].start();
+    }
+    for (Thread r : readers)
+      r.join();
+    if (failure[0] != null)
+      throw failure[0];
+
+    ArrayList<String> all = new ArrayList<String>();
+    HashMap<String, Integer> portOf = new HashMap<String, Integer>();
+    for (int i = 0; i < read.size(); i++) {
+      assertTrue(read.get(i).size() > 0);
+      for (String t : read.get(i)) {
+        Integer other = portOf.put(t.split("\\t")[1], i);
+        assertTrue(other == null || other == i);
+      }
+      all.addAll(read.get(i));
+    }
+    Collections.sort(all);
+    assertEquals(expected, all);
+  }
+
+  /**
+   * Unit test for Broadcast.getNext(): every port returns every tuple, and
+   * can be rewound, also once the tuples have spilled to disk
+   */
+  @Test public void broadcast() throws Exception {
+    ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(new SeqScan(tid, table.getId(),
+        "t")));
+    for (long memoryBytes : new long[] { Broadcast.DEFAULT_MEMORY_BYTES, 10000 }) {
+      Broadcast[] ports = Broadcast.create(scans(), 2, memoryBytes);
+      for (Broadcast port : ports)
+        port.open();
+      for (Broadcast port : ports) {
+        assertEquals(expected, TestUtil.sorted(TestUtil.drainOpen(port)));
+        assertEquals(memoryBytes < Broadcast.DEFAULT_MEMORY_BYTES, port.spilled());
+        port.rewind();
+        assertEquals(expected, TestUtil.sorted(TestUtil.drainOpen(port)));
+      }
+      for (Broadcast port : ports)
+        port.close();
+    }
+  }
+
+  /**
+   * Unit test for LogicalPlan.physicalPlan(): with a degree of parallelism,
+   * scans, joins and aggregates run on partitions, and return what the
+   * serial plan does
+   */
+  @Test public void plan() throws Exception {
+    TableStats.setTableStats("t", new TableStats(table.getId(), 1));
+    String[] queries = {
+        "SELECT * FROM t WHERE t.c0 > 500;",
+        "SELECT a.c0, b.c2 FROM t a, t b WHERE a.c1 = b.c0 AND a.c2 < 50 AND b.c2 < 100;",
+        "SELECT a.c0, b.c0 FROM t a, t b WHERE a.c1 < b.c1 AND a.c2 < 10 AND b.c2 < 10;",
+        "SELECT t.c0, SUM(t.c1) FROM t GROUP BY t.c0;",
+        "SELECT t.c1, AVG(t.c2) FROM t WHERE t.c0 < 500 GROUP BY t.c1;",
+        "SELECT COUNT(t.c2) FROM t WHERE t.c1 < 300;" };
+    Parser p = new Parser();
+    for (String query : queries) {
+      LogicalPlan lp = p.generateLogicalPlan(tid, query);
+      OpIterator serial = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+      ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(serial));
+      assertTrue(query, expected.size() > 0);
+      lp.setParallelism(PARTS);
+      OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+      assertTrue(query, contains(plan, Gather.class));
+      assertEquals(query, expected, TestUtil.sorted(TestUtil.drain(plan)));
+    }
+
+    p.processNextStatement("SET PARALLELISM 3;");
+    assertEquals(3, p.getParallelism());
+    assertEquals(3, p.generateLogicalPlan(tid, queries[0]).getParallelism());
+  }
+
+  /**
+   * @return true if plan has an operator of class c
+   */
+  private static boolean contains(OpIterator plan, Class<?> c) {
+    if (c.isInstance(plan))
+      return true;
+    if (plan instanceof Operator) {
+      for (OpIterator child : ((Operator) plan).getChildren()) {
+        if (contains(child, c))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the time and the heap allocation of a selective query,
+ * SELECT * FROM t WHERE t.c0 &lt; x, run as a Filter over a SeqScan from an
+ * empty BufferPool. The predicate looks at one column and keeps about one
+ * tuple in a hundred, so most of what a scan allocates for the other tuples
+ * and columns is waste. Allocation is counted for the scanning thread with
+ * com.sun.management.ThreadMXBean.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.FilteredScanBenchmark [rows] [runs]
+ * </pre>
+ */
+public class FilteredScanBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_RUNS = 5;
+    private static final int COLUMNS = 4;
+    private static final int MAX_VALUE = 1 << 16;
+    private static final int SELECTIVITY = 100;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long self = Thread.currentThread().getId();
+
+        Database.reset();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                MAX_VALUE, null, null);
+        HeapFile table = Utility.openHeapFile(COLUMNS, f);
+
+        scan(table);
+        long bestTime = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        int matched = 0;
+        for (int i = 0; i < runs; i++) {
+            long bytes = bean.getThreadAllocatedBytes(self);
+            long start = System.nanoTime();
+            matched = scan(table);
+            bestTime = Math.min(bestTime, System.nanoTime() - start);
+            bestBytes = Math.min(bestBytes, bean.getThreadAllocatedBytes(self) - bytes);
+        }
+        double secs = bestTime / 1e9;
+        System.out.println(rows + " rows, " + table.numPages() + " pages, "
+                + matched + " rows match");
+        System.out.printf("%8.1f ms %10.0f rows/s %8.1f MB allocated %6.1f bytes/row %8.1f MB/s%n",
+                bestTime / 1e6, rows / secs, bestBytes / 1e6,
+                (double) bestBytes / rows, bestBytes / 1e6 / secs);
+    }
+
+    /**
+     * @return the number of rows the query returns, scanning from an empty pool
+     */
+    static int scan(HeapFile table) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(MAX_VALUE / SELECTIVITY)), new SeqScan(tid, table.getId()));
+        filter.open();
+        int n = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            n++;
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    /** Tuples of three int columns; 337 fit on a page, one past a header byte. */
+    private static final int COLUMNS = 3;
+
+    private int slots;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() {
+        slots = HeapPage.slotsPerPage(Utility.getTupleDesc(COLUMNS));
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.findFree() and setFree()
+     */
+    @Test public void findFree() {
+        FreeSpaceMap map = new FreeSpaceMap();
+        assertEquals(-1, map.findFree());
+        map.setFree(3, true);
+        map.setFree(5, true);
+        assertEquals(3, map.findFree());
+        map.setFree(3, false);
+        assertEquals(5, map.findFree());
+        // a page below the cursor that gets room is found again
+        map.setFree(1, true);
+        assertEquals(1, map.findFree());
+        assertTrue(map.isFree(5));
+    }
+
+    /**
+     * Unit test for HeapFile.freeSpaceMap(): the map is built from the page
+     * headers on disk
+     */
+    @Test public void build() throws Exception {
+        assertEquals(1, slots % 8);
+        HeapFile full = SystemTestUtil.createRandomHeapFile(COLUMNS, 2 * slots, null, null);
+        assertEquals(2, full.numPages());
+        assertEquals(-1, full.freeSpaceMap().findFree());
+
+        HeapFile partial = SystemTestUtil.createRandomHeapFile(COLUMNS, 2 * slots + 1, null, null);
+        assertEquals(2, partial.freeSpaceMap().findFree());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() and deleteTuple(): inserts go to
+     * the page the map knows has room, and a delete gives the page back
+     */
+    @Test public void insertAfterDelete() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 3 * slots, null, null);
+        FreeSpaceMap map = f.freeSpaceMap();
+
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple victim = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().getPageNumber() == 1)
+                victim = t;
+        }
+        it.close();
+        f.deleteTuple(tid, victim);
+        assertTrue(map.isFree(1));
+
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2, 3 });
+        f.insertTuple(tid, t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertFalse(map.isFree(1));
+
+        t = Utility.getHeapTuple(new int[] { 4, 5, 6 });
+        f.insertTuple(tid, t);
+        assertEquals(3, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(4, f.numPages());
+        assertTrue(map.isFree(3));
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple(): a page the map wrongly believes
+     * has room is skipped and marked full
+     */
+    @Test public void staleEntry() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 2 * slots + 1, null, null);
+        FreeSpaceMap map = f.freeSpaceMap();
+        map.setFree(0, true);
+
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2, 3 });
+        f.insertTuple(tid, t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        assertFalse(map.isFree(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  /** Room for a few hundred two-column tuples, so larger inputs spill. */
+  private static final long SMALL_BUDGET = 20000;
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * @return a list of rows tuples of two columns, where the first column
+   *         counts up modulo keys and the second is the row number
+   */
+  private static OpIterator rows(int rows, int keys) {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < rows; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { i % keys, i }));
+    return new TupleIterator(Utility.getTupleDesc(2), tuples);
+  }
+
+  /**
+   * @return the sorted string forms of the equi-join on the first column of
+   *         two inputs made by rows()
+   */
+  private static ArrayList<String> expected(int rows1, int keys1, int rows2, int keys2) {
+    ArrayList<String> out = new ArrayList<String>();
+    for (int i = 0; i < rows1; i++) {
+      for (int j = 0; j < rows2; j++) {
+        if (i % keys1 == j % keys2)
+          out.add((i % keys1) + "\t" + i + "\t" + (j % keys2) + "\t" + j);
+      }
+    }
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() with inputs that fit in memory
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertEquals(0, op.getSpillCount());
+  }
+
+  /**
+   * Unit test for HashEquiJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, rows(1000, 100), rows(500, 50), SMALL_BUDGET);
+    op.open();
+    ArrayList<String> first = TestUtil.sorted(TestUtil.drainOpen(op));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertEquals(first, TestUtil.sorted(TestUtil.drainOpen(op)));
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin: a build side larger than the memory budget
+   * is partitioned to disk and joined partition by partition
+   */
+  @Test public void spill() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, rows(5000, 2000), rows(3000, 1500), SMALL_BUDGET);
+    op.open();
+    assertEquals(expected(5000, 2000, 3000, 1500), TestUtil.sorted(TestUtil.drainOpen(op)));
+    assertTrue(op.getSpillCount() > 0);
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin: a key too frequent to fit in memory after
+   * repartitioning is joined in chunks
+   */
+  @Test public void skew() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, rows(2000, 1), rows(30, 3), SMALL_BUDGET);
+    op.open();
+    assertEquals(expected(2000, 1, 30, 3), TestUtil.sorted(TestUtil.drainOpen(op)));
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin on string keys, which are hashed as Fields
+   * instead of ints
+   */
+  @Test public void stringKeys() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    ArrayList<Tuple> left = new ArrayList<Tuple>();
+    ArrayList<Tuple> right = new ArrayList<Tuple>();
+    for (int i = 0; i < 1000; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField("k" + (i % 300), Type.STRING_LEN));
+      t.setField(1, new IntField(i));
+      left.add(t);
+      if (i < 600)
+        right.add(t);
+    }
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, new TupleIterator(td, left),
+        new TupleIterator(td, right), SMALL_BUDGET);
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(2));
+      n++;
+    }
+    // keys k0..k99 appear 4 times on the left, k100..k299 3 times; each
+    // appears twice on the right
+    assertEquals(100 * 4 * 2 + 200 * 3 * 2, n);
+    assertTrue(op.getSpillCount() > 0);
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin: only equality predicates are accepted
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    new HashEquiJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
@@ -0,0 +1,177 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares HashEquiJoin with the operator it replaced on an equi-join of two
+ * tables of the same size, read with SeqScans from an empty BufferPool. The
+ * old operator loaded child1 into a hash table MAP_SIZE tuples at a time and
+ * scanned all of child2 again for every such chunk; it is kept here as
+ * RescanHashJoin. HashEquiJoin runs with its default memory budget, which
+ * holds the whole build side, and with a budget a quarter that size, which
+ * makes it spill.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.HashJoinBenchmark [rows] [runs]
+ * </pre>
+ */
+public class HashJoinBenchmark {
+
+    private static final int DEFAULT_ROWS = 200000;
+    private static final int DEFAULT_RUNS = 3;
+    private static final int COLUMNS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        Database.reset();
+        HeapFile build = Utility.openHeapFile(COLUMNS, SystemTestUtil
+                .createRandomHeapFileUnopened(COLUMNS, rows, rows, null, null));
+        HeapFile probe = Utility.openHeapFile(COLUMNS, SystemTestUtil
+                .createRandomHeapFileUnopened(COLUMNS, rows, rows, null, null));
+        long tupleBytes = Utility.getTupleDesc(COLUMNS).getSize() + HashEquiJoin.TUPLE_OVERHEAD;
+        long smallBudget = rows * tupleBytes / 4;
+        System.out.println(rows + " x " + rows + " rows, " + build.numPages() + " pages each");
+
+        for (String mode : new String[] { "rescan", "hybrid", "hybrid spilling" }) {
+            long best = Long.MAX_VALUE;
+            int matched = 0;
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                matched = join(mode, build, probe, smallBudget);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%-16s %10.1f ms %8d rows out%n", mode, best / 1e6, matched);
+        }
+    }
+
+    /**
+     * @return the number of rows the join returns
+     */
+    static int join(String mode, HeapFile build, HeapFile probe, long smallBudget)
+            throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator child1 = new SeqScan(tid, build.getId());
+        OpIterator child2 = new SeqScan(tid, probe.getId());
+        OpIterator join;
+        if (mode.equals("rescan"))
+            join = new RescanHashJoin(pred, child1, child2);
+        else if (mode.equals("hybrid"))
+            join = new HashEquiJoin(pred, child1, child2);
+        else
+            join = new HashEquiJoin(pred, child1, child2, smallBudget);
+        join.open();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * The hash join HashEquiJoin used to be: a hash table of at most
+     * MAP_SIZE tuples of child1, and a full scan of child2 for each.
+     */
+    static class RescanHashJoin extends Operator {
+
+        private static final long serialVersionUID = 1L;
+        static final int MAP_SIZE = 20000;
+
+        private final JoinPredicate pred;
+        private OpIterator child1, child2;
+        private final TupleDesc comboTD;
+        private final HashMap<Field, ArrayList<Tuple>> map = new HashMap<Field, ArrayList<Tuple>>();
+        private Iterator<Tuple> listIt;
+        private Tuple t2;
+
+        RescanHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+            this.pred = p;
+            this.child1 = child1;
+            this.child2 = child2;
+            comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        }
+
+        private boolean loadMap() throws DbException, TransactionAbortedException {
+            map.clear();
+            int cnt = 0;
+            while (cnt < MAP_SIZE && child1.hasNext()) {
+                Tuple t1 = child1.next();
+                Field key = t1.getField(pred.getField1());
+                ArrayList<Tuple> list = map.get(key);
+                if (list == null) {
+                    list = new ArrayList<Tuple>();
+                    map.put(key, list);
+                }
+                list.add(t1);
+                cnt++;
+            }
+            return cnt > 0;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child1.open();
+            child2.open();
+            loadMap();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child2.close();
+            child1.close();
+            map.clear();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (listIt != null && listIt.hasNext()) {
+                    Tuple t1 = listIt.next();
+                    Tuple t = new Tuple(comboTD);
+                    int n1 = t1.getTupleDesc().numFields();
+                    for (int i = 0; i < n1; i++)
+                        t.setField(i, t1.getField(i));
+                    for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+                        t.setField(n1 + i, t2.getField(i));
+                    return t;
+                }
+                if (child2.hasNext()) {
+                    t2 = child2.next();
+                    ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
+                    listIt = l == null ? null : l.iterator();
+                    continue;
+                }
+                child2.rewind();
+                if (!loadMap())
+                    return null;
+            }
+        }
+
+        public TupleDesc getTupleDesc() {
+            return comboTD;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child1, child2 };
+        }
+
+        public void setChildren(OpIterator[] children) {
+            child1 = children[0];
+            child2 = children[1];
+        }
+    }
+}
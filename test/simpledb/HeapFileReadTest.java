@@ -77,6 +77,33 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a read-only file, which reads
+     * through a memory mapping
+     */
+    @Test
+    public void readPageReadOnly() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, null);
+        HeapFile readOnly = new HeapFile(twoPageFile.getFile(), td, true);
+        assertTrue(readOnly.isReadOnly());
+        assertFalse(twoPageFile.isReadOnly());
+        for (int i = 0; i < 2; i++) {
+            HeapPageId pid = new HeapPageId(twoPageFile.getId(), i);
+            HeapPage page = (HeapPage) readOnly.readPage(pid);
+            assertArrayEquals(twoPageFile.readPage(pid).getPageData(),
+                    page.getPageData());
+            assertEquals(((HeapPage) twoPageFile.readPage(pid)).getNumEmptySlots(),
+                    page.getNumEmptySlots());
+        }
+
+        try {
+            readOnly.readPage(new HeapPageId(twoPageFile.getId(), 2));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -101,6 +128,28 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.iterator(): an empty page in the middle of the
+     * file does not end the scan
+     */
+    @Test
+    public void testIteratorEmptyPage() throws Exception {
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 3 * 504,
+                null, null);
+        threePageFile.writePage(new HeapPage(new HeapPageId(threePageFile.getId(), 1),
+                HeapPage.createEmptyPageData()));
+
+        DbFileIterator it = threePageFile.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count += 1;
+        }
+        assertEquals(2 * 504, count);
+        it.close();
+    }
+
     @Test
     public void testIteratorClose() throws Exception {
         // make more than 1 page. Previous closed iterator would start fetching
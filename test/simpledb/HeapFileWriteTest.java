@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,31 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for writes to a read-only HeapFile, which are all rejected
+     */
+    @Test public void writeReadOnly() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        HeapFile readOnly = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        try {
+            readOnly.insertTuple(tid, Utility.getHeapTuple(2, 2));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+        try {
+            readOnly.deleteTuple(tid, Utility.getHeapTuple(1, 2));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+        try {
+            readOnly.writePage(new HeapPage(new HeapPageId(empty.getId(), 0),
+                    HeapPage.createEmptyPageData()));
+            fail("expected exception");
+        } catch (IOException e) {
+        }
+        assertEquals(1, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
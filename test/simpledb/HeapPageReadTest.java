@@ -99,6 +99,28 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage: the page decodes its tuples from its own copy
+     * of the data, so the caller can reuse its buffer
+     */
+    @Test public void copiesData() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Arrays.fill(data, (byte) 0);
+
+        Iterator<Tuple> it = page.iterator();
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(new RecordId(pid, row), tup.getRecordId());
+            assertEquals(new IntField(EXAMPLE_VALUES[row][1]), tup.getField(1));
+            assertEquals(new IntField(EXAMPLE_VALUES[row][0]), tup.getField(0));
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopsJoinTest extends SimpleDbTestBase {
+
+  private static final int INNER_ROWS = 3000;
+  private static final int MAX_VALUE = 500;
+
+  private TransactionId tid;
+  private BTreeFile inner;
+
+  /**
+   * Set up an inner table keyed on its first column
+   */
+  @Before public void setUp() throws Exception {
+    inner = BTreeUtility.createRandomBTreeFile(2, INNER_ROWS, MAX_VALUE, null, null, 0);
+    Database.getCatalog().addTable(inner, SystemTestUtil.getUUID());
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * @return rows unsorted two-column tuples with keys below max, including
+   *         duplicates
+   */
+  private static OpIterator outer(int rows, int max) {
+    Random rand = new Random(0);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < rows; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { rand.nextInt(max), i }));
+    return new TupleIterator(Utility.getTupleDesc(2), tuples);
+  }
+
+  private BTreeScan index() {
+    return new BTreeScan(tid, inner.getId(), "inner", null);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopsJoin.getNext() on equality, over more
+   * than one batch of outer tuples: the same tuples as a nested loops join
+   */
+  @Test public void equality() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    int rows = IndexNestedLoopsJoin.BATCH_SIZE * 2 + 17;
+    ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(new HashEquiJoin(pred,
+        outer(rows, MAX_VALUE * 2), new SeqScan(tid, inner.getId(), "inner"))));
+    ArrayList<String> actual = TestUtil.sorted(TestUtil.drain(new IndexNestedLoopsJoin(pred,
+        outer(rows, MAX_VALUE * 2), index())));
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopsJoin.getNext() on range predicates
+   */
+  @Test public void range() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(new Join(pred,
+          outer(20, MAX_VALUE), new SeqScan(tid, inner.getId(), "inner"))));
+      ArrayList<String> actual = TestUtil.sorted(TestUtil.drain(new IndexNestedLoopsJoin(pred,
+          outer(20, MAX_VALUE), index())));
+      assertTrue(expected.size() > 0);
+      assertEquals(op.toString(), expected, actual);
+    }
+  }
+
+  /**
+   * Unit test for IndexNestedLoopsJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopsJoin op = new IndexNestedLoopsJoin(pred, outer(100, MAX_VALUE), index());
+    ArrayList<String> first = TestUtil.sorted(TestUtil.drain(op));
+    op.open();
+    while (op.hasNext())
+      op.next();
+    op.rewind();
+    ArrayList<String> second = new ArrayList<String>();
+    while (op.hasNext())
+      second.add(op.next().toString());
+    op.close();
+    Collections.sort(second);
+    assertEquals(first, second);
+  }
+
+  /**
+   * Unit test for JoinOptimizer.instantiateJoin() of a join the optimizer
+   * chose to run through the index: the filter on the inner table is
+   * applied to the joined tuples
+   */
+  @Test public void instantiate() throws Exception {
+    OpIterator plan1 = outer(300, MAX_VALUE);
+    OpIterator plan2 = new Filter(new Predicate(1, Predicate.Op.LESS_THAN,
+        new IntField(BTreeUtility.MAX_RAND_VALUE / 2)), new SeqScan(tid, inner.getId(), "inner"));
+    LogicalJoinNode lj = new LogicalJoinNode("null", "inner", "0", "key0", Predicate.Op.EQUALS);
+    lj.f1QuantifiedName = plan1.getTupleDesc().getFieldName(0);
+    lj.f2QuantifiedName = plan2.getTupleDesc().getFieldName(0);
+    ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(
+        JoinOptimizer.instantiateJoin(lj, plan1, plan2)));
+
+    lj.probeIndex = true;
+    OpIterator j = JoinOptimizer.instantiateJoin(lj, outer(300, MAX_VALUE), plan2);
+    assertTrue(j instanceof Filter);
+    assertTrue(((Filter) j).getChildren()[0] instanceof IndexNestedLoopsJoin);
+    assertEquals(expected, TestUtil.sorted(TestUtil.drain(j)));
+  }
+
+  /**
+   * Unit test for JoinOptimizer.estimateIndexJoinCost(): probing the index
+   * wins for a small outer side and loses for a large one
+   */
+  @Test public void cost() {
+    JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "x", "x", Predicate.Op.EQUALS);
+    double scanCost = 1000.0 * TableStats.IOCOSTPERPAGE;
+    assertTrue(jo.estimateIndexJoinCost(lj, 10, 500000, 10, scanCost)
+        < jo.estimateJoinCost(lj, 10, 500000, 10, scanCost));
+    assertTrue(jo.estimateIndexJoinCost(lj, 100000, 500000, 10, scanCost)
+        > jo.estimateJoinCost(lj, 100000, 500000, 10, scanCost));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopsJoinTest.class);
+  }
+}
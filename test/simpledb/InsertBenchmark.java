@@ -0,0 +1,102 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Measures HeapFile.insertTuple throughput on tables of growing size whose
+ * existing pages are all full, so every insert goes to the pages appended
+ * at the end. Each table is filled through HeapFile, which finds a page
+ * with room in its FreeSpaceMap, and through a HeapFile that looks for one
+ * like HeapFile used to, reading pages through the BufferPool from the
+ * first page on.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.InsertBenchmark [inserts] [pages...]
+ * </pre>
+ */
+public class InsertBenchmark {
+
+    private static final int DEFAULT_INSERTS = 1000;
+    private static final int[] DEFAULT_PAGES = { 100, 300, 1000 };
+    private static final int COLUMNS = 2;
+    private static final int BATCH = 500;
+
+    /**
+     * A HeapFile with the insert path HeapFile had before it kept a free
+     * space map: every insert scans the pages from the first one.
+     */
+    static class ScanningHeapFile extends HeapFile {
+        ScanningHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+                throws DbException, IOException, TransactionAbortedException {
+            BufferPool bp = Database.getBufferPool();
+            for (int pgNo = 0; pgNo < numPages(); pgNo++) {
+                HeapPageId pid = new HeapPageId(getId(), pgNo);
+                boolean locked = bp.holdsLock(tid, pid);
+                HeapPage pg = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+                if (pg.getNumEmptySlots() > 0) {
+                    pg = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                    pg.insertTuple(t);
+                    return new ArrayList<Page>(Arrays.asList(pg));
+                }
+                if (!locked)
+                    bp.releasePage(tid, pid);
+            }
+            return super.insertTuple(tid, t);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int inserts = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_INSERTS;
+        int[] sizes = DEFAULT_PAGES;
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                sizes[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        Database.reset();
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        int slots = HeapPage.slotsPerPage(td);
+        System.out.println(inserts + " inserts, in transactions of " + BATCH);
+        for (int pages : sizes) {
+            File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS,
+                    pages * slots, 1 << 16, null, null);
+            File copy = File.createTempFile("table", ".dat");
+            copy.deleteOnExit();
+            Files.copy(f.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            report(pages, "free space map", new HeapFile(f, td), inserts);
+            report(pages, "page scan", new ScanningHeapFile(copy, td), inserts);
+        }
+    }
+
+    /**
+     * Inserts into file from an empty pool and prints the throughput.
+     */
+    static void report(int pages, String name, HeapFile file, int inserts)
+            throws Exception {
+        Database.getCatalog().addTable(file, name + pages);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BufferPool bp = Database.getBufferPool();
+        long start = System.nanoTime();
+        for (int done = 0; done < inserts; done += BATCH) {
+            TransactionId tid = new TransactionId();
+            for (int i = done; i < Math.min(inserts, done + BATCH); i++)
+                bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(i, COLUMNS));
+            bp.transactionComplete(tid);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%6d pages %-15s %8.1f ms %10.0f inserts/s%n", pages,
+                name, elapsed / 1e6, inserts / (elapsed / 1e9));
+    }
+}
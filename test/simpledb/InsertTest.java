@@ -3,7 +3,10 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -56,6 +59,51 @@ public class InsertTest extends TestUtil.CreateHeapFile {
     assertEquals(1, empty.numPages());
   }
 
+  /**
+   * Unit test for Insert.getNext() in bulk mode: tuples are appended on new
+   * pages, and are visible to the inserting transaction
+   */
+  @Test public void bulkGetNext() throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 600; i++)
+      tuples.add(Utility.getHeapTuple(i, 2));
+    int pages = empty.numPages();
+    Insert op = new Insert(tid, new TupleIterator(Utility.getTupleDesc(2), tuples),
+        empty.getId(), true);
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(600, 1), op.next()));
+    op.close();
+    // bulk mode always appends, even to a table with room
+    assertEquals(pages + 2, empty.numPages());
+
+    SeqScan scan = new SeqScan(tid, empty.getId());
+    scan.open();
+    for (int i = 0; i < 600; i++)
+      assertEquals(new IntField(i), scan.next().getField(0));
+    assertFalse(scan.hasNext());
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for Insert.getNext() in bulk mode: the appended pages are
+   * emptied when the transaction aborts
+   */
+  @Test public void bulkAbort() throws Exception {
+    Insert op = new Insert(tid, scan1, empty.getId(), true);
+    op.open();
+    op.next();
+    op.close();
+    Database.getBufferPool().transactionComplete(tid, false);
+
+    TransactionId tid2 = new TransactionId();
+    SeqScan scan = new SeqScan(tid2, empty.getId());
+    scan.open();
+    assertFalse(scan.hasNext());
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid2);
+  }
+
   /**
    * JUnit suite target
    */
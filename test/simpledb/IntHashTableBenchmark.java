@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Compares the two hash tables HashEquiJoin builds over its build side: a
+ * HashMap from Field to lists of tuples, which it uses for any key type,
+ * and an IntTupleTable, which it uses for int keys. Both are built from
+ * and probed with tuples backed by encoded bytes, as read from HeapPages,
+ * so any IntField is created by the table itself. Reports the time and
+ * the heap allocation of the build and of the probes, counted for the
+ * benchmark thread with com.sun.management.ThreadMXBean.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.IntHashTableBenchmark [rows] [runs]
+ * </pre>
+ */
+public class IntHashTableBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_RUNS = 5;
+    private static final int COLUMNS = 2;
+
+    private static com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        System.out.println(rows + " build rows, " + rows + " probes");
+
+        for (String mode : new String[] { "HashMap", "IntTupleTable" }) {
+            long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+            int matched = 0;
+            for (int i = 0; i < runs; i++) {
+                long[] result = new long[4];
+                matched = run(mode, rows, result);
+                for (int j = 0; j < 4; j++)
+                    best[j] = Math.min(best[j], result[j]);
+            }
+            System.out.printf("%-14s build %7.1f ms %6.1f bytes/row   probe %7.1f ms %10.0f probes/s %6.1f bytes/probe   %d matches%n",
+                    mode, best[0] / 1e6, (double) best[1] / rows, best[2] / 1e6,
+                    rows / (best[2] / 1e9), (double) best[3] / rows, matched);
+        }
+    }
+
+    /**
+     * @return count tuples of COLUMNS random ints below max, each backed by
+     *         its own slice of one byte array
+     */
+    static Tuple[] tuples(int count, Random rand, int max) {
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        int size = td.getSize();
+        byte[] data = new byte[count * size];
+        Tuple[] tuples = new Tuple[count];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < COLUMNS; j++) {
+                int v = rand.nextInt(max);
+                int off = i * size + j * 4;
+                data[off] = (byte) (v >>> 24);
+                data[off + 1] = (byte) (v >>> 16);
+                data[off + 2] = (byte) (v >>> 8);
+                data[off + 3] = (byte) v;
+            }
+            tuples[i] = new Tuple(td, null, data, i * size);
+        }
+        return tuples;
+    }
+
+    /**
+     * Builds a table over rows random tuples and looks up the key of as
+     * many other random tuples, storing the build time and bytes and the
+     * probe time and bytes in result.
+     *
+     * @return the number of matches
+     */
+    static int run(String mode, int rows, long[] result) {
+        // new tuples every run, so no run sees fields decoded by an earlier one
+        Tuple[] build = tuples(rows, new Random(0), rows);
+        Tuple[] probe = tuples(rows, new Random(1), rows);
+        long self = Thread.currentThread().getId();
+        long bytes = bean.getThreadAllocatedBytes(self);
+        long start = System.nanoTime();
+        int matched = 0;
+        if (mode.equals("HashMap")) {
+            HashMap<Field, ArrayList<Tuple>> map = new HashMap<Field, ArrayList<Tuple>>();
+            for (Tuple t : build) {
+                Field key = t.getField(0);
+                ArrayList<Tuple> list = map.get(key);
+                if (list == null) {
+                    list = new ArrayList<Tuple>();
+                    map.put(key, list);
+                }
+                list.add(t);
+            }
+            result[0] = System.nanoTime() - start;
+            result[1] = bean.getThreadAllocatedBytes(self) - bytes;
+            bytes = bean.getThreadAllocatedBytes(self);
+            start = System.nanoTime();
+            for (Tuple t : probe) {
+                ArrayList<Tuple> list = map.get(t.getField(0));
+                if (list != null) {
+                    for (Tuple match : list)
+                        matched++;
+                }
+            }
+        } else {
+            IntTupleTable table = new IntTupleTable(1024);
+            for (Tuple t : build)
+                table.add(t.getInt(0), t);
+            result[0] = System.nanoTime() - start;
+            result[1] = bean.getThreadAllocatedBytes(self) - bytes;
+            bytes = bean.getThreadAllocatedBytes(self);
+            start = System.nanoTime();
+            for (Tuple t : probe) {
+                for (int row = table.first(t.getInt(0)); row != -1; row = table.next(row))
+                    matched++;
+            }
+        }
+        result[2] = System.nanoTime() - start;
+        result[3] = bean.getThreadAllocatedBytes(self) - bytes;
+        return matched;
+    }
+}
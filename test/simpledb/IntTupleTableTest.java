@@ -0,0 +1,40 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntTupleTableTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for IntTupleTable.add() and lookups, through several rounds
+     * of growing
+     */
+    @Test public void addAndFind() {
+        IntTupleTable table = new IntTupleTable(4);
+        int keys = 5000;
+        for (int i = 0; i < 3 * keys; i++)
+            table.add((i % keys) * 7919 - 1000000, Utility.getHeapTuple(i));
+        assertEquals(3 * keys, table.size());
+
+        for (int k = 0; k < keys; k++) {
+            Set<Integer> found = new HashSet<Integer>();
+            for (int row = table.first(k * 7919 - 1000000); row != -1; row = table.next(row))
+                found.add(((IntField) table.tuple(row).getField(0)).getValue());
+            assertEquals(new HashSet<Integer>(Arrays.asList(k, k + keys, k + 2 * keys)), found);
+        }
+        assertEquals(-1, table.first(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntTupleTableTest.class);
+    }
+}
@@ -126,6 +126,33 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator.mergeTupleIntoGroup() and iterator() over a
+   * sum_count, and the sc_avg of its tuples
+   */
+  @Test public void mergeSumCount() throws Exception {
+    scan1.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM_COUNT);
+    while (scan1.hasNext())
+      agg.mergeTupleIntoGroup(scan1.next());
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new int[] { 1, 12, 3, 3, 12, 3, 5, 7, 1 }), it);
+
+    // merging the partial sums and counts, twice over, averages them
+    IntegerAggregator avgAgg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SC_AVG);
+    for (int i = 0; i < 2; i++) {
+      it.rewind();
+      while (it.hasNext())
+        avgAgg.mergeTupleIntoGroup(it.next());
+    }
+    it = avgAgg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 4, 3, 4, 5, 7 }), it);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
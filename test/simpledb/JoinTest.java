@@ -106,6 +106,38 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() with blocks smaller than child1: the same
+   * tuples, with child2 scanned once per block
+   */
+  @Test public void smallBlocks() throws Exception {
+    long tupleBytes = Utility.getTupleDesc(width1).getSize() + HashEquiJoin.TUPLE_OVERHEAD;
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, scan1, scan2, 3 * tupleBytes);
+    assertEquals(3, op.getBlockTuples());
+    op.open();
+    assertEquals(11, TestUtil.drainOpen(op).size());
+    assertEquals(2, op.getInnerScanCount());
+    op.rewind();
+    assertEquals(11, TestUtil.drainOpen(op).size());
+    assertEquals(4, op.getInnerScanCount());
+
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for Join.getNext() with the default budget: child2 is
+   * scanned once
+   */
+  @Test public void oneBlock() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, scan1, scan2);
+    op.open();
+    assertEquals(11, TestUtil.drainOpen(op).size());
+    assertEquals(1, op.getInnerScanCount());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for Limit.getNext(): the first tuples of the child, which is
+   * not read past them
+   */
+  @Test public void limit() throws Exception {
+    OpIterator child = TestUtil.rows(100, 20);
+    Limit op = new Limit(10, child);
+    op.open();
+    for (int i = 0; i < 10; i++)
+      assertEquals(i, ((IntField) op.next().getField(1)).getValue());
+    assertTrue(TestUtil.checkExhausted(op));
+    assertEquals(10, ((IntField) child.next().getField(1)).getValue());
+    op.rewind();
+    assertEquals(0, ((IntField) op.next().getField(1)).getValue());
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.getNext(): the first tuples OrderBy returns, with
+   * duplicate keys, for limits from none to more than the child has
+   */
+  @Test public void topN() throws Exception {
+    int[] fields = { 0 };
+    for (boolean asc : new boolean[] { true, false }) {
+      List<String> sorted = TestUtil.drain(new OrderBy(fields, new boolean[] { asc },
+          TestUtil.rows(500, 20)));
+      for (int limit : new int[] { 0, 1, 7, 500, 600, 2000000000 }) {
+        TopN op = new TopN(fields, new boolean[] { asc }, limit, TestUtil.rows(500, 20));
+        assertEquals(sorted.subList(0, Math.min(limit, 500)), TestUtil.drain(op));
+      }
+    }
+  }
+
+  /**
+   * Unit test for TopN and Limit with a limit far larger than the child:
+   * neither allocates for the limit up front
+   */
+  @Test public void hugeLimit() throws Exception {
+    int[] fields = { 0 };
+    TopN top = new TopN(fields, new boolean[] { true }, Integer.MAX_VALUE, TestUtil.rows(3, 20));
+    assertEquals(TestUtil.drain(new OrderBy(fields, new boolean[] { true }, TestUtil.rows(3, 20))),
+        TestUtil.drain(top));
+    assertEquals(TestUtil.drain(TestUtil.rows(3, 20)),
+        TestUtil.drain(new Limit(Integer.MAX_VALUE, TestUtil.rows(3, 20))));
+  }
+
+  /**
+   * Unit test for LIMIT in Parser and LogicalPlan.physicalPlan(): a
+   * limited ORDER BY becomes a TopN, a LIMIT alone a Limit
+   */
+  @Test public void parse() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 200, null, null, "c");
+    Database.getCatalog().addTable(table, "t");
+    TableStats.setTableStats("t", new TableStats(table.getId(), 1));
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+
+    OpIterator plan = p.generateLogicalPlan(tid, "SELECT * FROM t ORDER BY t.c0 DESC LIMIT 5;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    OpIterator top = ((Operator) plan).getChildren()[0];
+    assertTrue(top instanceof TopN);
+    assertEquals(5, ((TopN) top).getLimit());
+    assertEquals(5, TestUtil.drain(plan).size());
+
+    plan = p.generateLogicalPlan(tid, "SELECT t.c1 FROM t limit 7;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+    assertEquals(7, TestUtil.drain(plan).size());
+
+    plan = p.generateLogicalPlan(tid, "SELECT * FROM t ORDER BY t.c0;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof OrderBy);
+
+    plan = p.generateLogicalPlan(tid, "SELECT * FROM t ORDER BY t.c0 LIMIT 2000000000;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertEquals(200, TestUtil.drain(plan).size());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for LIMIT in Parser.processNextStatement(): an INSERT ...
+   * VALUES has no query to limit, so it is rejected rather than run with
+   * the LIMIT ignored
+   */
+  @Test public void insertValuesLimit() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+    Database.getCatalog().addTable(table, "t");
+    Parser p = new Parser();
+    p.processNextStatement("INSERT INTO t VALUES (1, 2) LIMIT 5;");
+    TransactionId tid = new TransactionId();
+    assertEquals(10, TestUtil.drain(new SeqScan(tid, table.getId())).size());
+    Database.getBufferPool().transactionComplete(tid);
+
+    p.processNextStatement("INSERT INTO t VALUES (1, 2);");
+    p.processNextStatement("INSERT INTO t SELECT * FROM t LIMIT 5;");
+    tid = new TransactionId();
+    assertEquals(16, TestUtil.drain(new SeqScan(tid, table.getId())).size());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
@@ -0,0 +1,305 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final int WAIT_MILLIS = 200;
+
+    private LockManager lm;
+    private PageId p0;
+    private PageId p1;
+    private TransactionId tid1;
+    private TransactionId tid2;
+
+    /**
+     * A thread that acquires one lock and records whether it got it.
+     */
+    private class Acquirer extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile Exception error;
+
+        Acquirer(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    private Acquirer start(TransactionId tid, PageId pid, Permissions perm)
+            throws InterruptedException {
+        Acquirer a = new Acquirer(tid, pid, perm);
+        a.start();
+        a.join(WAIT_MILLIS);
+        return a;
+    }
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /**
+     * Unit test for LockManager: shared locks are compatible with each other
+     */
+    @Test public void sharedShared() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        Acquirer a = start(tid2, p0, Permissions.READ_ONLY);
+        assertTrue(a.acquired);
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+        assertFalse(lm.holdsExclusive(tid2, p0));
+    }
+
+    /**
+     * Unit test for LockManager: an exclusive lock blocks other transactions
+     * until it is released
+     */
+    @Test public void exclusiveBlocks() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        Acquirer a = start(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(a.acquired);
+        lm.releaseAll(tid1);
+        a.join(WAIT_MILLIS);
+        assertTrue(a.acquired);
+        assertFalse(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+    }
+
+    /**
+     * Unit test for LockManager: the only shared holder can upgrade, and an
+     * upgrade waits for the other shared holders
+     */
+    @Test public void upgrade() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+        // a weaker request of the holder is already satisfied
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+        lm.releaseAll(tid1);
+
+        lm.acquire(tid1, p1, Permissions.READ_ONLY);
+        lm.acquire(tid2, p1, Permissions.READ_ONLY);
+        Acquirer a = start(tid1, p1, Permissions.READ_WRITE);
+        assertFalse(a.acquired);
+        lm.release(tid2, p1);
+        a.join(WAIT_MILLIS);
+        assertTrue(a.acquired);
+        assertTrue(lm.holdsExclusive(tid1, p1));
+    }
+
+    /**
+     * Unit test for LockManager: waiters are served in order, so a shared
+     * request does not overtake a waiting exclusive one
+     */
+    @Test public void fifo() throws Exception {
+        TransactionId tid3 = new TransactionId();
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        Acquirer writer = start(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(writer.acquired);
+        Acquirer reader = start(tid3, p0, Permissions.READ_ONLY);
+        assertFalse(reader.acquired);
+
+        lm.releaseAll(tid1);
+        writer.join(WAIT_MILLIS);
+        assertTrue(writer.acquired);
+        assertFalse(reader.acquired);
+        lm.releaseAll(tid2);
+        reader.join(WAIT_MILLIS);
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * Unit test for LockManager: a deadlock is broken by aborting the
+     * youngest transaction on the cycle, without waiting for a timeout
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+        Acquirer a1 = start(tid1, p1, Permissions.READ_WRITE);
+        Acquirer a2 = start(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(a2.isAlive());
+        assertTrue(a2.error instanceof TransactionAbortedException);
+        assertFalse(a1.acquired);
+
+        lm.releaseAll(tid2);
+        a1.join(WAIT_MILLIS);
+        assertTrue(a1.acquired);
+    }
+
+    /**
+     * Unit test for LockManager: two shared holders that both upgrade
+     * deadlock, and the younger one is aborted
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        Acquirer a2 = start(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(a2.acquired);
+        Acquirer a1 = start(tid1, p0, Permissions.READ_WRITE);
+        a2.join(WAIT_MILLIS);
+        assertTrue(a2.error instanceof TransactionAbortedException);
+        assertFalse(a1.acquired);
+
+        lm.releaseAll(tid2);
+        a1.join(WAIT_MILLIS);
+        assertTrue(a1.acquired);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+    }
+
+    /**
+     * Unit test for LockManager: a cycle through three transactions is found
+     */
+    @Test public void threeWayDeadlock() throws Exception {
+        TransactionId tid3 = new TransactionId();
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+        lm.acquire(tid3, p2, Permissions.READ_WRITE);
+        Acquirer a3 = start(tid3, p0, Permissions.READ_ONLY);
+        Acquirer a1 = start(tid1, p1, Permissions.READ_ONLY);
+        assertFalse(a3.acquired || a1.acquired);
+        Acquirer a2 = start(tid2, p2, Permissions.READ_ONLY);
+        a3.join(WAIT_MILLIS);
+        assertTrue(a3.error instanceof TransactionAbortedException);
+        assertTrue(a1.isAlive() && a2.isAlive());
+
+        lm.releaseAll(tid3);
+        a2.join(WAIT_MILLIS);
+        assertTrue(a2.acquired);
+        lm.releaseAll(tid2);
+        a1.join(WAIT_MILLIS);
+        assertTrue(a1.acquired);
+    }
+
+    /**
+     * Unit test for LockManager: a transaction waiting on two threads at once
+     * keeps both waits in the wait-for graph, so a cycle through the one
+     * still blocked is found after the other is granted
+     */
+    @Test public void deadlockThroughSecondWaiter() throws Exception {
+        TransactionId tid3 = new TransactionId();
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+        lm.acquire(tid3, p2, Permissions.READ_WRITE);
+        Acquirer a1 = start(tid1, p1, Permissions.READ_WRITE);
+        Acquirer b1 = start(tid1, p2, Permissions.READ_WRITE);
+        assertFalse(a1.acquired || b1.acquired);
+        lm.releaseAll(tid3);
+        b1.join(WAIT_MILLIS);
+        assertTrue(b1.acquired);
+
+        Acquirer a2 = start(tid2, p0, Permissions.READ_WRITE);
+        assertTrue(a2.error instanceof TransactionAbortedException);
+        assertFalse(a1.acquired);
+        lm.releaseAll(tid2);
+        a1.join(WAIT_MILLIS);
+        assertTrue(a1.acquired);
+    }
+
+    /**
+     * Unit test for LockManager.lockedPages() and release()
+     */
+    @Test public void lockedPages() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid1, p1, Permissions.READ_WRITE);
+        lm.acquire(tid1, p1, Permissions.READ_ONLY);
+        assertEquals(2, lm.lockedPages(tid1).size());
+        lm.release(tid1, p0);
+        assertEquals(1, lm.lockedPages(tid1).size());
+        assertEquals(p1, lm.lockedPages(tid1).get(0));
+        lm.releaseAll(tid1);
+        assertTrue(lm.lockedPages(tid1).isEmpty());
+    }
+
+    /**
+     * Unit test for LockManager: a page's lock is dropped from the lock
+     * table once nobody holds or waits for it, and made again on next use
+     */
+    @Test public void idleLocksDropped() throws Exception {
+        for (int i = 0; i < 100; i++)
+            lm.acquire(tid1, new HeapPageId(1, i), Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        assertEquals(100, lm.numLocks());
+        lm.release(tid1, p1);
+        assertEquals(99, lm.numLocks());
+        lm.releaseAll(tid1);
+        assertEquals(1, lm.numLocks());
+
+        Acquirer a1 = start(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(a1.acquired);
+        lm.releaseAll(tid2);
+        a1.join(WAIT_MILLIS);
+        assertTrue(a1.acquired);
+        assertEquals(1, lm.numLocks());
+        lm.releaseAll(tid1);
+        assertEquals(0, lm.numLocks());
+        lm.acquire(tid2, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsExclusive(tid2, p0));
+    }
+
+    /**
+     * Unit test for LockManager: while a page's lock exists, taking and
+     * releasing it without contention allocates nothing
+     */
+    @Test public void uncontendedAllocationFree() throws Exception {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) mx;
+        long self = Thread.currentThread().getId();
+
+        // another holder keeps the lock in the lock table
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        lm.acquire(tid1, p1, Permissions.READ_ONLY);
+        for (int i = 0; i < 20000; i++) {
+            lm.acquire(tid1, p0, Permissions.READ_ONLY);
+            lm.acquire(tid1, p1, Permissions.READ_WRITE);
+            lm.release(tid1, p0);
+        }
+        long before = bean.getThreadAllocatedBytes(self);
+        for (int i = 0; i < 20000; i++) {
+            lm.acquire(tid1, p0, Permissions.READ_ONLY);
+            lm.acquire(tid1, p1, Permissions.READ_WRITE);
+            lm.release(tid1, p0);
+        }
+        long allocated = bean.getThreadAllocatedBytes(self) - before;
+        // leave room for the measurement itself, not for a byte per lock
+        assertTrue("allocated " + allocated + " bytes", allocated < 20000);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
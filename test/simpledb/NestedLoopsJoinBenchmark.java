@@ -0,0 +1,72 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures Join on a &lt; join of two tables of the same size, read with
+ * SeqScans, with blocks of one child1 tuple, which is the tuple at a time
+ * nested loops join Join used to be, of 1000 tuples, and of its default
+ * memory budget. Reports the number of scans of child2 and the wall-clock
+ * time of each.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.NestedLoopsJoinBenchmark [rows] [runs]
+ * </pre>
+ */
+public class NestedLoopsJoinBenchmark {
+
+    private static final int DEFAULT_ROWS = 10000;
+    private static final int DEFAULT_RUNS = 3;
+    private static final int COLUMNS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        Database.reset();
+        HeapFile outer = Utility.openHeapFile(COLUMNS, SystemTestUtil
+                .createRandomHeapFileUnopened(COLUMNS, rows, rows, null, null));
+        HeapFile inner = Utility.openHeapFile(COLUMNS, SystemTestUtil
+                .createRandomHeapFileUnopened(COLUMNS, rows, rows, null, null));
+        long tupleBytes = Utility.getTupleDesc(COLUMNS).getSize() + HashEquiJoin.TUPLE_OVERHEAD;
+        System.out.println(rows + " x " + rows + " rows, " + outer.numPages() + " pages each");
+
+        long[] budgets = { tupleBytes, 1000 * tupleBytes, Join.DEFAULT_MEMORY_BYTES };
+        for (long budget : budgets) {
+            long best = Long.MAX_VALUE;
+            int[] result = new int[3];
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                join(outer, inner, budget, result);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%7d tuples/block %6d inner scans %10.1f ms %10d rows out%n",
+                    result[0], result[1], best / 1e6, result[2]);
+        }
+    }
+
+    /**
+     * Joins outer with inner, storing the block size, the number of inner
+     * scans and the number of rows returned in result.
+     */
+    static void join(HeapFile outer, HeapFile inner, long budget, int[] result)
+            throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        Join join = new Join(pred, new SeqScan(tid, outer.getId()),
+                new SeqScan(tid, inner.getId()), budget);
+        join.open();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        result[0] = join.getBlockTuples();
+        result[1] = join.getInnerScanCount();
+        result[2] = n;
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /** Bytes a budget needs for each tuple of input(). */
+  private static final long TUPLE_BYTES = Utility.getTupleDesc(3).getSize()
+      + HashEquiJoin.TUPLE_OVERHEAD;
+
+  /**
+   * @return rows three-column tuples with small random values in the first
+   *         two columns, and numbered in the third
+   */
+  private static OpIterator input(int rows) {
+    return TestUtil.rows(rows, 10, 10);
+  }
+
+  /**
+   * @return the string forms of the tuples of input(rows) after a stable
+   *         sort on the first column ascending and the second descending
+   */
+  private static ArrayList<String> expected(int rows) throws Exception {
+    ArrayList<Tuple> sorted = new ArrayList<Tuple>();
+    OpIterator it = input(rows);
+    it.open();
+    while (it.hasNext())
+      sorted.add(it.next());
+    it.close();
+    Collections.sort(sorted, new Comparator<Tuple>() {
+      public int compare(Tuple t1, Tuple t2) {
+        int c = ((IntField) t1.getField(0)).getValue() - ((IntField) t2.getField(0)).getValue();
+        return c != 0 ? c : ((IntField) t2.getField(1)).getValue() - ((IntField) t1.getField(1)).getValue();
+      }
+    });
+    ArrayList<String> out = new ArrayList<String>();
+    for (Tuple t : sorted)
+      out.add(t.toString());
+    return out;
+  }
+
+  private static OrderBy orderBy(int rows, long memoryBytes) {
+    return new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+        input(rows), memoryBytes);
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on two fields when the child fits in
+   * memory
+   */
+  @Test public void inMemory() throws Exception {
+    ArrayList<String> expected = expected(500);
+    OrderBy op = orderBy(500, OrderBy.DEFAULT_MEMORY_BYTES);
+    op.open();
+    assertEquals(expected, TestUtil.drainOpen(op));
+    assertEquals(0, op.getRunCount());
+    op.rewind();
+    assertEquals(expected, TestUtil.drainOpen(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() when the child is written to disk in
+   * sorted runs: the same order, with equal keys in child order
+   */
+  @Test public void spill() throws Exception {
+    ArrayList<String> expected = expected(20000);
+    // room for 6898 tuples, or for merging 8 runs
+    OrderBy op = orderBy(20000, 8 * OrderBy.RUN_BUFFER_BYTES);
+    op.open();
+    assertEquals(expected, TestUtil.drainOpen(op));
+    assertEquals(2, op.getRunCount());
+    op.rewind();
+    assertEquals(expected, TestUtil.drainOpen(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() with more runs than are merged at
+   * once: runs are merged into longer runs first
+   */
+  @Test public void multiPassMerge() throws Exception {
+    ArrayList<String> expected = expected(2000);
+    // room for 300 tuples, and for merging no more than 2 runs
+    OrderBy op = orderBy(2000, 300 * TUPLE_BYTES);
+    op.open();
+    assertEquals(expected, TestUtil.drainOpen(op));
+    // 6 runs, merged 2 at a time until one is left
+    assertEquals(11, op.getRunCount());
+    op.rewind();
+    assertEquals(expected, TestUtil.drainOpen(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy: sort fields and orders must match up
+   */
+  @Test(expected = IllegalArgumentException.class) public void mismatchedOrders() {
+    new OrderBy(new int[] { 0, 1 }, new boolean[] { true },
+        input(1));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
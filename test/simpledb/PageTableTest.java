@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    private static HeapPage emptyPage(HeapPageId pid) throws Exception {
+        return new HeapPage(pid, HeapPage.createEmptyPageData());
+    }
+
+    /**
+     * Unit test for PageTable.createPinned() and PageTable.pin()
+     */
+    @Test public void createAndPin() throws Exception {
+        PageTable table = new PageTable();
+        assertNull(table.pin(pid));
+
+        PageTable.Frame f = table.createPinned(pid);
+        assertNotNull(f);
+        assertNull(table.createPinned(pid));
+        assertEquals(1, table.size());
+        assertTrue(table.isPinned(pid));
+
+        HeapPage page = emptyPage(pid);
+        assertSame(page, f.fill(page));
+        table.unpin(f);
+        assertFalse(table.isPinned(pid));
+
+        PageTable.Frame g = table.pin(pid);
+        assertSame(f, g);
+        assertSame(page, g.awaitPage());
+        table.unpin(g);
+    }
+
+    /**
+     * Unit test for PageTable.removeIfClean(): pinned, unread and dirty
+     * frames stay
+     */
+    @Test public void removeIfClean() throws Exception {
+        PageTable table = new PageTable();
+        PageTable.Frame f = table.createPinned(pid);
+        table.unpin(f);
+        // still being read
+        assertFalse(table.removeIfClean(pid));
+
+        HeapPage page = emptyPage(pid);
+        f.fill(page);
+        f = table.pin(pid);
+        assertFalse(table.removeIfClean(pid));
+        table.unpin(f);
+
+        page.markDirty(true, new TransactionId());
+        assertFalse(table.removeIfClean(pid));
+        page.markDirty(false, null);
+        assertTrue(table.removeIfClean(pid));
+        assertEquals(0, table.size());
+        assertTrue(table.pageIds().isEmpty());
+    }
+
+    /**
+     * Unit test for PageTable.Frame.fill(): a dirtied copy put in while the
+     * page was being read wins over the copy read from disk
+     */
+    @Test public void fillKeepsDirtiedCopy() throws Exception {
+        PageTable table = new PageTable();
+        PageTable.Frame f = table.createPinned(pid);
+        HeapPage dirtied = emptyPage(pid);
+        f.setPage(dirtied);
+        assertSame(dirtied, f.fill(emptyPage(pid)));
+        table.unpin(f);
+    }
+
+    /**
+     * Unit test for PageTable.Frame.awaitPage(): a thread asking for a page
+     * that is being read waits for the read to finish
+     */
+    @Test public void awaitPageWaitsForLoad() throws Exception {
+        final PageTable table = new PageTable();
+        final PageTable.Frame f = table.createPinned(pid);
+        final Page[] seen = new Page[1];
+        Thread waiter = new Thread() {
+            public void run() {
+                PageTable.Frame g = table.pin(pid);
+                seen[0] = g.awaitPage();
+                table.unpin(g);
+            }
+        };
+        waiter.start();
+        Thread.sleep(100);
+        assertTrue(waiter.isAlive());
+        HeapPage page = emptyPage(pid);
+        f.fill(page);
+        table.unpin(f);
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        assertSame(page, seen[0]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
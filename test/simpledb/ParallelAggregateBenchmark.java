@@ -0,0 +1,81 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+
+/**
+ * Measures the throughput of SELECT t.c0, AVG(t.c1) FROM t GROUP BY t.c0
+ * over a table that is already in the BufferPool, planned serially and with
+ * 2, 4, ... workers up to the number of processors, where each worker
+ * aggregates its partition of the table and the partial aggregates are
+ * merged.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.ParallelAggregateBenchmark [rows] [groups] [runs]
+ * </pre>
+ */
+public class ParallelAggregateBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_GROUPS = 1000;
+    private static final int DEFAULT_RUNS = 5;
+    private static final String QUERY = "SELECT t.c0, AVG(t.c1) FROM t GROUP BY t.c0;";
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int groups = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_GROUPS;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_RUNS;
+
+        Database.reset();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, rows, groups, null, null);
+        HeapFile table = Utility.openHeapFile(2, "c", f);
+        Database.getCatalog().addTable(table, "t");
+        TableStats.setTableStats("t", new TableStats(table.getId(), 1));
+        // keep the whole table cached, so the query only costs CPU
+        Database.resetBufferPool(table.numPages() + 16);
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.println(rows + " rows, " + groups + " groups, " + table.numPages()
+                + " pages, " + processors + " processors");
+
+        report("serial", rows, 1, runs);
+        for (int p = 2; p <= processors; p *= 2)
+            report("parallel " + p, rows, p, runs);
+        if (processors > 1 && Integer.bitCount(processors) != 1)
+            report("parallel " + processors, rows, processors, runs);
+    }
+
+    private static void report(String name, int rows, int parallelism, int runs)
+            throws Exception {
+        int groups = query(parallelism);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            query(parallelism);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-12s %8.1f ms %12.0f rows/s %8d groups%n", name,
+                best / 1e6, rows / (best / 1e9), groups);
+    }
+
+    /**
+     * @return the number of groups the query returns, planned for the
+     *         given number of workers
+     */
+    static int query(int parallelism) throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, QUERY);
+        lp.setParallelism(parallelism);
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
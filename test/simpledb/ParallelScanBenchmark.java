@@ -0,0 +1,100 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+
+/**
+ * Measures the throughput of a CPU-bound filter over a table that is
+ * already in the BufferPool, SELECT * FROM t WHERE t.c0 &gt; a AND t.c1 &gt;
+ * b AND t.c2 &lt; c AND t.c3 &lt; d, run as Filters over a SeqScan and as a
+ * {@link Gather} of the same Filters over 1, 2, 4, ... partitions of the
+ * table, up to the number of processors, as the planner runs it in
+ * parallel.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.ParallelScanBenchmark [rows] [runs]
+ * </pre>
+ */
+public class ParallelScanBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_RUNS = 5;
+    private static final int COLUMNS = 4;
+    private static final int MAX_VALUE = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        Database.reset();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                MAX_VALUE, null, null);
+        HeapFile table = Utility.openHeapFile(COLUMNS, f);
+        // keep the whole table cached, so the scan only costs CPU
+        Database.resetBufferPool(table.numPages() + 16);
+        System.out.println(rows + " rows, " + table.numPages() + " pages, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+
+        report("serial", table, rows, 0, runs);
+        for (int p = 1; p <= Runtime.getRuntime().availableProcessors(); p *= 2)
+            report("parallel " + p, table, rows, p, runs);
+        if (Integer.bitCount(Runtime.getRuntime().availableProcessors()) != 1)
+            report("parallel " + Runtime.getRuntime().availableProcessors(), table,
+                    rows, Runtime.getRuntime().availableProcessors(), runs);
+    }
+
+    private static void report(String name, HeapFile table, int rows, int parallelism,
+            int runs) throws Exception {
+        int matched = scan(table, parallelism);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            scan(table, parallelism);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-12s %8.1f ms %12.0f rows/s %8d rows match%n", name,
+                best / 1e6, rows / (best / 1e9), matched);
+    }
+
+    /**
+     * @return the number of rows the query returns, with the given number of
+     *         workers or serially for 0
+     */
+    static int scan(HeapFile table, int parallelism) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan;
+        if (parallelism > 0) {
+            OpIterator[] parts = new OpIterator[parallelism];
+            for (int i = 0; i < parallelism; i++)
+                parts[i] = filter(new SeqScan(tid, table.getId(), "t", i, parallelism));
+            plan = new Gather(parts);
+        } else {
+            plan = filter(new SeqScan(tid, table.getId()));
+        }
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * @return the Filters of the query over scan
+     */
+    private static OpIterator filter(OpIterator scan) {
+        OpIterator plan = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN,
+                new IntField(MAX_VALUE / 4)), scan);
+        plan = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN,
+                new IntField(MAX_VALUE / 4)), plan);
+        plan = new Filter(new Predicate(2, Predicate.Op.LESS_THAN,
+                new IntField(MAX_VALUE * 3 / 4)), plan);
+        return new Filter(new Predicate(3, Predicate.Op.LESS_THAN,
+                new IntField(MAX_VALUE * 3 / 4)), plan);
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Measures cold-cache SeqScan throughput: every run starts from an empty
+ * BufferPool, so each page of the table is read through DbFile.readPage.
+ * The same file is scanned through HeapFile and through a HeapFile that
+ * reads pages like HeapFile used to, opening a RandomAccessFile per page,
+ * so the two numbers compare the I/O paths and nothing else. A copy of the
+ * file is also scanned through a read-only HeapFile, which copies each page
+ * out of a memory mapping straight into the new HeapPage. The table is many
+ * times larger than the BufferPool, so every run reads every page again.
+ * The OS page cache is warm after the first run; this measures the cost of
+ * getting a page from the kernel into the pool, not disk speed.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.SeqScanBenchmark [rows] [runs]
+ * </pre>
+ */
+public class SeqScanBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_RUNS = 5;
+    private static final int COLUMNS = 4;
+
+    /**
+     * A HeapFile with the I/O path HeapFile had before it kept a channel
+     * open: every readPage opens, seeks, reads and closes the file.
+     */
+    static class OpenPerPageHeapFile extends HeapFile {
+        OpenPerPageHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public int getId() {
+            // the same file is also in the catalog as a plain HeapFile
+            return super.getId() + 1;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            try {
+                RandomAccessFile rf = new RandomAccessFile(getFile(), "r");
+                byte[] data = new byte[BufferPool.getPageSize()];
+                rf.seek((long) BufferPool.getPageSize() * pid.getPageNumber());
+                rf.readFully(data);
+                rf.close();
+                return new HeapPage((HeapPageId) pid, data);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        Database.reset();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                1 << 16, null, null);
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        LinkedHashMap<String, DbFile> files = new LinkedHashMap<String, DbFile>();
+        files.put("open per page", new OpenPerPageHeapFile(f, td));
+        files.put("file channel", new HeapFile(f, td));
+        // a HeapFile's id comes from its file, so open a copy read-only
+        File copy = File.createTempFile("table", ".dat");
+        copy.deleteOnExit();
+        Files.copy(f.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        files.put("read-only mmap", new HeapFile(copy, td, true));
+        for (Map.Entry<String, DbFile> e : files.entrySet())
+            Database.getCatalog().addTable(e.getValue(), e.getKey());
+
+        int pages = ((HeapFile) files.get("file channel")).numPages();
+        System.out.println(rows + " rows, " + pages + " pages of "
+                + BufferPool.getPageSize() + " bytes");
+        for (Map.Entry<String, DbFile> e : files.entrySet())
+            report(e.getKey(), e.getValue(), rows, pages, runs);
+    }
+
+    /**
+     * Scans file runs times after one warmup scan and prints the best run.
+     */
+    static void report(String name, DbFile file, int rows, int pages, int runs)
+            throws Exception {
+        scan(file, rows);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++)
+            best = Math.min(best, scan(file, rows));
+        double secs = best / 1e9;
+        System.out.printf("%-14s %8.1f ms %10.0f pages/s %8.1f MB/s%n", name,
+                best / 1e6, pages / secs,
+                (double) pages * BufferPool.getPageSize() / (1 << 20) / secs);
+    }
+
+    /**
+     * @return the nanoseconds a SeqScan over file takes from an empty pool
+     */
+    static long scan(DbFile file, int rows) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, file.getId());
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        if (n != rows)
+            throw new IllegalStateException("scanned " + n + " of " + rows + " rows");
+        return elapsed;
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the pages and the time taken by a scan of a table of ints and
+ * short strings, stored as a HeapFile of fixed-size tuples and as a
+ * slotted HeapFile, starting each run with an empty BufferPool.
+ * <p>
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.SlottedHeapFileBenchmark [rows] [runs]
+ * </pre>
+ */
+public class SlottedHeapFileBenchmark {
+
+    private static final int DEFAULT_ROWS = 100000;
+    private static final int DEFAULT_RUNS = 5;
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+            new String[] { "id", "code", "qty" });
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        Database.reset();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("code" + r.nextInt(100), Type.STRING_LEN));
+            t.setField(2, new IntField(r.nextInt(1000)));
+            tuples.add(t);
+        }
+        HeapFile fixed = load(tuples, false);
+        HeapFile slotted = load(tuples, true);
+        System.out.println(rows + " rows, average record "
+                + String.format("%.1f", new TableStats(slotted.getId(), 1).avgTupleSize())
+                + " bytes of " + TD.getSize());
+        report("fixed", fixed, runs);
+        report("slotted", slotted, runs);
+    }
+
+    /**
+     * @return a new HeapFile in the catalog holding tuples
+     */
+    private static HeapFile load(ArrayList<Tuple> tuples, boolean slotted) throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile file = new HeapFile(f, TD, false, slotted);
+        Database.getCatalog().addTable(file, slotted ? "slotted" : "fixed");
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().appendTuples(tid, file.getId(), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+        return file;
+    }
+
+    private static void report(String name, HeapFile file, int runs) throws Exception {
+        long pages = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            long start = System.nanoTime();
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, file.getId());
+            scan.open();
+            long sum = 0;
+            while (scan.hasNext())
+                sum += scan.next().getInt(2);
+            scan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            best = Math.min(best, System.nanoTime() - start);
+            pages = Database.getBufferPool().getPageReadCount();
+        }
+        System.out.printf("  %-8s %6d pages %8d pages read %8.1f ms%n", name, file.numPages(), pages,
+                best / 1e6);
+    }
+}
@@ -0,0 +1,192 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+            new String[] { "id", "code" });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * @return a tuple of TD with a short string
+     */
+    private static Tuple tuple(int i) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("c" + (i % 1000), Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * @return the string forms of the tuples of page, in slot order
+     */
+    private static ArrayList<String> tuples(HeapPage page) {
+        ArrayList<String> out = new ArrayList<String>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(page.getId(), t.getRecordId().getPageId());
+            out.add(t.getRecordId().getTupleNumber() + ":" + t);
+        }
+        return out;
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.insertTuple() and getPageData(): short
+     * strings fit many times as many tuples as a HeapPage holds, and the
+     * page reads back as it was written
+     */
+    @Test public void insertAndRead() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(0, tuples(page).size());
+        int n = 0;
+        while (page.getNumEmptySlots() > 0)
+            page.insertTuple(tuple(n++));
+        assertTrue(n > 5 * HeapPage.slotsPerPage(TD));
+
+        // a page with no empty slot still has room for a short tuple, but
+        // not for one of the largest size
+        page.insertTuple(tuple(n++));
+        Tuple large = new Tuple(TD);
+        large.setField(0, new IntField(-1));
+        large.setField(1, new StringField(new String(new char[Type.STRING_LEN]).replace('\0', 'x'),
+                Type.STRING_LEN));
+        try {
+            page.insertTuple(large);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+
+        ArrayList<String> expected = tuples(page);
+        assertEquals(n, expected.size());
+        assertEquals("0:0\tc0", expected.get(0));
+        SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(expected, tuples(read));
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        assertTrue(SlottedHeapPage.hasRoom(TD, new byte[SlottedHeapPage.HEADER_SIZE]));
+        assertTrue(!SlottedHeapPage.hasRoom(TD, read.getPageData()));
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.deleteTuple(): deleted tuples free
+     * their slots and bytes, the other tuples keep their slots when the
+     * page is written, and an insert reuses a free slot
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; page.getNumEmptySlots() > 0; i++)
+            page.insertTuple(tuple(i));
+        page = new SlottedHeapPage(pid, page.getPageData());
+
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 3 == 1)
+                deleted.add(t);
+        }
+        for (Tuple t : deleted)
+            page.deleteTuple(t);
+        try {
+            page.deleteTuple(deleted.get(0));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertTrue(page.getNumEmptySlots() > 0);
+
+        ArrayList<String> expected = tuples(page);
+        SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(expected, tuples(read));
+
+        Tuple t = tuple(-5);
+        read.insertTuple(t);
+        assertEquals(1, t.getRecordId().getTupleNumber());
+        read = new SlottedHeapPage(pid, read.getPageData());
+        assertEquals("1:-5\tc-5", tuples(read).get(1));
+
+        // batches read the same tuples
+        Batch batch = new Batch(TD);
+        assertEquals(read.numSlots, read.readInto(batch, 0));
+        ArrayList<String> rows = new ArrayList<String>();
+        for (int i = 0; i < batch.size(); i++)
+            rows.add(batch.getTuple(batch.row(i)).toString());
+        ArrayList<String> all = new ArrayList<String>();
+        for (String s : tuples(read))
+            all.add(s.substring(s.indexOf(':') + 1));
+        assertEquals(all, rows);
+    }
+
+    /**
+     * Unit test for a slotted HeapFile: tuples inserted one at a time and
+     * appended in bulk take fewer pages than in a HeapFile of fixed-size
+     * tuples, and are scanned back, also after the BufferPool is emptied
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFile file = new HeapFile(f, TD, false, true);
+        assertTrue(file.isSlotted());
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 3000; i++)
+            tuples.add(tuple(i));
+        Database.getBufferPool().appendTuples(tid, file.getId(), tuples);
+        for (int i = 3000; i < 3100; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        int fixedPages = (3100 + HeapPage.slotsPerPage(TD) - 1) / HeapPage.slotsPerPage(TD);
+        assertTrue(file.numPages() * 5 < fixedPages);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, file.getId());
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals("c" + (t.getInt(0) % 1000), t.getField(1).toString());
+            n++;
+        }
+        scan.close();
+        assertEquals(3100, n);
+        assertEquals(file.numPages(), Database.getBufferPool().getPageReadCount());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+      Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+      Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+  /**
+   * @return rows two-column tuples, sorted on the first column, which has
+   *         values below max with duplicates, and numbered in the second
+   */
+  private static OpIterator sorted(int rows, int max, long seed) {
+    Random rand = new Random(seed);
+    int[] keys = new int[rows];
+    for (int i = 0; i < rows; i++)
+      keys[i] = rand.nextInt(max);
+    Arrays.sort(keys);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < rows; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { keys[i], i }));
+    return new TupleIterator(Utility.getTupleDesc(2), tuples);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext(): every supported predicate gives
+   * the same tuples as a nested loops join, with duplicate keys on both
+   * sides and keys that only one side has
+   */
+  @Test public void matchesNestedLoops() throws Exception {
+    for (Predicate.Op op : OPS) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      ArrayList<String> expected = TestUtil.sorted(TestUtil.drain(new Join(pred,
+          sorted(120, 40, 1), sorted(90, 50, 2))));
+      ArrayList<String> actual = TestUtil.sorted(TestUtil.drain(new SortMergeJoin(pred,
+          sorted(120, 40, 1), sorted(90, 50, 2))));
+      assertTrue(op.toString(), expected.size() > 0);
+      assertEquals(op.toString(), expected, actual);
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    for (Predicate.Op op : OPS) {
+      SortMergeJoin op1 = new SortMergeJoin(new JoinPredicate(0, op, 0),
+          sorted(50, 20, 3), sorted(50, 20, 4));
+      ArrayList<String> first = TestUtil.sorted(TestUtil.drain(op1));
+      op1.open();
+      while (op1.hasNext())
+        op1.next();
+      op1.rewind();
+      ArrayList<String> second = new ArrayList<String>();
+      while (op1.hasNext())
+        second.add(op1.next().toString());
+      op1.close();
+      Collections.sort(second);
+      assertEquals(first, second);
+    }
+  }
+
+  /**
+   * Unit test for JoinOptimizer.instantiateJoin(): inputs sorted on their
+   * join fields get a merge join for an equality predicate, others a hash
+   * join, and range predicates a nested loops join
+   */
+  @Test public void instantiate() throws Exception {
+    TupleDesc td1 = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new String[] { "a.x", "a.y" });
+    TupleDesc td2 = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new String[] { "b.x", "b.y" });
+    OpIterator a = new TupleIterator(td1, new ArrayList<Tuple>());
+    OpIterator b = new TupleIterator(td2, new ArrayList<Tuple>());
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "x", "x", Predicate.Op.EQUALS);
+
+    assertTrue(JoinOptimizer.instantiateJoin(lj, new OrderBy(0, true, a),
+        new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(1)),
+            new OrderBy(0, true, b))) instanceof SortMergeJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, new OrderBy(0, true, a),
+        new OrderBy(1, true, b)) instanceof HashEquiJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, new OrderBy(0, true, a),
+        new OrderBy(0, false, b)) instanceof HashEquiJoin);
+    LogicalJoinNode range = new LogicalJoinNode("a", "b", "x", "x", Predicate.Op.LESS_THAN);
+    assertTrue(JoinOptimizer.instantiateJoin(range, new OrderBy(0, true, a),
+        new OrderBy(0, true, b)) instanceof Join);
+  }
+
+  /**
+   * Unit test for JoinOptimizer.estimateJoinCost(): sorted inputs make an
+   * equality join cheaper, and do not change the cost of a range join
+   */
+  @Test public void cost() {
+    JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+    for (Predicate.Op op : OPS) {
+      LogicalJoinNode lj = new LogicalJoinNode("a", "b", "x", "x", op);
+      double merge = jo.estimateJoinCost(lj, 1000, 2000, 10, 20, true, true);
+      double other = jo.estimateJoinCost(lj, 1000, 2000, 10, 20, true, false);
+      if (op == Predicate.Op.EQUALS)
+        assertTrue(merge < other);
+      else
+        assertEquals(op.toString(), other, merge, 0.0);
+      assertEquals(other, jo.estimateJoinCost(lj, 1000, 2000, 10, 20), 0.0);
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin: predicates that do not follow the sort
+   * order are rejected
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        sorted(1, 1, 0), sorted(1, 1, 0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for StreamAggregate.getNext(): the groups of Aggregate, for
+   * each operator and for one and two group fields sorted in any direction
+   */
+  @Test public void matchesAggregate() throws Exception {
+    int[][] groupings = { { 0 }, { 1, 0 } };
+    for (int[] gfields : groupings) {
+      boolean[] asc = new boolean[gfields.length];
+      asc[0] = true;
+      for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+          Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+        OpIterator sorted = new OrderBy(gfields, asc, TestUtil.rows(2000, 10, 5));
+        assertTrue(StreamAggregate.groupedOn(sorted, gfields));
+        StreamAggregate agg = new StreamAggregate(sorted, 2, gfields, op);
+        Aggregate hashed = new Aggregate(TestUtil.rows(2000, 10, 5), 2, gfields, op);
+        assertEquals(TestUtil.sorted(TestUtil.drain(hashed)), TestUtil.sorted(TestUtil.drain(agg)));
+      }
+    }
+    assertFalse(StreamAggregate.groupedOn(TestUtil.rows(10, 10, 5), new int[] { 0 }));
+    assertFalse(StreamAggregate.groupedOn(
+        new OrderBy(new int[] { 0 }, new boolean[] { true }, TestUtil.rows(10, 10, 5)),
+        new int[] { 0, 1 }));
+  }
+
+  /**
+   * Unit test for StreamAggregate.getNext(): a group is returned as soon as
+   * the next group starts, and rewind starts over
+   */
+  @Test public void streams() throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 100; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { i / 10, i }));
+    OpIterator child = new TupleIterator(Utility.getTupleDesc(2), tuples);
+    StreamAggregate op = new StreamAggregate(child, 1, new int[] { 0 }, Aggregator.Op.SUM);
+    op.open();
+    Tuple first = op.next();
+    assertEquals(0, ((IntField) first.getField(0)).getValue());
+    assertEquals(45, ((IntField) first.getField(1)).getValue());
+    // only the first tuple of the second group has been read
+    assertEquals(11, ((IntField) child.next().getField(1)).getValue());
+    op.rewind();
+    int groups = 0;
+    while (op.hasNext()) {
+      assertEquals(groups++, ((IntField) op.next().getField(0)).getValue());
+    }
+    assertEquals(10, groups);
+    op.close();
+  }
+
+  /**
+   * Unit test for LogicalPlan.physicalPlan(): grouping a B+ tree table on
+   * its key streams, grouping on another field hashes
+   */
+  @Test public void plan() throws Exception {
+    BTreeFile unnamed = BTreeUtility.createRandomBTreeFile(2, 2000, 50, null, null, 0);
+    BTreeFile table = new BTreeFile(unnamed.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(table, "t");
+    TableStats.setTableStats("t", new TableStats(table.getId(), 1));
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+
+    OpIterator plan = p.generateLogicalPlan(tid,
+        "SELECT t.c0, SUM(t.c1) FROM t GROUP BY t.c0;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    OpIterator agg = ((Operator) plan).getChildren()[0];
+    assertTrue(agg instanceof StreamAggregate);
+    SeqScan scan = new SeqScan(tid, table.getId(), "t");
+    Aggregate hashed = new Aggregate(scan, 1, new int[] { 0 }, Aggregator.Op.SUM);
+    assertEquals(TestUtil.sorted(TestUtil.drain(hashed)), TestUtil.sorted(TestUtil.drain(plan)));
+
+    plan = p.generateLogicalPlan(tid, "SELECT t.c1, COUNT(t.c0) FROM t GROUP BY t.c1;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Aggregate);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StreamAggregateTest.class);
+  }
+}
@@ -167,6 +167,57 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the string forms of the tuples of it, in order. it is opened
+     *   and closed.
+     */
+    public static ArrayList<String> drain(OpIterator it)
+        throws TransactionAbortedException, DbException {
+        it.open();
+        ArrayList<String> out = drainOpen(it);
+        it.close();
+        return out;
+    }
+
+    /**
+     * @return the string forms of the rest of the tuples of the open
+     *   iterator it, in order
+     */
+    public static ArrayList<String> drainOpen(OpIterator it)
+        throws TransactionAbortedException, DbException {
+        ArrayList<String> out = new ArrayList<String>();
+        while (it.hasNext())
+            out.add(it.next().toString());
+        return out;
+    }
+
+    /**
+     * @return strings, sorted in place, to compare the output of operators
+     *   that do not promise an order
+     */
+    public static ArrayList<String> sorted(ArrayList<String> strings) {
+        Collections.sort(strings);
+        return strings;
+    }
+
+    /**
+     * @return a OpIterator over rows tuples of max.length + 1 int fields,
+     *   where field j holds random values below max[j] and the last field
+     *   numbers the tuples. The same arguments give the same tuples.
+     */
+    public static TupleIterator rows(int rows, int... max) {
+        Random rand = new Random(0);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            int[] values = new int[max.length + 1];
+            for (int j = 0; j < max.length; j++)
+                values[j] = rand.nextInt(max[j]);
+            values[max.length] = i;
+            tuples.add(Utility.getHeapTuple(values));
+        }
+        return new TupleIterator(Utility.getTupleDesc(max.length + 1), tuples);
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
@@ -133,6 +133,29 @@ public class TupleDescTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for TupleDesc.getMinSize(), getMaxSize() and
+     * getSize(Tuple): a string takes its actual length in a
+     * variable-length record
+     */
+    @Test public void getVariableSize() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        assertEquals(4 + 4, td.getMinSize());
+        assertEquals(td.getSize(), td.getMaxSize());
+        assertEquals(4 + 4 + Type.STRING_LEN, td.getMaxSize());
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(1));
+        t.setField(1, new StringField("abc", Type.STRING_LEN));
+        assertEquals(4 + 4 + 3, td.getSize(t));
+        t.setField(1, new StringField("", Type.STRING_LEN));
+        assertEquals(td.getMinSize(), td.getSize(t));
+
+        TupleDesc ints = Utility.getTupleDesc(3);
+        assertEquals(ints.getSize(), ints.getMinSize());
+        assertEquals(ints.getSize(), ints.getSize(Utility.getHeapTuple(7, 3)));
+    }
+
     /**
      * Unit test for TupleDesc.numFields()
      */
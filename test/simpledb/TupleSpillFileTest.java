@@ -0,0 +1,65 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleSpillFileTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for TupleSpillFile: tuples come back in order, across more
+     * than one block, as often as they are read
+     */
+    @Test public void roundTrip() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        TupleSpillFile file = new TupleSpillFile(td);
+        int n = 2000;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+            file.add(t);
+        }
+        assertEquals(n, file.size());
+
+        OpIterator it = file.iterator();
+        assertEquals(td, it.getTupleDesc());
+        it.open();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < n; i++) {
+                assertTrue(it.hasNext());
+                Tuple t = it.next();
+                assertEquals(new IntField(i), t.getField(0));
+                assertEquals("s" + i, t.getField(1).toString());
+            }
+            assertFalse(it.hasNext());
+            it.rewind();
+        }
+        it.close();
+        file.delete();
+    }
+
+    /**
+     * Unit test for TupleSpillFile.add(): a file being read is complete
+     */
+    @Test(expected = IllegalStateException.class) public void addAfterRead() throws Exception {
+        TupleSpillFile file = new TupleSpillFile(Utility.getTupleDesc(1));
+        file.add(Utility.getHeapTuple(1));
+        file.iterator();
+        try {
+            file.add(Utility.getHeapTuple(2));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleSpillFileTest.class);
+    }
+}
@@ -1,8 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.Iterator;
+
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
@@ -29,6 +32,19 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for Tuple.toString() and Tuple.fields(): one entry per field
+     */
+    @Test public void fields() {
+        Tuple tup = Utility.getHeapTuple(new int[] { 1, 2 });
+        assertEquals("1\t2", tup.toString());
+
+        Iterator<Field> it = tup.fields();
+        assertEquals(new IntField(1), it.next());
+        assertEquals(new IntField(2), it.next());
+        assertFalse(it.hasNext());
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */